@@ -77,7 +77,8 @@ public class App {
     // 4.1. LogMgr
     System.out.println("4.1. LogMgr --------------------------");
     String logfile = "simpledb.log";
-    new File(dbDirectory, logfile).delete(); // if we don't delete it, the program will fail when reading the contents
+    for (String segment : fm.filenames(logfile + ".")) // if we don't delete it, the program will fail when reading the contents
+      fm.delete(segment);
     LogMgr lm = new LogMgr(fm, logfile);
     printLogRecords(lm, "The initial empty log file:"); // print an empty log file
     System.out.println("done");
@@ -592,7 +593,7 @@ public class App {
     System.out.print("Creating records: ");
     for (int i = start; i <= end; i++) {
       byte[] rec = createLogRecord("record" + i, i + 100);
-      int lsn = lm.append(rec);
+      long lsn = lm.append(rec);
       System.out.print(lsn + " ");
     }
     System.out.println();
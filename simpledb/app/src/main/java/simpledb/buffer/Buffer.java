@@ -1,18 +1,27 @@
 package simpledb.buffer;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
 import simpledb.file.Page;
+import simpledb.file.PageLatch;
 import simpledb.log.LogMgr;
 
 public class Buffer {
   private FileMgr fm;
   private LogMgr lm;
   private Page contents;
+  private PageLatch latch = new PageLatch();
   private BlockId blk = null;
   private int pins = 0;
-  private int txnum = -1;
-  private int lsn = -1;
+  private long txnum = -1;
+  private long lsn = -1;
+  private long recLSN = -1; // the log position from which the modifications are logged
+  private Set<Long> unloggedTxs = new HashSet<>(); // the transactions with unlogged modifications
+  private boolean loading = false; // the block is being read by a prefetch
+  private boolean prefetched = false; // read by a prefetch and not pinned since
 
   public Buffer(FileMgr fm, LogMgr lm) {
     this.fm = fm;
@@ -24,6 +33,14 @@ public class Buffer {
     return contents;
   }
 
+  /*
+   * Return the latch that guards the physical accesses to the page
+   * while the buffer is pinned.
+   */
+  public PageLatch latch() {
+    return latch;
+  }
+
   /*
    * Returns a block allocated to the buffer
    */
@@ -31,17 +48,50 @@ public class Buffer {
     return blk;
   }
 
-  public void setModified(int txnum, int lsn) {
+  /*
+   * Mark the buffer as modified by the transaction.
+   * A negative LSN means the modification is not logged,
+   * so the buffer has to be written to disk when the transaction commits,
+   * even if another transaction modifies the buffer afterwards.
+   */
+  public synchronized void setModified(long txnum, long lsn) {
     this.txnum = txnum;
-    if (lsn >= 0)
+    if (lsn >= 0) {
       this.lsn = lsn;
+      if (recLSN < 0)
+        recLSN = lsn;
+    } else {
+      unloggedTxs.add(txnum);
+    }
+  }
+
+  /*
+   * Remember the end of the log before a clean buffer gets modified.
+   * The log records of the modification come after this LSN,
+   * so the redo of the buffer can start there.
+   */
+  public synchronized void setRecLSN(long lsn) {
+    if (recLSN < 0)
+      recLSN = lsn;
+  }
+
+  /*
+   * Return the LSN from which the changes of the buffer need to be redone,
+   * or -1 if the buffer is not modified by a logged change.
+   */
+  public synchronized long recLSN() {
+    return recLSN;
+  }
+
+  public synchronized boolean hasUnloggedChanges(long txnum) {
+    return unloggedTxs.contains(txnum);
   }
 
   public boolean isPinned() {
     return pins > 0;
   }
 
-  public int modifyingTx() {
+  public synchronized long modifyingTx() {
     return txnum;
   }
 
@@ -52,19 +102,67 @@ public class Buffer {
     pins = 0;
   }
 
+  /*
+   * Assign the clean buffer to the block for a prefetch.
+   * The block is read by load() without the monitor of the buffer manager,
+   * and the buffer isn't pinned or replaced until finishLoading().
+   */
+  void startLoading(BlockId b) {
+    blk = b;
+    pins = 0;
+    loading = true;
+    prefetched = true;
+  }
+
+  void load() {
+    fm.read(blk, contents);
+  }
+
+  void finishLoading(boolean loaded) {
+    loading = false;
+    if (!loaded) {
+      blk = null;
+      prefetched = false;
+    }
+  }
+
+  boolean isLoading() {
+    return loading;
+  }
+
+  boolean isPrefetched() {
+    return prefetched;
+  }
+
   /*
    * Write the buffer to its disk block if it is dirty.
    */
-  void flush() {
+  synchronized void flush() {
     if (txnum >= 0) {
       lm.flush(lsn);
       fm.write(blk, contents);
       txnum = -1;
+      recLSN = -1;
+      unloggedTxs.clear();
     }
   }
 
+  /*
+   * Release the buffer from its block without writing it,
+   * as the block is removed from its file.
+   */
+  synchronized void discard() {
+    blk = null;
+    txnum = -1;
+    lsn = -1;
+    recLSN = -1;
+    unloggedTxs.clear();
+    prefetched = false;
+  }
+
   void pin() {
     pins++;
+    prefetched = false;
   }
 
   void unpin() {
@@ -1,15 +1,23 @@
 package simpledb.buffer;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
 import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
 import simpledb.log.LogMgr;
 
 public class BufferMgr {
+  private FileMgr fm;
   private Buffer[] bufferpool;
   private int numAvailable;
   private static final long MAX_TIME = 10000; // 10 seconds
 
   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
+    this.fm = fm;
     bufferpool = new Buffer[numbuffs];
     numAvailable = numbuffs;
     for (int i = 0; i < numbuffs; i++)
@@ -20,13 +28,138 @@ public class BufferMgr {
     return numAvailable;
   }
 
-  public synchronized void flushAll(int txnum) {
+  public synchronized void flushAll(long txnum) {
     for (Buffer buff : bufferpool) {
       if (buff.modifyingTx() == txnum)
         buff.flush();
     }
   }
 
+  /*
+   * Write the buffers that have modifications of the transaction
+   * which are not in the log. The logged modifications can be redone
+   * from the log, so they don't need to be written at commit.
+   */
+  public void flushUnlogged(long txnum) {
+    flush(blocks(buff -> buff.hasUnloggedChanges(txnum)));
+  }
+
+  /*
+   * Write the modified buffers.
+   * The pins don't wait for the writes, see flush(List).
+   */
+  public void flushDirty() {
+    flush(blocks(buff -> buff.modifyingTx() >= 0));
+  }
+
+  /*
+   * Return the dirty page table: the modified blocks
+   * with the LSN from which their changes need to be redone.
+   */
+  public synchronized Map<BlockId, Long> dirtyPages() {
+    Map<BlockId, Long> dirtyPages = new HashMap<>();
+    for (Buffer buff : bufferpool) {
+      long recLSN = buff.recLSN();
+      if (recLSN >= 0)
+        dirtyPages.put(buff.block(), recLSN);
+    }
+    return dirtyPages;
+  }
+
+  /*
+   * Cut the file down to the given number of blocks.
+   * The buffers of the removed blocks are released first and their
+   * modifications are dropped, so that a later write doesn't extend
+   * the file again. The removed blocks must not be pinned.
+   */
+  public synchronized void truncate(String filename, int nblocks) {
+    for (Buffer buff : bufferpool) {
+      BlockId b = buff.block();
+      if (b != null && b.fileName().equals(filename) && b.number() >= nblocks && buff.isPinned())
+        throw new RuntimeException("cannot discard pinned block " + b);
+    }
+    for (Buffer buff : bufferpool) {
+      BlockId b = buff.block();
+      if (b != null && b.fileName().equals(filename) && b.number() >= nblocks)
+        buff.discard();
+    }
+    fm.truncate(filename, nblocks);
+  }
+
+  /*
+   * Read the block into an unpinned buffer without pinning it,
+   * so that a later pin finds it in the pool.
+   * Only clean buffers are replaced, so the prefetch never writes to disk,
+   * and the blocks prefetched before and not pinned yet are kept.
+   * Nothing is read if there's no such buffer.
+   * The block is read outside the monitor; a pin of the block waits for it.
+   */
+  public void prefetch(BlockId blk) {
+    Buffer buff = null;
+    synchronized (this) {
+      if (findExistingBuffer(blk) != null)
+        return;
+      for (Buffer b : bufferpool) {
+        if (!b.isPinned() && b.modifyingTx() < 0 && !b.isLoading() && !b.isPrefetched()) {
+          buff = b;
+          break;
+        }
+      }
+      if (buff == null)
+        return;
+      buff.startLoading(blk);
+    }
+    boolean loaded = false;
+    try {
+      buff.load();
+      loaded = true;
+    } finally {
+      synchronized (this) {
+        buff.finishLoading(loaded);
+        notifyAll();
+      }
+    }
+  }
+
+  /*
+   * Write the buffers of the blocks outside the monitor of the pool,
+   * so that the other threads pin and unpin buffers meanwhile.
+   * Each buffer is pinned while it's written, so that it isn't replaced.
+   * A block that has left the pool was written when it left.
+   * The writes of a modification hold the monitor of the buffer,
+   * so a pinned buffer is never written in the middle of one.
+   */
+  private void flush(List<BlockId> blks) {
+    for (BlockId blk : blks) {
+      Buffer buff = pinIfPresent(blk);
+      if (buff == null)
+        continue;
+      try {
+        buff.flush();
+      } finally {
+        unpin(buff);
+      }
+    }
+  }
+
+  private synchronized List<BlockId> blocks(Predicate<Buffer> pred) {
+    List<BlockId> blks = new ArrayList<>();
+    for (Buffer buff : bufferpool)
+      if (buff.block() != null && pred.test(buff))
+        blks.add(buff.block());
+    return blks;
+  }
+
+  private synchronized Buffer pinIfPresent(BlockId blk) {
+    Buffer buff = findExistingBuffer(blk);
+    if (buff == null || buff.isLoading())
+      return null;
+    if (!buff.isPinned())
+      numAvailable--;
+    buff.pin();
+    return buff;
+  }
+
   public synchronized void unpin(Buffer buff) {
     buff.unpin();
     if (!buff.isPinned()) {
@@ -55,8 +188,13 @@ public class BufferMgr {
     return System.currentTimeMillis() - starttime > MAX_TIME;
   }
 
+  /*
+   * Return null to wait if the block is being read by a prefetch.
+   */
   private Buffer tryToPin(BlockId blk) {
     Buffer buff = findExistingBuffer(blk);
+    if (buff != null && buff.isLoading())
+      return null;
     if (buff == null) {
       buff = chooseUnpinnedBuffer();
       if (buff == null)
@@ -80,7 +218,7 @@ public class BufferMgr {
 
   private Buffer chooseUnpinnedBuffer() {
     for (Buffer buff : bufferpool)
-      if (!buff.isPinned())
+      if (!buff.isPinned() && !buff.isLoading())
         return buff;
     return null;
   }
@@ -3,16 +3,27 @@ package simpledb.file;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FileMgr {
   private File dbDirectory;
   private int blocksize;
   private boolean isNew;
   private Map<String, RandomAccessFile> openFiles = new HashMap<>();
+  private Map<String, FreeSpaceMap> freeSpaceMaps = new ConcurrentHashMap<>();
+  /*
+   * The number of the blocks of each file, kept up to date by
+   * the methods that change it, so that length() doesn't ask the OS.
+   * All the changes to the files go through this class.
+   */
+  private Map<String, Integer> sizes = new ConcurrentHashMap<>();
   public static final Charset CHARSET = StandardCharsets.US_ASCII;
 
   public FileMgr(File dbDirectory, int blocksize) {
@@ -30,16 +41,48 @@ public class FileMgr {
         new File(dbDirectory, filename).delete();
   }
 
+  /*
+   * Read the block into the page.
+   * A block past the end of the file, such as a block of a truncated file,
+   * reads as zeros.
+   */
   public synchronized void read(BlockId blk, Page p) {
     try {
       RandomAccessFile f = getFile(blk.fileName());
       f.seek(blk.number() * blocksize);
-      f.getChannel().read(p.contents());
+      ByteBuffer bb = p.contents();
+      f.getChannel().read(bb);
+      while (bb.hasRemaining())
+        bb.put((byte) 0);
     } catch (IOException e) {
       throw new RuntimeException("cannot read block " + blk);
     }
   }
 
+  /*
+   * Read the consecutive blocks from the specified block in one I/O.
+   * The page must be large enough for the blocks.
+   */
+  public synchronized void read(BlockId blk, Page p, int nblocks) {
+    try {
+      RandomAccessFile f = getFile(blk.fileName());
+      f.seek(blk.number() * blocksize);
+      ByteBuffer bb = p.contents();
+      bb.limit(nblocks * blocksize);
+      f.getChannel().read(bb);
+      while (bb.hasRemaining())
+        bb.put((byte) 0);
+      bb.limit(bb.capacity());
+    } catch (IOException e) {
+      throw new RuntimeException("cannot read " + nblocks + " blocks from " + blk);
+    }
+  }
+
+  /*
+   * Write the page to the block.
+   * A write past the end of the file, such as the redo of a block
+   * of a truncated file, extends the file.
+   */
   public synchronized void write(BlockId blk, Page page) {
     try {
       RandomAccessFile f = getFile(blk.fileName());
@@ -48,6 +91,8 @@ public class FileMgr {
     } catch (IOException e) {
       throw new RuntimeException("cannot write block " + blk);
     }
+    if (blk.number() >= length(blk.fileName()))
+      sizes.put(blk.fileName(), blk.number() + 1);
   }
 
   /*
@@ -67,6 +112,7 @@ public class FileMgr {
     } catch (IOException e) {
       throw new RuntimeException("cannot append block " + blk);
     }
+    sizes.put(filename, newblknum + 1);
     System.out.println("[FileMgr] finished appending block. blknum: " + newblknum);
     return blk;
   }
@@ -75,14 +121,75 @@ public class FileMgr {
    * Return the number of the blocks of the specified file.
    * Ususally used to get the block num to append contents to
    * existing file
+   * The size is read from the file only at the first call for the file.
    */
   public int length(String filename) {
+    Integer size = sizes.get(filename);
+    if (size != null)
+      return size;
+    return readLength(filename);
+  }
+
+  /*
+   * Cut the file down to the given number of blocks.
+   * The caller makes sure that no one uses the removed blocks.
+   */
+  public synchronized void truncate(String filename, int nblocks) {
+    System.out.println("[FileMgr] truncating " + filename + " to " + nblocks + " blocks");
     try {
       RandomAccessFile f = getFile(filename);
-      return (int) (f.length() / blocksize);
+      f.setLength((long) nblocks * blocksize);
     } catch (IOException e) {
-      throw new RuntimeException("cannot access " + filename);
+      throw new RuntimeException("cannot truncate " + filename);
     }
+    sizes.put(filename, nblocks);
+    FreeSpaceMap fsm = freeSpaceMaps.get(filename);
+    if (fsm != null)
+      fsm.truncate(nblocks);
+  }
+
+  /*
+   * Return the names of the files in the database directory
+   * that start with the specified prefix.
+   */
+  public synchronized List<String> filenames(String prefix) {
+    List<String> result = new ArrayList<>();
+    for (String filename : dbDirectory.list())
+      if (filename.startsWith(prefix))
+        result.add(filename);
+    return result;
+  }
+
+  /*
+   * Rename a file. The file and the file it replaces, if any, are closed
+   * first so that the next access opens the file with the new name.
+   */
+  public synchronized void rename(String from, String to) {
+    close(from);
+    close(to);
+    freeSpaceMaps.remove(from);
+    freeSpaceMaps.remove(to);
+    sizes.remove(from);
+    sizes.remove(to);
+    if (!new File(dbDirectory, from).renameTo(new File(dbDirectory, to)))
+      throw new RuntimeException("cannot rename " + from + " to " + to);
+  }
+
+  /*
+   * Close and remove a file from the database directory.
+   */
+  public synchronized void delete(String filename) {
+    close(filename);
+    freeSpaceMaps.remove(filename);
+    sizes.remove(filename);
+    new File(dbDirectory, filename).delete();
+  }
+
+  /*
+   * Return the free space map of the file, shared by the transactions.
+   */
+  public FreeSpaceMap freeSpaceMap(String filename) {
+    return freeSpaceMaps.computeIfAbsent(filename, k -> new FreeSpaceMap());
   }
 
   public boolean isNew() {
@@ -93,6 +200,17 @@ public class FileMgr {
     return blocksize;
   }
 
+  private synchronized int readLength(String filename) {
+    try {
+      RandomAccessFile f = getFile(filename);
+      int size = (int) (f.length() / blocksize);
+      sizes.put(filename, size);
+      return size;
+    } catch (IOException e) {
+      throw new RuntimeException("cannot access " + filename);
+    }
+  }
+
   private RandomAccessFile getFile(String filename) throws IOException {
     RandomAccessFile f = openFiles.get(filename);
     if (f == null) {
@@ -102,4 +220,15 @@ public class FileMgr {
     }
     return f;
   }
+
+  private void close(String filename) {
+    RandomAccessFile f = openFiles.remove(filename);
+    if (f == null)
+      return;
+    try {
+      f.close();
+    } catch (IOException e) {
+      throw new RuntimeException("cannot close " + filename);
+    }
+  }
 }
@@ -0,0 +1,52 @@
+package simpledb.file;
+
+import java.util.BitSet;
+
+/*
+ * Free Space Map tells which blocks of a file may have room for a record,
+ * so that an insert goes to such a block instead of trying every block.
+ * It keeps a bit for each block known to be full; the blocks not known
+ * to be full are the candidates.
+ *
+ * The map is only a hint: the insert still checks the block and marks
+ * it full if it has no room. The map is kept in memory and learned again
+ * after a restart, when the first inserts find the full blocks.
+ */
+public class FreeSpaceMap {
+  private BitSet full = new BitSet();
+
+  /*
+   * Return the first block below the size of the file that is not
+   * known to be full, or -1 if every block is full.
+   */
+  public synchronized int firstFree(int size) {
+    return nextFree(0, size);
+  }
+
+  /*
+   * Return the first block from the given one below the size of the file
+   * that is not known to be full, or -1 if there is none.
+   */
+  public synchronized int nextFree(int blknum, int size) {
+    blknum = full.nextClearBit(blknum);
+    return blknum < size ? blknum : -1;
+  }
+
+  public synchronized void markFull(int blknum) {
+    full.set(blknum);
+  }
+
+  /*
+   * Mark the block as having room, such as after a delete.
+   */
+  public synchronized void markFree(int blknum) {
+    full.clear(blknum);
+  }
+
+  /*
+   * Forget the blocks from the given one on, after the file is truncated.
+   */
+  public synchronized void truncate(int nblocks) {
+    full.clear(nblocks, Math.max(nblocks, full.length()));
+  }
+}
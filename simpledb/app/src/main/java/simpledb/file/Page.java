@@ -26,11 +26,47 @@ public class Page {
     bb.putInt(offset, n);
   }
 
+  public long getLong(int offset) {
+    return bb.getLong(offset);
+  }
+
+  public void setLong(int offset, long n) {
+    bb.putLong(offset, n);
+  }
+
+  public byte getByte(int offset) {
+    return bb.get(offset);
+  }
+
+  public void setByte(int offset, byte b) {
+    bb.put(offset, b);
+  }
+
+  /*
+   * Read the bytes at the offset as they are, without the length.
+   * All the accesses use absolute positions and leave the position
+   * of the buffer alone, so that concurrent readers of a page don't
+   * move each other's position.
+   */
+  public byte[] getRawBytes(int offset, int length) {
+    byte[] b = new byte[length];
+    bb.get(offset, b);
+    return b;
+  }
+
+  /*
+   * Write the bytes at the offset as they are, without the length
+   */
+  public void setRawBytes(int offset, byte[] b) {
+    bb.put(offset, b);
+  }
+
   public byte[] getBytes(int offset) {
-    bb.position(offset);
-    int length = bb.getInt();
+    int length = bb.getInt(offset);
+    if (length < 0 || length > bb.capacity() - offset - Integer.BYTES)
+      throw new RuntimeException("cannot read " + length + " bytes at " + offset);
     byte[] b = new byte[length];
-    bb.get(b);
+    bb.get(offset + Integer.BYTES, b);
     return b;
   }
 
@@ -38,9 +74,8 @@ public class Page {
    * Save blob as two values: the length and the bytes themselves
    */
   public void setBytes(int offset, byte[] b) {
-    bb.position(offset);
-    bb.putInt(b.length);
-    bb.put(b);
+    bb.putInt(offset, b.length);
+    bb.put(offset + Integer.BYTES, b);
   }
 
   public String getString(int offset) {
@@ -66,8 +101,11 @@ public class Page {
     return Integer.BYTES + (strlen * (int) bytesPerChar);
   }
 
+  /*
+   * Return a view of the whole page with its own position and limit
+   * for the file manager.
+   */
   ByteBuffer contents() {
-    bb.position(0);
-    return bb;
+    return bb.duplicate().clear();
   }
 }
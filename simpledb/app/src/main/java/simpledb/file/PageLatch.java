@@ -0,0 +1,93 @@
+package simpledb.file;
+
+import java.util.concurrent.locks.StampedLock;
+
+/*
+ * Page Latch protects the contents of a page while a value is read
+ * or written, independently of the transactional locks.
+ * A lock decides which transactions may access a block until they end,
+ * and a latch is held only during a single physical access, so that
+ * the transactions sharing a block through record locks, and the threads
+ * reading a page without a lock, never see a half-written value.
+ *
+ * The reads are optimistic: the value is read without blocking and
+ * is read again under the read lock if a write happened meanwhile.
+ */
+public class PageLatch {
+  private final StampedLock lock = new StampedLock();
+
+  public int getInt(Page p, int offset) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      int val = p.getInt(offset);
+      if (lock.validate(stamp))
+        return val;
+    }
+    stamp = lock.readLock();
+    try {
+      return p.getInt(offset);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  public String getString(Page p, int offset) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      try {
+        String val = p.getString(offset);
+        if (lock.validate(stamp))
+          return val;
+      } catch (RuntimeException e) {
+        // the length was read in the middle of a write
+        if (lock.validate(stamp))
+          throw e;
+      }
+    }
+    stamp = lock.readLock();
+    try {
+      return p.getString(offset);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  public byte[] getRawBytes(Page p, int offset, int length) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      byte[] val = p.getRawBytes(offset, length);
+      if (lock.validate(stamp))
+        return val;
+    }
+    stamp = lock.readLock();
+    try {
+      return p.getRawBytes(offset, length);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /*
+   * Lock the page for reading several values together.
+   * Return the stamp to be passed to unlockShared.
+   */
+  public long lockShared() {
+    return lock.readLock();
+  }
+
+  public void unlockShared(long stamp) {
+    lock.unlockRead(stamp);
+  }
+
+  /*
+   * Lock the page for a write.
+   * Return the stamp to be passed to unlockExclusive.
+   */
+  public long lockExclusive() {
+    return lock.writeLock();
+  }
+
+  public void unlockExclusive(long stamp) {
+    lock.unlockWrite(stamp);
+  }
+}
@@ -0,0 +1,36 @@
+package simpledb.file;
+
+/*
+ * The kind of an update of the bytes of a page, which tells how it's undone.
+ * A SET update is undone by writing the old bytes back.
+ * The XOR and ADD updates change a value that several transactions
+ * update at the same time, such as the bitmap and the record count
+ * of a record page, so they are undone from the current bytes:
+ * XOR flips the changed bits again and ADD subtracts the added number,
+ * which keeps the updates of the other transactions in the meantime.
+ */
+public enum PageUpdate {
+  SET, XOR, ADD;
+
+  /*
+   * Return the bytes that undo the update of the old bytes to the new bytes,
+   * given the page with the current bytes at the offset.
+   * The bytes of an ADD update are an integer.
+   */
+  public byte[] undoBytes(Page p, int offset, byte[] oldbytes, byte[] newbytes) {
+    switch (this) {
+      case XOR:
+        byte[] b = p.getRawBytes(offset, oldbytes.length);
+        for (int i = 0; i < b.length; i++)
+          b[i] ^= oldbytes[i] ^ newbytes[i];
+        return b;
+      case ADD:
+        int added = new Page(newbytes).getInt(0) - new Page(oldbytes).getInt(0);
+        byte[] val = new byte[Integer.BYTES];
+        new Page(val).setInt(0, p.getInt(offset) - added);
+        return val;
+      default:
+        return oldbytes;
+    }
+  }
+}
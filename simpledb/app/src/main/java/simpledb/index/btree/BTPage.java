@@ -7,6 +7,7 @@ import simpledb.query.Constant;
 import simpledb.record.Layout;
 import simpledb.record.RID;
 import simpledb.record.Schema;
+import simpledb.tx.PageHandle;
 import simpledb.tx.Transaction;
 
 /*
@@ -21,12 +22,14 @@ public class BTPage {
   private Transaction tx;
   private BlockId currentblk;
   private Layout layout;
+  private PageHandle page;
 
   public BTPage(Transaction tx, BlockId currentblk, Layout layout) {
     this.tx = tx;
     this.currentblk = currentblk;
     this.layout = layout;
     tx.pin(currentblk);
+    page = new PageHandle(tx, currentblk);
   }
 
   /*
@@ -46,6 +49,7 @@ public class BTPage {
     if (currentblk != null)
       tx.unpin(currentblk);
     currentblk = null;
+    page = null;
   }
 
   public boolean isFull() {
@@ -72,7 +76,7 @@ public class BTPage {
   }
 
   public int getFlag() {
-    return tx.getInt(currentblk, 0);
+    return page.getInt(0);
   }
 
   /*
@@ -81,7 +85,7 @@ public class BTPage {
    * 2. the blknum of overflow block in BTreeLeaf
    */
   public void setFlag(int val) {
-    tx.setInt(currentblk, 0, val, true);
+    page.setInt(0, val, true);
   }
 
   public BlockId appendNew(int flag) {
@@ -153,17 +157,17 @@ public class BTPage {
    * Return the number of index records in this page.
    */
   public int getNumRecs() {
-    return tx.getInt(currentblk, Integer.BYTES);
+    return page.getInt(Integer.BYTES);
   }
 
   private int getInt(int slot, String fldname) {
     int pos = fldpos(slot, fldname);
-    return tx.getInt(currentblk, pos);
+    return page.getInt(pos);
   }
 
   private String getString(int slot, String fldname) {
     int pos = fldpos(slot, fldname);
-    return tx.getString(currentblk, pos);
+    return page.getString(pos);
   }
 
   private Constant getVal(int slot, String fldname) {
@@ -176,12 +180,12 @@ public class BTPage {
 
   private void setInt(int slot, String fldname, int val) {
     int pos = fldpos(slot, fldname);
-    tx.setInt(currentblk, pos, val, true);
+    page.setInt(pos, val, true);
   }
 
   private void setString(int slot, String fldname, String val) {
     int pos = fldpos(slot, fldname);
-    tx.setString(currentblk, pos, val, true);
+    page.setString(pos, val, true);
   }
 
   private void setVal(int slot, String fldname, Constant val) {
@@ -194,7 +198,7 @@ public class BTPage {
 
   private void setNumRecs(int n) {
     System.out.println("[BTPage] setNumRecs: " + n);
-    tx.setInt(currentblk, Integer.BYTES, n, true);
+    page.setInt(Integer.BYTES, n, true);
   }
 
   private void insert(int slot) {
@@ -1,27 +1,35 @@
 package simpledb.index.planner;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import simpledb.index.Index;
 import simpledb.metadata.IndexInfo;
 import simpledb.metadata.MetadataMgr;
+import simpledb.parse.CopyData;
 import simpledb.parse.CreateIndexData;
 import simpledb.parse.CreateTableData;
 import simpledb.parse.CreateViewData;
 import simpledb.parse.DeleteData;
 import simpledb.parse.InsertData;
 import simpledb.parse.ModifyData;
+import simpledb.plan.CopyReader;
 import simpledb.plan.Plan;
 import simpledb.plan.SelectPlan;
 import simpledb.plan.TablePlan;
 import simpledb.plan.UpdatePlanner;
 import simpledb.query.Constant;
 import simpledb.query.UpdateScan;
+import simpledb.record.BulkLoader;
+import simpledb.record.Layout;
 import simpledb.record.RID;
 import simpledb.tx.Transaction;
 
 public class IndexUpdatePlanner implements UpdatePlanner {
+  public static final int COPY_BATCH = 10000; // the loaded records whose index records are sorted together
   private MetadataMgr mdm;
 
   public IndexUpdatePlanner(MetadataMgr mdm) {
@@ -116,7 +124,10 @@ public class IndexUpdatePlanner implements UpdatePlanner {
 
   @Override
   public int executeCreateTable(CreateTableData data, Transaction tx) {
-    mdm.createTable(data.tableName(), data.newSchema(), tx);
+    if (data.format() == null)
+      mdm.createTable(data.tableName(), data.newSchema(), tx);
+    else
+      mdm.createTable(data.tableName(), data.newSchema(), data.format(), tx);
     return 0;
   }
 
@@ -131,4 +142,72 @@ public class IndexUpdatePlanner implements UpdatePlanner {
     mdm.createIndex(data.indexName(), data.tableName(), data.fieldName(), tx);
     return 0;
   }
+
+  /*
+   * Load the records of the file into new blocks of the table,
+   * and build the index records of the loaded records in batches
+   * of COPY_BATCH records, so that the keys of a large file are not all
+   * kept in memory. The index records of a batch are inserted in the order
+   * of their keys, so that the inserts go through the B-tree leaves
+   * one after another.
+   */
+  @Override
+  public int executeCopy(CopyData data, Transaction tx) {
+    String tblname = data.tableName();
+    Layout layout = mdm.getLayout(tblname, tx);
+    List<String> fields = layout.schema().fields();
+    Map<String, IndexInfo> indexes = mdm.getIndexInfo(tblname, tx);
+    Map<String, List<Constant>> keys = new HashMap<>();
+    for (String fldname : indexes.keySet())
+      keys.put(fldname, new ArrayList<>());
+    List<List<Constant>> keyLists = new ArrayList<>(); // the keys by the ordinal of their field, if indexed
+    for (String fldname : fields)
+      keyLists.add(keys.get(fldname));
+    List<RID> rids = new ArrayList<>();
+
+    CopyReader reader = new CopyReader(data.fileName(), layout.schema());
+    BulkLoader loader = new BulkLoader(tx, tblname, layout);
+    try {
+      while (reader.next()) {
+        loader.insert();
+        for (int i = 0; i < fields.size(); i++) {
+          Constant val = reader.getVal(i);
+          loader.setVal(i, val); // the i-th field of the schema has the ordinal i
+          List<Constant> vals = keyLists.get(i);
+          if (vals != null)
+            vals.add(val);
+        }
+        if (!indexes.isEmpty())
+          rids.add(loader.getRid());
+        if (rids.size() >= COPY_BATCH)
+          insertIndexRecords(indexes, keys, rids);
+      }
+    } finally {
+      reader.close();
+    }
+    int count = loader.close();
+    insertIndexRecords(indexes, keys, rids);
+    return count;
+  }
+
+  /*
+   * Insert the index records of a batch of loaded records in the order
+   * of their keys, and clear the batch.
+   */
+  private void insertIndexRecords(Map<String, IndexInfo> indexes, Map<String, List<Constant>> keys,
+      List<RID> rids) {
+    for (Map.Entry<String, IndexInfo> entry : indexes.entrySet()) {
+      List<Constant> vals = keys.get(entry.getKey());
+      List<Integer> order = new ArrayList<>();
+      for (int i = 0; i < vals.size(); i++)
+        order.add(i);
+      order.sort((i, j) -> vals.get(i).compareTo(vals.get(j)));
+      Index idx = entry.getValue().open();
+      for (int i : order)
+        idx.insert(vals.get(i), rids.get(i));
+      idx.close();
+      vals.clear();
+    }
+    rids.clear();
+  }
 }
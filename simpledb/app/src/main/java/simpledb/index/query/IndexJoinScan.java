@@ -76,6 +76,35 @@ public class IndexJoinScan implements Scan {
     return rhs.hasField(fldname) || lhs.hasField(fldname);
   }
 
+  /*
+   * The ordinals of the both scans are told apart as in ProductScan,
+   * with the fields of the RHS table first.
+   */
+  @Override
+  public int ordinal(String fldname) {
+    if (rhs.hasField(fldname)) {
+      int ordinal = rhs.ordinal(fldname);
+      return (ordinal < 0) ? -1 : 2 * ordinal;
+    }
+    int ordinal = lhs.ordinal(fldname);
+    return (ordinal < 0) ? -1 : 2 * ordinal + 1;
+  }
+
+  @Override
+  public int getInt(int ordinal) {
+    return (ordinal % 2 == 0) ? rhs.getInt(ordinal / 2) : lhs.getInt(ordinal / 2);
+  }
+
+  @Override
+  public String getString(int ordinal) {
+    return (ordinal % 2 == 0) ? rhs.getString(ordinal / 2) : lhs.getString(ordinal / 2);
+  }
+
+  @Override
+  public Constant getVal(int ordinal) {
+    return (ordinal % 2 == 0) ? rhs.getVal(ordinal / 2) : lhs.getVal(ordinal / 2);
+  }
+
   @Override
   public void close() {
     lhs.close();
@@ -53,6 +53,26 @@ public class IndexSelectScan implements Scan {
     return ts.hasField(fldname);
   }
 
+  @Override
+  public int ordinal(String fldname) {
+    return ts.ordinal(fldname);
+  }
+
+  @Override
+  public int getInt(int ordinal) {
+    return ts.getInt(ordinal);
+  }
+
+  @Override
+  public String getString(int ordinal) {
+    return ts.getString(ordinal);
+  }
+
+  @Override
+  public Constant getVal(int ordinal) {
+    return ts.getVal(ordinal);
+  }
+
   @Override
   public void close() {
     idx.close();
@@ -11,6 +11,9 @@ public class EmbeddedConnection extends ConnectionAdapter {
   private SimpleDB db;
   private Transaction currentTx;
   private Planner planner;
+  private boolean asyncCommit = false;
+  private boolean readOnly = false;
+  private long lastCommitLSN = -1;
 
   public EmbeddedConnection(SimpleDB db) {
     this.db = db;
@@ -28,12 +31,52 @@ public class EmbeddedConnection extends ConnectionAdapter {
 
   public void commit() throws SQLException {
     currentTx.commit();
-    currentTx = db.newTx();
+    lastCommitLSN = currentTx.commitLSN();
+    newTx();
   }
 
   public void rollback() throws SQLException {
     currentTx.rollback();
-    currentTx = db.newTx();
+    newTx();
+  }
+
+  /*
+   * Commit the transactions of this connection without waiting for the log.
+   * The recent commits can be lost at a crash.
+   */
+  public void setAsyncCommit(boolean asyncCommit) {
+    this.asyncCommit = asyncCommit;
+    currentTx.setAsyncCommit(asyncCommit);
+  }
+
+  /*
+   * Wait until the last commit of this connection is on disk.
+   */
+  public void waitForDurable() {
+    db.waitForDurable(lastCommitLSN);
+  }
+
+  /*
+   * Run the following transactions as read-only ones,
+   * which read a snapshot without locks.
+   * The current transaction is committed.
+   */
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    if (this.readOnly == readOnly)
+      return;
+    this.readOnly = readOnly;
+    commit();
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    return readOnly;
+  }
+
+  private void newTx() {
+    currentTx = readOnly ? db.newReadOnlyTx() : db.newTx();
+    currentTx.setAsyncCommit(asyncCommit);
   }
 
   Transaction getTransaction() {
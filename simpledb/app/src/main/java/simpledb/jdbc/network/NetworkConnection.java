@@ -28,4 +28,22 @@ public class NetworkConnection extends ConnectionAdapter {
       throw new SQLException(e);
     }
   }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    try {
+      rconn.setReadOnly(readOnly);
+    } catch (Exception e) {
+      throw new SQLException(e);
+    }
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    try {
+      return rconn.isReadOnly();
+    } catch (Exception e) {
+      throw new SQLException(e);
+    }
+  }
 }
@@ -12,4 +12,8 @@ public interface RemoteConnection extends Remote {
   public RemoteStatement createStatement() throws RemoteException;
 
   public void close() throws RemoteException;
+
+  public void setReadOnly(boolean readOnly) throws RemoteException;
+
+  public boolean isReadOnly() throws RemoteException;
 }
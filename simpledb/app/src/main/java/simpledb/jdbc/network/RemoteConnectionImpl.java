@@ -12,6 +12,7 @@ public class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteC
   private SimpleDB db;
   private Transaction currentTx;
   private Planner planner;
+  private boolean readOnly = false;
 
   RemoteConnectionImpl(SimpleDB db) throws RemoteException {
     this.db = db;
@@ -28,6 +29,23 @@ public class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteC
     currentTx.commit();
   }
 
+  /*
+   * Commit the current transaction and run the following ones
+   * as read-only transactions.
+   */
+  @Override
+  public void setReadOnly(boolean readOnly) throws RemoteException {
+    if (this.readOnly == readOnly)
+      return;
+    this.readOnly = readOnly;
+    commit();
+  }
+
+  @Override
+  public boolean isReadOnly() throws RemoteException {
+    return readOnly;
+  }
+
   // following methods are used by the server-side classes
   Transaction getTransaction() {
     return currentTx;
@@ -35,11 +53,15 @@ public class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteC
 
   void commit() {
     currentTx.commit();
-    currentTx = db.newTx();
+    newTx();
   }
 
   void rollback() {
     currentTx.rollback();
-    currentTx = db.newTx();
+    newTx();
+  }
+
+  private void newTx() {
+    currentTx = readOnly ? db.newReadOnlyTx() : db.newTx();
   }
 }
@@ -0,0 +1,95 @@
+package simpledb.log;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+/*
+ * Iterate the log records from old to new, starting from the specified LSN.
+ * The records in a block are written from right to left and only the newest
+ * one can be found from the boundary, so the positions of the records in a
+ * block are collected first and then returned in the reverse order.
+ * The blocks are read ahead in batches.
+ */
+public class ForwardLogIterator implements Iterator<byte[]> {
+  private FileMgr fm;
+  private LogMgr lm;
+  private long blknum; // global block number across the log segments
+  private long lastblk;
+  private byte[] b;
+  private Page p;
+  private LogReadAhead readAhead;
+  private int[] positions; // record positions in the block, newest first
+  private int index; // index of the next record in positions
+  private long lsn = -1;
+
+  public ForwardLogIterator(FileMgr fm, LogMgr lm, long startLSN, long lastblk) {
+    this.fm = fm;
+    this.lm = lm;
+    this.lastblk = lastblk;
+    b = new byte[fm.blockSize()];
+    p = new Page(b);
+    readAhead = new LogReadAhead(fm, lm, LogMgr.READ_AHEAD_BLOCKS);
+    positions = new int[fm.blockSize() / Integer.BYTES];
+    blknum = Math.max(startLSN / fm.blockSize(), lm.firstBlock());
+    moveToBlock(blknum);
+    while (index >= 0 && lsn(positions[index]) < startLSN)
+      index--;
+  }
+
+  public boolean hasNext() {
+    while (index < 0 && blknum < lastblk) {
+      blknum++;
+      moveToBlock(blknum);
+    }
+    return index >= 0;
+  }
+
+  public byte[] next() {
+    int pos = advance();
+    return p.getBytes(pos - Integer.BYTES);
+  }
+
+  /*
+   * Move to the next record without copying it
+   * and return the position of the record in page().
+   */
+  public int advance() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    int pos = positions[index--];
+    lsn = lsn(pos);
+    return pos + Integer.BYTES;
+  }
+
+  /*
+   * Return the page that holds the record returned by advance().
+   */
+  public Page page() {
+    return p;
+  }
+
+  /*
+   * Return the LSN of the record returned by the last call of next() or advance().
+   */
+  public long lsn() {
+    return lsn;
+  }
+
+  private long lsn(int pos) {
+    return blknum * fm.blockSize() + (fm.blockSize() - pos);
+  }
+
+  private void moveToBlock(long blknum) {
+    readAhead.read(blknum, b, true, lastblk);
+    int count = 0;
+    int pos = p.getInt(0);
+    while (pos < fm.blockSize()) {
+      positions[count++] = pos;
+      pos += Integer.BYTES + p.getInt(pos);
+    }
+    index = count - 1;
+  }
+}
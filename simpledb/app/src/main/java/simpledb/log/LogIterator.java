@@ -2,52 +2,85 @@ package simpledb.log;
 
 import java.util.Iterator;
 
-import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
 import simpledb.file.Page;
 
 public class LogIterator implements Iterator<byte[]> {
   private FileMgr fm;
-  private BlockId blk;
+  private LogMgr lm;
+  private long blknum; // global block number across the log segments
+  private long firstblk;
+  private byte[] b;
   private Page p;
+  private LogReadAhead readAhead;
   private int currentpos;
-  private int boundary; // what is the boundary?
+  private int boundary; // position of the latest record in the block
+  private long lsn = -1;
 
-  public LogIterator(FileMgr fm, BlockId blk) {
+  public LogIterator(FileMgr fm, LogMgr lm, long blknum) {
     this.fm = fm;
-    this.blk = blk;
-    byte[] b = new byte[fm.blockSize()];
+    this.lm = lm;
+    this.blknum = blknum;
+    firstblk = lm.firstBlock();
+    b = new byte[fm.blockSize()];
     p = new Page(b);
-    moveToBlock(blk);
+    readAhead = new LogReadAhead(fm, lm, LogMgr.READ_AHEAD_BLOCKS);
+    moveToBlock(blknum);
   }
 
   public boolean hasNext() {
-    return currentpos < fm.blockSize() || blk.number() > 0;
+    return currentpos < fm.blockSize() || blknum > firstblk;
   }
 
   /*
    * Read logs from new to old (New Block to old block)
    * Inside a block, contents will be read from left to right.
    * The logs are written from right to left, so the reading order is descendent.
+   * When the first block of a segment is passed, the previous segment is read.
    */
   public byte[] next() {
+    int pos = advance();
+    return p.getBytes(pos - Integer.BYTES);
+  }
+
+  /*
+   * Move to the next record without copying it
+   * and return the position of the record in page().
+   */
+  public int advance() {
     if (currentpos == fm.blockSize()) {
-      blk = new BlockId(blk.fileName(), blk.number() - 1); // decrement block number to move to next block
-      moveToBlock(blk);
+      blknum--; // decrement block number to move to next block
+      moveToBlock(blknum);
     }
-    byte[] rec = p.getBytes(currentpos);
-    currentpos += Integer.BYTES + rec.length;
-    return rec;
+    int pos = currentpos;
+    currentpos += Integer.BYTES + p.getInt(pos);
+    lsn = blknum * fm.blockSize() + (fm.blockSize() - pos);
+    return pos + Integer.BYTES;
+  }
+
+  /*
+   * Return the LSN of the record returned by the last call of next() or advance().
+   */
+  public long lsn() {
+    return lsn;
+  }
+
+  /*
+   * Return the page that holds the record returned by advance().
+   */
+  public Page page() {
+    return p;
   }
 
   /*
-   * Read block contents to the page
+   * Read block contents to the page.
+   * The blocks before it are read together and kept for the next blocks.
    * Set the boundary to the number stored in the first four bytes
    * which indicates the boundary.
    * Set the current position to the obtained boundary.
    */
-  private void moveToBlock(BlockId blk) {
-    fm.read(blk, p);
+  private void moveToBlock(long blknum) {
+    readAhead.read(blknum, b, false, firstblk);
     boundary = p.getInt(0);
     currentpos = boundary;
   }
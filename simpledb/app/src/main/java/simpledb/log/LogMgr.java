@@ -1,45 +1,212 @@
 package simpledb.log;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
 import simpledb.file.Page;
+import simpledb.file.PageLatch;
 
+/*
+ * The log is split into fixed-size segment files named <logfile>.<segment>.
+ * Log blocks are numbered globally across the segments:
+ * global block n is stored in segment n / segmentBlocks
+ * at block n % segmentBlocks.
+ *
+ * Every log block starts with a header:
+ * |<boundary><segment>.....<appended contents>|
+ * The segment number in the header tells the valid blocks apart from the
+ * stale blocks of a recycled segment file.
+ *
+ * An LSN is the position of a log record in the log:
+ * global block number * blocksize + (blocksize - record position)
+ * so it keeps increasing across blocks, segments and restarts.
+ *
+ * The appends are serialized by the monitor of the log manager.
+ * The current block is also guarded by a page latch, so that the records
+ * are read from it without waiting for the appends and the flushes.
+ */
 public class LogMgr {
+  public static final int DEFAULT_SEGMENT_BLOCKS = 256;
+  public static final int READ_AHEAD_BLOCKS = 8;
+  static final int HEADER_SIZE = 2 * Integer.BYTES;
+  private static final int MAX_SPARE_SEGMENTS = 2;
+  private static final String SPARE = "spare.";
   private FileMgr fm;
   private String logfile;
+  private int segmentBlocks;
+  private byte[] logbytes;
   private Page logpage;
-  private BlockId currentblk;
-  private int latestLSN = 0;
-  private int lastSavedLSN = 0;
+  private PageLatch latch = new PageLatch(); // guards logpage and currentblk for the readers
+  private long currentblk; // global block number of the current block
+  private int firstSegment;
+  private int currentSegment;
+  private List<String> spares = new ArrayList<>();
+  private long latestLSN = 0;
+  private long lastSavedLSN = 0;
+  private long pendingLSN = -1; // the latest async commit to be flushed by the flusher
+  private Thread flusher; // null unless the background flusher is running
 
   public LogMgr(FileMgr fm, String logfile) {
+    this(fm, logfile, DEFAULT_SEGMENT_BLOCKS);
+  }
+
+  public LogMgr(FileMgr fm, String logfile, int segmentBlocks) {
     this.fm = fm;
     this.logfile = logfile;
-    byte[] b = new byte[fm.blockSize()];
-    logpage = new Page(b);
-    int logsize = fm.length(logfile);
-    if (logsize == 0) {
-      currentblk = appendNewBlock(); // append new block if empty
+    this.segmentBlocks = segmentBlocks;
+    logbytes = new byte[fm.blockSize()];
+    logpage = new Page(logbytes);
+
+    // the log of the old format is a single file without segment headers,
+    // and its records can't be recovered by this log manager
+    if (fm.filenames(logfile).contains(logfile))
+      throw new RuntimeException("cannot open the log: " + logfile + " is in the old format. "
+          + "Recover the database with the previous version and remove " + logfile);
+
+    // the other files with the prefix, such as backups, are not part of the log
+    List<Integer> segments = new ArrayList<>();
+    for (String filename : fm.filenames(logfile + ".")) {
+      String suffix = filename.substring(logfile.length() + 1);
+      if (suffix.startsWith(SPARE) && isNumber(suffix.substring(SPARE.length())))
+        spares.add(filename);
+      else if (isNumber(suffix))
+        segments.add(Integer.parseInt(suffix));
+    }
+    Collections.sort(segments);
+
+    if (segments.isEmpty()) {
+      firstSegment = 0;
+      currentSegment = 0;
+      appendNewBlock(0); // append new block if empty
     } else {
-      currentblk = new BlockId(logfile, logsize - 1); // get the last block
-      fm.read(currentblk, logpage); // read the current block
+      firstSegment = segments.get(0);
+      currentSegment = segments.get(segments.size() - 1);
+      int blknum = lastValidBlock(currentSegment);
+      if (blknum < 0) {
+        appendNewBlock((long) currentSegment * segmentBlocks);
+      } else {
+        currentblk = (long) currentSegment * segmentBlocks + blknum;
+        fm.read(blockId(currentblk), logpage); // read the current block
+      }
     }
+    latestLSN = lsn(currentblk, logpage.getInt(0));
+    lastSavedLSN = latestLSN;
   }
 
   /*
    * Flush only if the specified value is
    * large than or equals to the lastSavedLSN
    */
-  public void flush(int lsn) {
+  public synchronized void flush(long lsn) {
     if (lsn >= lastSavedLSN)
       flush();
   }
 
-  public Iterator<byte[]> iterator() {
-    flush(); // why flush here?
-    return new LogIterator(fm, currentblk);
+  public synchronized LogIterator iterator() {
+    flush(); // the iterator reads the blocks from the disk
+    return new LogIterator(fm, this, currentblk);
+  }
+
+  /*
+   * Return an iterator that reads the log records from old to new,
+   * starting from the record at the specified LSN.
+   */
+  public synchronized ForwardLogIterator forwardIterator(long lsn) {
+    flush(); // the iterator reads the blocks from the disk
+    return new ForwardLogIterator(fm, this, lsn, currentblk);
+  }
+
+  /*
+   * Return the LSN up to which the log records are on disk.
+   */
+  public synchronized long durableLSN() {
+    return lastSavedLSN;
+  }
+
+  /*
+   * Wait until the log record of the LSN is written to disk
+   * by a flush of another thread, such as the background flusher.
+   * The flusher is asked to write the LSN, as the record may not
+   * be an async commit it already knows of.
+   * The log is flushed by this thread if no flusher is running
+   * or if it's interrupted.
+   */
+  public synchronized void waitForDurable(long lsn) {
+    if (lsn > latestLSN)
+      throw new RuntimeException("cannot wait for LSN " + lsn + " after the latest LSN " + latestLSN);
+    if (flusher == null) {
+      flush(lsn);
+      return;
+    }
+    flushLater(lsn);
+    try {
+      while (lastSavedLSN < lsn)
+        wait();
+    } catch (InterruptedException e) {
+      flush(lsn);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /*
+   * Ask the background flusher to write the log up to the LSN,
+   * such as the commit record of an async commit.
+   * Without the flusher, the record is written by the next flush.
+   */
+  public synchronized void flushLater(long lsn) {
+    if (lsn > pendingLSN) {
+      pendingLSN = lsn;
+      notifyAll();
+    }
+  }
+
+  /*
+   * Start a daemon thread that writes the log when it's asked to by flushLater.
+   * It waits for the interval before the write, so that the async commits
+   * in the interval are written together, and it sleeps while there is
+   * nothing to write.
+   */
+  public synchronized void startFlusher(long interval) {
+    if (flusher != null)
+      return;
+    flusher = new Thread(() -> {
+      try {
+        while (true) {
+          synchronized (this) {
+            while (pendingLSN <= lastSavedLSN)
+              wait();
+          }
+          Thread.sleep(interval);
+          long lsn;
+          synchronized (this) {
+            lsn = pendingLSN;
+          }
+          flush(lsn);
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+    }, "log-flusher");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /*
+   * Return the LSN of the latest log record.
+   * Every record appended afterwards has a larger LSN.
+   */
+  public synchronized long latestLSN() {
+    return latestLSN;
+  }
+
+  /*
+   * Return the largest log record that fits in a log block.
+   */
+  public int maxRecordSize() {
+    return fm.blockSize() - HEADER_SIZE - Integer.BYTES;
   }
 
   /*
@@ -48,39 +215,192 @@ public class LogMgr {
    * If the current page is not enough, flush and add new block,
    * and set it to the current block. The boundary is the blocksize.
    * Write the log record from the boudary position and update the record position
-   * |<boundary>.....<appended contents><boudary pos>|
+   * |<boundary><segment>.....<appended contents><boudary pos>|
    */
-  public synchronized int append(byte[] logrec) {
+  public synchronized long append(byte[] logrec) {
     int boundary = logpage.getInt(0); // the first integer indicates the position before which new content will be written.
     int recsize = logrec.length;
     int bytesneeded = recsize + Integer.BYTES;
-    if (boundary - bytesneeded < Integer.BYTES) {
+    if (boundary - bytesneeded < HEADER_SIZE) {
       flush();
-      currentblk = appendNewBlock();
+      appendNewBlock(currentblk + 1);
       boundary = logpage.getInt(0);
     }
     int recpos = boundary - bytesneeded;
 
-    logpage.setBytes(recpos, logrec);
-    logpage.setInt(0, recpos);
-    latestLSN += 1;
+    long stamp = latch.lockExclusive();
+    try {
+      logpage.setBytes(recpos, logrec);
+      logpage.setInt(0, recpos);
+    } finally {
+      latch.unlockExclusive(stamp);
+    }
+    latestLSN = lsn(currentblk, recpos);
     return latestLSN;
   }
 
   /*
-   * Append a new block,
-   * writes the blocksize in the position 0,
-   * and save it to the file
+   * Return the log record at the specified LSN.
+   * The record is read from the log page if it's not flushed yet.
+   * The blocks before the current block are on disk, so they are read
+   * without holding the monitor.
+   */
+  public byte[] read(long lsn) {
+    long blknum = lsn / fm.blockSize();
+    int recpos = fm.blockSize() - (int) (lsn % fm.blockSize());
+    long stamp = latch.lockShared();
+    try {
+      if (blknum == currentblk)
+        return logpage.getBytes(recpos);
+    } finally {
+      latch.unlockShared(stamp);
+    }
+    byte[] b = new byte[fm.blockSize()];
+    Page p = new Page(b);
+    fm.read(blockId(blknum), p);
+    return p.getBytes(recpos);
+  }
+
+  /*
+   * Return a reader of the log records at the specified LSNs.
+   */
+  public LogReader reader() {
+    return new LogReader(fm, this);
+  }
+
+  /*
+   * Copy the current block into the byte array if the global block is
+   * the current block, which is not flushed yet.
+   * Return false if the block needs to be read from the disk.
    */
-  private BlockId appendNewBlock() {
-    BlockId blk = fm.append(logfile);
-    logpage.setInt(0, fm.blockSize());
+  boolean copyCurrentBlock(long blknum, byte[] dest) {
+    long stamp = latch.lockShared();
+    try {
+      if (blknum != currentblk)
+        return false;
+      System.arraycopy(logbytes, 0, dest, 0, logbytes.length);
+      return true;
+    } finally {
+      latch.unlockShared(stamp);
+    }
+  }
+
+  /*
+   * Remove the segments that only contain log records older than
+   * the specified LSN. The removed segment files are kept as spares
+   * to be recycled as new segments, up to MAX_SPARE_SEGMENTS.
+   */
+  public synchronized void truncate(long lsn) {
+    int segment = (int) (lsn / fm.blockSize() / segmentBlocks);
+    segment = Math.min(segment, currentSegment);
+    if (firstSegment >= segment)
+      return;
+    while (firstSegment < segment) {
+      String filename = segmentName(firstSegment);
+      if (spares.size() < MAX_SPARE_SEGMENTS) {
+        String spare = logfile + "." + SPARE + firstSegment;
+        fm.rename(filename, spare);
+        spares.add(spare);
+      } else {
+        fm.delete(filename);
+      }
+      firstSegment++;
+    }
+    System.out.println("[LogMgr] truncated log before segment " + firstSegment + ". " + segmentCount()
+        + " segments and " + spares.size() + " spares");
+  }
+
+  /*
+   * Return the number of bytes used by the log files
+   * including the spare segments.
+   */
+  public synchronized long diskUsage() {
+    long bytes = 0;
+    for (int segment = firstSegment; segment <= currentSegment; segment++)
+      bytes += (long) fm.length(segmentName(segment)) * fm.blockSize();
+    for (String spare : spares)
+      bytes += (long) fm.length(spare) * fm.blockSize();
+    return bytes;
+  }
+
+  public synchronized int segmentCount() {
+    return currentSegment - firstSegment + 1;
+  }
+
+  /*
+   * Return the global block number of the oldest block in the log.
+   */
+  synchronized long firstBlock() {
+    return (long) firstSegment * segmentBlocks;
+  }
+
+  int segmentBlocks() {
+    return segmentBlocks;
+  }
+
+  /*
+   * Return the block of the segment file that stores the global block.
+   */
+  BlockId blockId(long blknum) {
+    int segment = (int) (blknum / segmentBlocks);
+    return new BlockId(segmentName(segment), (int) (blknum % segmentBlocks));
+  }
+
+  private String segmentName(int segment) {
+    return logfile + "." + segment;
+  }
+
+  private static boolean isNumber(String s) {
+    return !s.isEmpty() && s.chars().allMatch(c -> c >= '0' && c <= '9');
+  }
+
+  private long lsn(long blknum, int recpos) {
+    return blknum * fm.blockSize() + (fm.blockSize() - recpos);
+  }
+
+  /*
+   * Return the last block of the segment whose header has the segment number.
+   * The blocks after it are stale blocks of a recycled segment.
+   */
+  private int lastValidBlock(int segment) {
+    String filename = segmentName(segment);
+    int size = Math.min(fm.length(filename), segmentBlocks);
+    for (int blknum = 0; blknum < size; blknum++) {
+      fm.read(new BlockId(filename, blknum), logpage);
+      if (logpage.getInt(Integer.BYTES) != segment)
+        return blknum - 1;
+    }
+    return size - 1;
+  }
+
+  /*
+   * Start a new block with the specified global block number,
+   * writes the blocksize in the position 0 and the segment number in the header,
+   * and save it to the file.
+   * A spare segment file is recycled when the block starts a new segment.
+   */
+  private void appendNewBlock(long blknum) {
+    BlockId blk = blockId(blknum);
+    int segment = (int) (blknum / segmentBlocks);
+    if (blk.number() == 0 && !spares.isEmpty() && fm.length(blk.fileName()) == 0) {
+      fm.delete(blk.fileName());
+      fm.rename(spares.remove(0), blk.fileName());
+    }
+    currentSegment = segment;
+    long stamp = latch.lockExclusive();
+    try {
+      currentblk = blknum;
+      logpage.setInt(0, fm.blockSize());
+      logpage.setInt(Integer.BYTES, segment);
+    } finally {
+      latch.unlockExclusive(stamp);
+    }
     fm.write(blk, logpage);
-    return blk;
   }
 
   private void flush() {
-    fm.write(currentblk, logpage);
+    fm.write(blockId(currentblk), logpage);
     lastSavedLSN = latestLSN;
+    notifyAll();
   }
 }
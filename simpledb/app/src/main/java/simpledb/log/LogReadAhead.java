@@ -0,0 +1,59 @@
+package simpledb.log;
+
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+/*
+ * Read the log blocks in batches of consecutive blocks,
+ * so that scanning the log takes one I/O per batch instead of one per block.
+ * A batch is read ahead in the direction of the scan and never crosses
+ * the end of a segment file. The batch buffer is reused.
+ *
+ * Only the blocks that are no longer written are read ahead;
+ * the caller gives the limit of the scan.
+ */
+class LogReadAhead {
+  private FileMgr fm;
+  private LogMgr lm;
+  private int maxblocks;
+  private byte[] buf;
+  private Page batch;
+  private long first = -1; // global block number of the first block in the batch
+  private int count = 0;
+
+  LogReadAhead(FileMgr fm, LogMgr lm, int maxblocks) {
+    this.fm = fm;
+    this.lm = lm;
+    this.maxblocks = maxblocks;
+    buf = new byte[maxblocks * fm.blockSize()];
+    batch = new Page(buf);
+  }
+
+  /*
+   * Copy the global block into the byte array.
+   * If the block is not in the current batch, the blocks from it
+   * towards the limit are read: forward up to the limit,
+   * or backward down to the limit.
+   */
+  void read(long blknum, byte[] dest, boolean forward, long limit) {
+    if (blknum < first || blknum >= first + count)
+      load(blknum, forward, limit);
+    int bs = fm.blockSize();
+    System.arraycopy(buf, (int) (blknum - first) * bs, dest, 0, bs);
+  }
+
+  private void load(long blknum, boolean forward, long limit) {
+    BlockId blk = lm.blockId(blknum);
+    int n;
+    if (forward) {
+      n = (int) Math.min(Math.min(maxblocks, lm.segmentBlocks() - blk.number()), limit - blknum + 1);
+      first = blknum;
+    } else {
+      n = (int) Math.min(Math.min(maxblocks, blk.number() + 1), blknum - limit + 1);
+      first = blknum - n + 1;
+    }
+    count = Math.max(n, 1);
+    fm.read(lm.blockId(first), batch, count);
+  }
+}
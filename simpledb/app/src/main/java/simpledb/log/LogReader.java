@@ -0,0 +1,40 @@
+package simpledb.log;
+
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+/*
+ * Read the log records at the specified LSNs, from new to old,
+ * such as the records of a transaction being rolled back.
+ * The blocks before the requested one are read ahead together,
+ * so following the records backwards reads the log in batches.
+ */
+public class LogReader {
+  private LogMgr lm;
+  private byte[] b;
+  private Page p;
+  private LogReadAhead readAhead;
+
+  LogReader(FileMgr fm, LogMgr lm) {
+    this.lm = lm;
+    b = new byte[fm.blockSize()];
+    p = new Page(b);
+    readAhead = new LogReadAhead(fm, lm, LogMgr.READ_AHEAD_BLOCKS);
+  }
+
+  /*
+   * Read the block of the log record at the specified LSN
+   * and return the position of the record in page().
+   */
+  public int read(long lsn) {
+    long blknum = lsn / b.length;
+    int recpos = b.length - (int) (lsn % b.length);
+    if (!lm.copyCurrentBlock(blknum, b))
+      readAhead.read(blknum, b, false, lm.firstBlock());
+    return recpos + Integer.BYTES;
+  }
+
+  public Page page() {
+    return p;
+  }
+}
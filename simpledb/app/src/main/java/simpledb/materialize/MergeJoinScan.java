@@ -95,6 +95,34 @@ public class MergeJoinScan implements Scan {
     return s1.hasField(fldname) || s2.hasField(fldname);
   }
 
+  /*
+   * The ordinals of the both scans are told apart as in ProductScan.
+   */
+  @Override
+  public int ordinal(String fldname) {
+    if (s1.hasField(fldname)) {
+      int ordinal = s1.ordinal(fldname);
+      return (ordinal < 0) ? -1 : 2 * ordinal;
+    }
+    int ordinal = s2.ordinal(fldname);
+    return (ordinal < 0) ? -1 : 2 * ordinal + 1;
+  }
+
+  @Override
+  public int getInt(int ordinal) {
+    return (ordinal % 2 == 0) ? s1.getInt(ordinal / 2) : s2.getInt(ordinal / 2);
+  }
+
+  @Override
+  public String getString(int ordinal) {
+    return (ordinal % 2 == 0) ? s1.getString(ordinal / 2) : s2.getString(ordinal / 2);
+  }
+
+  @Override
+  public Constant getVal(int ordinal) {
+    return (ordinal % 2 == 0) ? s1.getVal(ordinal / 2) : s2.getVal(ordinal / 2);
+  }
+
   @Override
   public void close() {
     s1.close();
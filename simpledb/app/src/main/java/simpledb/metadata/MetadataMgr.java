@@ -3,6 +3,7 @@ package simpledb.metadata;
 import java.util.Map;
 
 import simpledb.record.Layout;
+import simpledb.record.RecordFormat;
 import simpledb.record.Schema;
 import simpledb.tx.Transaction;
 
@@ -30,6 +31,10 @@ public class MetadataMgr {
     tblmgr.createTable(tblname, sch, tx);
   }
 
+  public void createTable(String tblname, Schema sch, RecordFormat format, Transaction tx) {
+    tblmgr.createTable(tblname, sch, format, tx);
+  }
+
   public Layout getLayout(String tblname, Transaction tx) {
     return tblmgr.getLayout(tblname, tx);
   }
@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import simpledb.record.Layout;
+import simpledb.record.RecordFormat;
 import simpledb.record.Schema;
 import simpledb.record.TableScan;
 import simpledb.tx.Transaction;
@@ -31,10 +32,23 @@ public class TableMgr {
   public static final String FLD_CAT_FIELD_TYPE = "type";
   public static final String FLD_CAT_FIELD_OFFSET = "offset";
 
+  // Table name and field name for format catalog.
+  // Only the tables not in the FLAG format have a record,
+  // so the catalog is missing in the databases created before it.
+  public static final String FMT_CAT_TABLE = "fmtcat";
+  public static final String FMT_CAT_FIELD_TABLE_NAME = "tblname";
+  public static final String FMT_CAT_FIELD_FORMAT = "format";
+
+  // The record format of the tables created without one
+  public static final RecordFormat DEFAULT_FORMAT = RecordFormat.FLAG;
+
   // Layout for table catalog
   private Layout tcatLayout;
   // Layout for field catalog
   private Layout fcatLayout;
+  // Schema and layout for format catalog
+  private Schema fmtcatSchema;
+  private Layout fmtcatLayout;
 
   /*
    * Constructor of TableMgr
@@ -55,19 +69,33 @@ public class TableMgr {
     fcatSchema.addIntField(FLD_CAT_FIELD_OFFSET);
     fcatLayout = new Layout(fcatSchema);
 
+    fmtcatSchema = new Schema();
+    fmtcatSchema.addStringField(FMT_CAT_FIELD_TABLE_NAME, MAX_NAME);
+    fmtcatSchema.addIntField(FMT_CAT_FIELD_FORMAT);
+    fmtcatLayout = new Layout(fmtcatSchema);
+
     if (isNew) {
-      createTable(TBL_CAT_TABLE, tcatSchema, tx);
-      createTable(FLD_CAT_TABLE, fcatSchema, tx);
+      createTable(TBL_CAT_TABLE, tcatSchema, RecordFormat.FLAG, tx);
+      createTable(FLD_CAT_TABLE, fcatSchema, RecordFormat.FLAG, tx);
+      createTable(FMT_CAT_TABLE, fmtcatSchema, RecordFormat.FLAG, tx);
     }
   }
 
   /*
-   * Create a table.
-   * Insert a catalog record to `tblcat` and `fldcat` tables.
+   * Create a table in the default record format.
    */
   public void createTable(String tblname, Schema sch, Transaction tx) {
-    System.out.println("[TableMgr] createTable table: " + tblname);
-    Layout layout = new Layout(sch);
+    createTable(tblname, sch, DEFAULT_FORMAT, tx);
+  }
+
+  /*
+   * Create a table.
+   * Insert a catalog record to `tblcat` and `fldcat` tables,
+   * and to `fmtcat` unless the format is FLAG.
+   */
+  public void createTable(String tblname, Schema sch, RecordFormat format, Transaction tx) {
+    System.out.println("[TableMgr] createTable table: " + tblname + ", format: " + format);
+    Layout layout = new Layout(sch, format);
 
     // insert one record into tblcat
     TableScan tcat = new TableScan(tx, TBL_CAT_TABLE, tcatLayout);
@@ -86,6 +114,17 @@ public class TableMgr {
       fcat.setInt(FLD_CAT_FIELD_LENGTH, sch.length(fldname));
       fcat.setInt(FLD_CAT_FIELD_OFFSET, layout.offset(fldname));
     }
+    fcat.close();
+
+    if (format != RecordFormat.FLAG) {
+      if (tx.size(FMT_CAT_TABLE + ".tbl") == 0)
+        createTable(FMT_CAT_TABLE, fmtcatSchema, RecordFormat.FLAG, tx); // the database is older than the catalog
+      TableScan fmtcat = new TableScan(tx, FMT_CAT_TABLE, fmtcatLayout);
+      fmtcat.insert();
+      fmtcat.setString(FMT_CAT_FIELD_TABLE_NAME, tblname);
+      fmtcat.setInt(FMT_CAT_FIELD_FORMAT, format.code());
+      fmtcat.close();
+    }
     System.out.println("[TableMgr] createTable completed table: " + tblname);
   }
 
@@ -112,6 +151,23 @@ public class TableMgr {
         sch.addField(fldname, fldtype, fldlen);
       }
     fcat.close();
-    return new Layout(sch, offsets, size);
+    return new Layout(sch, offsets, size, getFormat(tblname, tx));
+  }
+
+  /*
+   * Return the record format of the table from the format catalog.
+   */
+  private RecordFormat getFormat(String tblname, Transaction tx) {
+    RecordFormat format = RecordFormat.FLAG;
+    if (tx.size(FMT_CAT_TABLE + ".tbl") == 0)
+      return format;
+    TableScan fmtcat = new TableScan(tx, FMT_CAT_TABLE, fmtcatLayout);
+    while (fmtcat.next())
+      if (fmtcat.getString(FMT_CAT_FIELD_TABLE_NAME).equals(tblname)) {
+        format = RecordFormat.fromCode(fmtcat.getInt(FMT_CAT_FIELD_FORMAT));
+        break;
+      }
+    fmtcat.close();
+    return format;
   }
 }
@@ -37,10 +37,8 @@ public class ChunkScan implements Scan {
   }
 
   public void close() {
-    for (int i = 0; i < buffs.size(); i++) {
-      BlockId blk = new BlockId(filename, startbnum + i);
-      tx.unpin(blk);
-    }
+    for (RecordPage rp : buffs)
+      rp.close();
   }
 
   public void beforeFirst() {
@@ -68,16 +66,35 @@ public class ChunkScan implements Scan {
   }
 
   public Constant getVal(String fldname) {
-    if (layout.schema().type(fldname) == INTEGER)
-      return new Constant(getInt(fldname));
-    else
-      return new Constant(getString(fldname));
+    int ordinal = layout.ordinal(fldname);
+    if (ordinal < 0)
+      throw new RuntimeException("field " + fldname + " not found.");
+    return getVal(ordinal);
   }
 
   public boolean hasField(String fldname) {
     return layout.schema().hasField(fldname);
   }
 
+  public int ordinal(String fldname) {
+    return layout.ordinal(fldname);
+  }
+
+  public int getInt(int ordinal) {
+    return rp.getInt(currentslot, ordinal);
+  }
+
+  public String getString(int ordinal) {
+    return rp.getString(currentslot, ordinal);
+  }
+
+  public Constant getVal(int ordinal) {
+    if (layout.type(ordinal) == INTEGER)
+      return new Constant(getInt(ordinal));
+    else
+      return new Constant(getString(ordinal));
+  }
+
   private void moveToBlock(int blknum) {
     currentbnum = blknum;
     rp = buffs.get(currentbnum - startbnum);
@@ -73,6 +73,30 @@ public class MultibufferProductScan implements Scan {
     return prodscan.hasField(fldname);
   }
 
+  /*
+   * The ordinals are those of ProductScan, which are the same for every chunk
+   * as the chunks have the same layout.
+   */
+  @Override
+  public int ordinal(String fldname) {
+    return prodscan.ordinal(fldname);
+  }
+
+  @Override
+  public int getInt(int ordinal) {
+    return prodscan.getInt(ordinal);
+  }
+
+  @Override
+  public String getString(int ordinal) {
+    return prodscan.getString(ordinal);
+  }
+
+  @Override
+  public Constant getVal(int ordinal) {
+    return prodscan.getVal(ordinal);
+  }
+
   @Override
   public void close() {
     prodscan.close();
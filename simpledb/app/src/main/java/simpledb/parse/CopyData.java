@@ -0,0 +1,22 @@
+package simpledb.parse;
+
+/*
+ * Data for the COPY statement, which loads the records of a file into a table
+ */
+public class CopyData {
+  private String tblname;
+  private String filename;
+
+  public CopyData(String tblname, String filename) {
+    this.tblname = tblname;
+    this.filename = filename;
+  }
+
+  public String tableName() {
+    return tblname;
+  }
+
+  public String fileName() {
+    return filename;
+  }
+}
@@ -1,14 +1,21 @@
 package simpledb.parse;
 
+import simpledb.record.RecordFormat;
 import simpledb.record.Schema;
 
 public class CreateTableData {
     private String tblname;
     private Schema sch;
+    private RecordFormat format; // null unless the format is given
 
     public CreateTableData(String tblname, Schema sch) {
+        this(tblname, sch, null);
+    }
+
+    public CreateTableData(String tblname, Schema sch, RecordFormat format) {
         this.tblname = tblname;
         this.sch = sch;
+        this.format = format;
     }
 
     public String tableName() {
@@ -18,4 +25,8 @@ public class CreateTableData {
     public Schema newSchema() {
         return sch;
     }
+
+    public RecordFormat format() {
+        return format;
+    }
 }
@@ -118,6 +118,6 @@ public class Lexer {
   private void initKeywords() {
     keywords = Arrays.asList("select", "from", "where", "and",
         "insert", "into", "values", "delete", "update", "set",
-        "create", "table", "int", "varchar", "view", "as", "index", "on");
+        "create", "table", "int", "varchar", "view", "as", "index", "on", "using", "copy", "vacuum");
   }
 }
@@ -8,6 +8,7 @@ import simpledb.query.Constant;
 import simpledb.query.Expression;
 import simpledb.query.Predicate;
 import simpledb.query.Term;
+import simpledb.record.RecordFormat;
 import simpledb.record.Schema;
 
 public class Parser {
@@ -110,7 +111,9 @@ public class Parser {
    * 2. delete: delete()
    * 3. update: modify()
    * 4. create: create()
-   * 5. else: BadSyntaxExceptiion()
+   * 5. copy: copy()
+   * 6. vacuum: vacuum()
+   * 7. else: BadSyntaxExceptiion()
    */
   public Object updateCmd() {
     if (lex.matchKeyword("insert"))
@@ -121,6 +124,10 @@ public class Parser {
       return modify();
     if (lex.matchKeyword("create"))
       return create();
+    if (lex.matchKeyword("copy"))
+      return copy();
+    if (lex.matchKeyword("vacuum"))
+      return vacuum();
     else
       throw new BadSyntaxException();
   }
@@ -196,6 +203,27 @@ public class Parser {
     return new ModifyData(tblname, fldname, newval, pred);
   }
 
+  /*
+   * Parse copy SQL and return CopyData object
+   * SQL: COPY <tablename> FROM '<filename>'
+   */
+  public CopyData copy() {
+    lex.eatKeyword("copy");
+    String tblname = lex.eatId();
+    lex.eatKeyword("from");
+    String filename = lex.eatStringConstant();
+    return new CopyData(tblname, filename);
+  }
+
+  /*
+   * Parse vacuum SQL and return VacuumData object
+   * SQL: VACUUM <tablename>
+   */
+  public VacuumData vacuum() {
+    lex.eatKeyword("vacuum");
+    return new VacuumData(lex.eatId());
+  }
+
   public Object create() {
     lex.eatKeyword("create");
     if (lex.matchKeyword("table"))
@@ -210,7 +238,8 @@ public class Parser {
 
   /*
    * Parse create table SQL and return CreateTableData object
-   * SQL: CREATE TABLE <tablename> (fld1 int, fld2 varchar(20))
+   * SQL: CREATE TABLE <tablename> (fld1 int, fld2 varchar(20)) [USING <format>]
+   * where the format is one of the record formats, such as pax.
    */
   public CreateTableData createTable() {
     lex.eatKeyword("table");
@@ -218,9 +247,21 @@ public class Parser {
     lex.eatDelim('(');
     Schema sch = fieldDefs();
     lex.eatDelim(')');
+    if (lex.matchKeyword("using")) {
+      lex.eatKeyword("using");
+      return new CreateTableData(tblname, sch, recordFormat());
+    }
     return new CreateTableData(tblname, sch);
   }
 
+  private RecordFormat recordFormat() {
+    String name = lex.eatId();
+    for (RecordFormat format : RecordFormat.values())
+      if (format.name().equalsIgnoreCase(name))
+        return format;
+    throw new BadSyntaxException();
+  }
+
   private Schema fieldDefs() {
     Schema schema = fieldDef();
     if (lex.matchDelim(',')) {
@@ -0,0 +1,16 @@
+package simpledb.parse;
+
+/*
+ * Data for the VACUUM statement, which compacts a table
+ */
+public class VacuumData {
+  private String tblname;
+
+  public VacuumData(String tblname) {
+    this.tblname = tblname;
+  }
+
+  public String tableName() {
+    return tblname;
+  }
+}
@@ -3,6 +3,7 @@ package simpledb.plan;
 import java.util.Iterator;
 
 import simpledb.metadata.MetadataMgr;
+import simpledb.parse.CopyData;
 import simpledb.parse.CreateIndexData;
 import simpledb.parse.CreateTableData;
 import simpledb.parse.CreateViewData;
@@ -11,6 +12,8 @@ import simpledb.parse.InsertData;
 import simpledb.parse.ModifyData;
 import simpledb.query.Constant;
 import simpledb.query.UpdateScan;
+import simpledb.record.BulkLoader;
+import simpledb.record.Layout;
 import simpledb.tx.Transaction;
 
 public class BasicUpdatePlanner implements UpdatePlanner {
@@ -65,7 +68,10 @@ public class BasicUpdatePlanner implements UpdatePlanner {
 
   @Override
   public int executeCreateTable(CreateTableData data, Transaction tx) {
-    mdm.createTable(data.tableName(), data.newSchema(), tx);
+    if (data.format() == null)
+      mdm.createTable(data.tableName(), data.newSchema(), tx);
+    else
+      mdm.createTable(data.tableName(), data.newSchema(), data.format(), tx);
     return 0;
   }
 
@@ -81,4 +87,24 @@ public class BasicUpdatePlanner implements UpdatePlanner {
     return 0;
   }
 
+  /*
+   * Load the records of the file into new blocks of the table.
+   */
+  @Override
+  public int executeCopy(CopyData data, Transaction tx) {
+    Layout layout = mdm.getLayout(data.tableName(), tx);
+    int nfields = layout.schema().fields().size();
+    CopyReader reader = new CopyReader(data.fileName(), layout.schema());
+    BulkLoader loader = new BulkLoader(tx, data.tableName(), layout);
+    try {
+      while (reader.next()) {
+        loader.insert();
+        for (int i = 0; i < nfields; i++)
+          loader.setVal(i, reader.getVal(i)); // the i-th field of the schema has the ordinal i
+      }
+    } finally {
+      reader.close();
+    }
+    return loader.close();
+  }
 }
@@ -0,0 +1,134 @@
+package simpledb.plan;
+
+import static java.sql.Types.INTEGER;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.query.Constant;
+import simpledb.record.Schema;
+
+/*
+ * Copy Reader reads the records of the file of a COPY statement.
+ * The file has a record on each line, with the values of the fields
+ * in the order of the schema separated by commas. Empty lines are skipped.
+ * A value can be enclosed in double quotes to have commas in it,
+ * and a double quote in a quoted value is written twice ("").
+ * A quoted value can't span lines.
+ * A string value longer than its field is rejected.
+ */
+public class CopyReader {
+  private BufferedReader reader;
+  private String filename;
+  private int[] types; // by the position of the field in the schema
+  private int[] lengths;
+  private String[] vals;
+  private int lineno = 0;
+
+  public CopyReader(String filename, Schema sch) {
+    this.filename = filename;
+    List<String> fields = sch.fields();
+    types = new int[fields.size()];
+    lengths = new int[fields.size()];
+    for (int i = 0; i < fields.size(); i++) {
+      types[i] = sch.type(fields.get(i));
+      lengths[i] = sch.length(fields.get(i));
+    }
+    try {
+      reader = new BufferedReader(new FileReader(filename));
+    } catch (IOException e) {
+      throw new RuntimeException("cannot open " + filename);
+    }
+  }
+
+  /*
+   * Move to the next record, and return false at the end of the file.
+   */
+  public boolean next() {
+    try {
+      String line;
+      do {
+        line = reader.readLine();
+        lineno++;
+        if (line == null)
+          return false;
+      } while (line.isEmpty());
+      vals = split(line);
+    } catch (IOException e) {
+      throw new RuntimeException("cannot read " + filename);
+    }
+    if (vals.length != types.length)
+      throw new RuntimeException("cannot copy line " + lineno + " of " + filename + ": expected "
+          + types.length + " values but found " + vals.length);
+    return true;
+  }
+
+  /*
+   * Return the value of the i-th field of the schema in the current record.
+   */
+  public Constant getVal(int i) {
+    String val = vals[i];
+    if (types[i] != INTEGER) {
+      if (val.length() > lengths[i])
+        throw new RuntimeException("cannot copy line " + lineno + " of " + filename + ": " + val + " is longer than "
+            + lengths[i]);
+      return new Constant(val);
+    }
+    try {
+      return new Constant(Integer.parseInt(val.trim()));
+    } catch (NumberFormatException e) {
+      throw new RuntimeException("cannot copy line " + lineno + " of " + filename + ": " + val + " is not an int");
+    }
+  }
+
+  /*
+   * Split the line into the values, removing the quotes of the quoted ones.
+   */
+  private String[] split(String line) {
+    List<String> result = new ArrayList<>();
+    StringBuilder val = new StringBuilder();
+    int pos = 0;
+    while (true) {
+      if (pos < line.length() && line.charAt(pos) == '"') {
+        pos++;
+        while (true) {
+          int quote = line.indexOf('"', pos);
+          if (quote < 0)
+            throw new RuntimeException("cannot copy line " + lineno + " of " + filename + ": unterminated quote");
+          val.append(line, pos, quote);
+          pos = quote + 1;
+          if (pos < line.length() && line.charAt(pos) == '"') {
+            val.append('"');
+            pos++;
+          } else {
+            break;
+          }
+        }
+        if (pos < line.length() && line.charAt(pos) != ',')
+          throw new RuntimeException("cannot copy line " + lineno + " of " + filename + ": unexpected "
+              + line.charAt(pos) + " after a quoted value");
+      } else {
+        int comma = line.indexOf(',', pos);
+        int end = (comma < 0) ? line.length() : comma;
+        val.append(line, pos, end);
+        pos = end;
+      }
+      result.add(val.toString());
+      val.setLength(0);
+      if (pos >= line.length())
+        return result.toArray(new String[0]);
+      pos++; // skip the comma
+    }
+  }
+
+  public void close() {
+    try {
+      reader.close();
+    } catch (IOException e) {
+      throw new RuntimeException("cannot close " + filename);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package simpledb.plan;
 
+import simpledb.parse.CopyData;
 import simpledb.parse.CreateIndexData;
 import simpledb.parse.CreateTableData;
 import simpledb.parse.CreateViewData;
@@ -8,15 +9,22 @@ import simpledb.parse.InsertData;
 import simpledb.parse.ModifyData;
 import simpledb.parse.Parser;
 import simpledb.parse.QueryData;
+import simpledb.parse.VacuumData;
 import simpledb.tx.Transaction;
 
 public class Planner {
   private QueryPlanner qplanner;
   private UpdatePlanner uplanner;
+  private Vacuum vacuum; // null if the planner can't vacuum
 
   public Planner(QueryPlanner qplanner, UpdatePlanner uplanner) {
+    this(qplanner, uplanner, null);
+  }
+
+  public Planner(QueryPlanner qplanner, UpdatePlanner uplanner, Vacuum vacuum) {
     this.qplanner = qplanner;
     this.uplanner = uplanner;
+    this.vacuum = vacuum;
   }
 
   public Plan createQueryPlan(String qry, Transaction tx) {
@@ -42,10 +50,24 @@ public class Planner {
       return uplanner.executeCreateView((CreateViewData) data, tx);
     else if (data instanceof CreateIndexData)
       return uplanner.executeCreateIndex((CreateIndexData) data, tx);
+    else if (data instanceof CopyData)
+      return uplanner.executeCopy((CopyData) data, tx);
+    else if (data instanceof VacuumData)
+      return executeVacuum((VacuumData) data);
     else
       return 0;
   }
 
+  /*
+   * Vacuum the table in transactions of its own, not in the given one,
+   * and return the number of the reclaimed blocks.
+   */
+  private int executeVacuum(VacuumData data) {
+    if (vacuum == null)
+      throw new RuntimeException("cannot vacuum " + data.tableName() + " with this planner");
+    return vacuum.run(data.tableName());
+  }
+
   private void verifyQuery(QueryData data) {
     // TODO
   }
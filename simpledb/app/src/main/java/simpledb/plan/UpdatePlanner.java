@@ -1,5 +1,6 @@
 package simpledb.plan;
 
+import simpledb.parse.CopyData;
 import simpledb.parse.CreateIndexData;
 import simpledb.parse.CreateTableData;
 import simpledb.parse.CreateViewData;
@@ -24,4 +25,6 @@ public interface UpdatePlanner {
   public int executeCreateView(CreateViewData data, Transaction tx);
 
   public int executeCreateIndex(CreateIndexData data, Transaction tx);
+
+  public int executeCopy(CopyData data, Transaction tx);
 }
@@ -0,0 +1,179 @@
+package simpledb.plan;
+
+import static java.sql.Types.INTEGER;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import simpledb.file.BlockId;
+import simpledb.file.FreeSpaceMap;
+import simpledb.index.Index;
+import simpledb.metadata.IndexInfo;
+import simpledb.metadata.MetadataMgr;
+import simpledb.query.Constant;
+import simpledb.record.Layout;
+import simpledb.record.RID;
+import simpledb.record.RecordPage;
+import simpledb.tx.Transaction;
+
+/*
+ * Vacuum moves the records at the end of a table into the free slots
+ * at its beginning, and truncates the blocks left empty at the end.
+ *
+ * It runs online in many small transactions instead of locking the table:
+ * each step moves the records of the last block that has any,
+ * updating the index records of the moved records, and commits,
+ * and then another transaction cuts the empty blocks off the file.
+ * A truncation that would have to wait, such as for a scan of the table or
+ * for a snapshot that may read the old versions of the blocks, is skipped
+ * without waiting and retried after the next step. The run ends when the free slots at the beginning
+ * meet the records at the end.
+ *
+ * The vacuum doesn't run in the transaction of its caller,
+ * so the caller must not hold locks on the table.
+ */
+public class Vacuum {
+  private MetadataMgr mdm;
+  private Supplier<Transaction> txs;
+
+  public Vacuum(MetadataMgr mdm, Supplier<Transaction> txs) {
+    this.mdm = mdm;
+    this.txs = txs;
+  }
+
+  /*
+   * Compact the table and return the number of the blocks removed from its file.
+   */
+  public int run(String tblname) {
+    String filename = tblname + ".tbl";
+    Transaction tx = txs.get();
+    Layout layout = mdm.getLayout(tblname, tx);
+    int size = tx.size(filename);
+    tx.commit();
+    System.out.println("[Vacuum] start table: " + tblname + ", blocks: " + size);
+
+    int dst = 0; // the blocks before it have no free slot
+    int src = size - 1;
+    int reclaimed = 0;
+    try {
+      while (dst < src) {
+        tx = txs.get();
+        try {
+          dst = moveBlock(tx, tblname, layout, src, dst);
+          tx.commit();
+          if (dst < src)
+            src--;
+        } catch (RuntimeException e) {
+          tx.rollback();
+          throw e;
+        }
+        reclaimed += truncate(tblname, layout);
+      }
+      reclaimed += truncate(tblname, layout);
+    } finally {
+      freeEmptied(filename, src + 1);
+    }
+    System.out.println("[Vacuum] finished table: " + tblname + ", reclaimed blocks: " + reclaimed);
+    return reclaimed;
+  }
+
+  /*
+   * Mark the emptied blocks from the given one free again
+   * if they are still in the file, as their truncation was skipped.
+   */
+  private void freeEmptied(String filename, int from) {
+    Transaction tx = txs.get();
+    int size = tx.size(filename);
+    FreeSpaceMap fsm = tx.freeSpaceMap(filename);
+    tx.commit();
+    for (int blknum = from; blknum < size; blknum++)
+      fsm.markFree(blknum);
+  }
+
+  /*
+   * Move the records of the source block into the free slots of the blocks
+   * from the destination block, and delete them from the source block.
+   * Return the destination block where the free slots continue,
+   * which is the source block if they ran out.
+   */
+  private int moveBlock(Transaction tx, String tblname, Layout layout, int src, int dst) {
+    String filename = tblname + ".tbl";
+    Map<String, IndexInfo> indexes = mdm.getIndexInfo(tblname, tx);
+    FreeSpaceMap fsm = tx.freeSpaceMap(filename);
+    RecordPage srp = new RecordPage(tx, new BlockId(filename, src), layout);
+    RecordPage drp = new RecordPage(tx, new BlockId(filename, dst), layout);
+    int dslot = -1;
+    int moved = 0;
+    try {
+      for (int slot = srp.nextUsedSlot(-1); slot >= 0; slot = srp.nextUsedSlot(slot)) {
+        dslot = srp.copyTo(slot, drp, dslot);
+        while (dslot < 0) {
+          drp.close();
+          drp = null;
+          fsm.markFull(dst);
+          dst++;
+          if (dst >= src)
+            break;
+          drp = new RecordPage(tx, new BlockId(filename, dst), layout);
+          dslot = srp.copyTo(slot, drp, -1);
+        }
+        if (dslot < 0)
+          break;
+        RID from = new RID(src, slot);
+        RID to = new RID(dst, dslot);
+        for (Map.Entry<String, IndexInfo> entry : indexes.entrySet()) {
+          int ordinal = layout.ordinal(entry.getKey());
+          Constant val = (layout.type(ordinal) == INTEGER) ? new Constant(srp.getInt(slot, ordinal))
+              : new Constant(srp.getString(slot, ordinal));
+          Index idx = entry.getValue().open();
+          idx.delete(val, from);
+          idx.insert(val, to);
+          idx.close();
+        }
+        srp.delete(slot);
+        moved++;
+      }
+      if (dst < src)
+        fsm.markFull(src); // keep the inserts away from the emptied block
+      System.out.println("[Vacuum] moved " + moved + " records from block " + src);
+      return dst;
+    } finally {
+      srp.close();
+      if (drp != null)
+        drp.close();
+    }
+  }
+
+  /*
+   * Cut the empty blocks off the end of the file in a transaction of its own,
+   * and return the number of the removed blocks.
+   * Nothing is removed if the truncation has to wait.
+   */
+  private int truncate(String tblname, Layout layout) {
+    String filename = tblname + ".tbl";
+    Transaction tx = txs.get();
+    try {
+      int size = tx.size(filename);
+      int n = size;
+      while (n > 1) {
+        RecordPage rp = new RecordPage(tx, new BlockId(filename, n - 1), layout);
+        boolean empty = rp.isEmpty();
+        rp.close();
+        if (!empty)
+          break;
+        n--;
+      }
+      if (n == size || !tx.truncate(filename, n)) {
+        tx.commit();
+        return 0;
+      }
+      tx.commit();
+      System.out.println("[Vacuum] truncated " + filename + " from " + size + " to " + n + " blocks");
+      return size - n;
+    } catch (RuntimeException e) {
+      System.out.println("[Vacuum] cannot truncate " + filename + " now: " + e);
+      tx.rollback();
+      return 0;
+    }
+  }
+}
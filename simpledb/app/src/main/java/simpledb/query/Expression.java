@@ -8,6 +8,7 @@ import simpledb.record.Schema;
 public class Expression {
   private Constant val = null;
   private String fldname = null;
+  private int ordinal = -1; // the ordinal of the field in the scan it's bound to
 
   public Expression(Constant val) {
     this.val = val;
@@ -21,7 +22,21 @@ public class Expression {
    * Get the field value via Scan
    */
   public Constant evaluate(Scan s) {
-    return (val != null) ? val : s.getVal(fldname);
+    if (val != null)
+      return val;
+    return (ordinal >= 0) ? s.getVal(ordinal) : s.getVal(fldname);
+  }
+
+  /*
+   * Return the expression with its field resolved to the ordinal
+   * in the given scan, to be evaluated only with that scan.
+   */
+  public Expression bind(Scan s) {
+    if (fldname == null)
+      return this;
+    Expression e = new Expression(fldname);
+    e.ordinal = s.ordinal(fldname);
+    return e;
   }
 
   public boolean isFieldName() {
@@ -44,6 +44,17 @@ public class Predicate {
     return true;
   }
 
+  /*
+   * Return the predicate with the fields of its terms resolved
+   * to their ordinals in the given scan (see Expression.bind).
+   */
+  public Predicate bind(Scan s) {
+    Predicate pred = new Predicate();
+    for (Term t : terms)
+      pred.terms.add(t.bind(s));
+    return pred;
+  }
+
   public String toString() {
     Iterator<Term> iter = terms.iterator();
     if (!iter.hasNext())
@@ -10,6 +10,7 @@ public class ProductScan implements Scan {
   public ProductScan(Scan s1, Scan s2) {
     this.s1 = s1;
     this.s2 = s2;
+    beforeFirst();
   }
 
   /*
@@ -67,6 +68,37 @@ public class ProductScan implements Scan {
     return s1.hasField(fldname) || s2.hasField(fldname);
   }
 
+  /*
+   * The ordinal of a field of the LHS scan is twice its ordinal there,
+   * and that of the RHS scan is twice its ordinal there plus one,
+   * so the fields of both scans have their own ordinals.
+   * A field has no ordinal (-1) if its scan doesn't have ordinals.
+   */
+  @Override
+  public int ordinal(String fldname) {
+    if (s1.hasField(fldname)) {
+      int ordinal = s1.ordinal(fldname);
+      return (ordinal < 0) ? -1 : 2 * ordinal;
+    }
+    int ordinal = s2.ordinal(fldname);
+    return (ordinal < 0) ? -1 : 2 * ordinal + 1;
+  }
+
+  @Override
+  public int getInt(int ordinal) {
+    return (ordinal % 2 == 0) ? s1.getInt(ordinal / 2) : s2.getInt(ordinal / 2);
+  }
+
+  @Override
+  public String getString(int ordinal) {
+    return (ordinal % 2 == 0) ? s1.getString(ordinal / 2) : s2.getString(ordinal / 2);
+  }
+
+  @Override
+  public Constant getVal(int ordinal) {
+    return (ordinal % 2 == 0) ? s1.getVal(ordinal / 2) : s2.getVal(ordinal / 2);
+  }
+
   @Override
   public void close() {
     s1.close();
@@ -50,6 +50,32 @@ public class ProjectScan implements Scan {
     return fieldlist.contains(fldname);
   }
 
+  /*
+   * The ordinals are those of the underlying scan,
+   * and only the projected fields have one. The other fields have
+   * no ordinal (-1), so binding a predicate to them doesn't fail,
+   * and accessing them by name fails as the other methods do.
+   */
+  @Override
+  public int ordinal(String fldname) {
+    return hasField(fldname) ? s.ordinal(fldname) : -1;
+  }
+
+  @Override
+  public int getInt(int ordinal) {
+    return s.getInt(ordinal);
+  }
+
+  @Override
+  public String getString(int ordinal) {
+    return s.getString(ordinal);
+  }
+
+  @Override
+  public Constant getVal(int ordinal) {
+    return s.getVal(ordinal);
+  }
+
   @Override
   public void close() {
     s.close();
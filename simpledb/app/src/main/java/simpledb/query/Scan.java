@@ -36,6 +36,29 @@ public interface Scan {
 
   public boolean hasField(String fldname);
 
+  /*
+   * Return the ordinal of the field in this scan, which the methods below
+   * take instead of the name. Resolve the ordinal once, such as when the
+   * scan is opened, and use it for every record to avoid looking up the
+   * field by name each time.
+   * Return -1 if the scan doesn't have ordinals, and use the name then.
+   */
+  default int ordinal(String fldname) {
+    return -1;
+  }
+
+  default int getInt(int ordinal) {
+    throw new RuntimeException("cannot access a field by ordinal");
+  }
+
+  default String getString(int ordinal) {
+    throw new RuntimeException("cannot access a field by ordinal");
+  }
+
+  default Constant getVal(int ordinal) {
+    throw new RuntimeException("cannot access a field by ordinal");
+  }
+
   /*
    * Close the scan and its subscans, if any.
    */
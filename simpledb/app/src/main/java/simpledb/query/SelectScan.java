@@ -12,7 +12,7 @@ public class SelectScan implements UpdateScan {
 
   public SelectScan(Scan s, Predicate pred) {
     this.s = s;
-    this.pred = pred;
+    this.pred = pred.bind(s); // resolve the fields of the predicate once
   }
 
   @Override
@@ -48,6 +48,26 @@ public class SelectScan implements UpdateScan {
     return s.hasField(fldname);
   }
 
+  @Override
+  public int ordinal(String fldname) {
+    return s.ordinal(fldname);
+  }
+
+  @Override
+  public int getInt(int ordinal) {
+    return s.getInt(ordinal);
+  }
+
+  @Override
+  public String getString(int ordinal) {
+    return s.getString(ordinal);
+  }
+
+  @Override
+  public Constant getVal(int ordinal) {
+    return s.getVal(ordinal);
+  }
+
   @Override
   public void close() {
     s.close();
@@ -27,6 +27,13 @@ public class Term {
     return rhsval.equals(lhsval);
   }
 
+  /*
+   * Return the term with its expressions bound to the given scan.
+   */
+  public Term bind(Scan s) {
+    return new Term(lhs.bind(s), rhs.bind(s));
+  }
+
   /*
    * Return true if both of the term's expressions
    * apply to the speicified schema.
@@ -0,0 +1,157 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.query.Constant;
+import simpledb.tx.PageHandle;
+import simpledb.tx.Transaction;
+
+/*
+ * Bulk Loader appends records to a table a block at a time.
+ * The records are written to an image of a new block in memory,
+ * without locking or logging them, and the image is written to the block
+ * when it's full as a single logged write of the whole page,
+ * instead of a log record for each field and each flag.
+ * The undo of the write restores the empty block,
+ * so the loaded records go away with a rollback as inserted ones do.
+ *
+ * The new blocks are locked exclusively and marked full in the free space map
+ * when they are appended, so that the other transactions don't insert into them.
+ * The records of the SLOTTED format can move to other blocks,
+ * so they are inserted through a table scan instead.
+ */
+public class BulkLoader {
+  private Transaction tx;
+  private Layout layout;
+  private String filename;
+  private TableScan ts; // null unless the format is SLOTTED
+  private PageHandle handle; // the handle of the block being built
+  private Page image;
+  private RecordPage rp;
+  private int currentslot = -1;
+  private int records = 0;
+  private int blocks = 0;
+
+  public BulkLoader(Transaction tx, String tblname, Layout layout) {
+    this.tx = tx;
+    this.layout = layout;
+    filename = tblname + ".tbl";
+    if (layout.format() == RecordFormat.SLOTTED)
+      ts = new TableScan(tx, tblname, layout);
+  }
+
+  /*
+   * Add a record to the table and make it the current one.
+   */
+  public void insert() {
+    records++;
+    if (ts != null) {
+      ts.insert();
+      return;
+    }
+    if (rp != null)
+      currentslot = rp.useNextEmptySlot(currentslot);
+    if (rp == null || currentslot < 0) {
+      writeBlock();
+      newBlock();
+      currentslot = rp.useNextEmptySlot(currentslot);
+    }
+  }
+
+  public void setInt(String fldname, int val) {
+    setInt(ordinal(fldname), val);
+  }
+
+  public void setString(String fldname, String val) {
+    setString(ordinal(fldname), val);
+  }
+
+  public void setVal(String fldname, Constant val) {
+    setVal(ordinal(fldname), val);
+  }
+
+  /*
+   * Set the field of the given ordinal in the layout,
+   * which is its position in the schema.
+   */
+  public void setInt(int ordinal, int val) {
+    if (ts != null)
+      ts.setInt(ordinal, val);
+    else
+      rp.setInt(currentslot, ordinal, val);
+  }
+
+  public void setString(int ordinal, String val) {
+    if (ts != null)
+      ts.setString(ordinal, val);
+    else
+      rp.setString(currentslot, ordinal, val);
+  }
+
+  public void setVal(int ordinal, Constant val) {
+    if (layout.type(ordinal) == INTEGER)
+      setInt(ordinal, val.asInt());
+    else
+      setString(ordinal, val.asString());
+  }
+
+  /*
+   * Return the RID of the current record, which stays valid
+   * after the block of the record is written.
+   */
+  public RID getRid() {
+    if (ts != null)
+      return ts.getRid();
+    return new RID(rp.block().number(), currentslot);
+  }
+
+  /*
+   * Write the last block, and return the number of the loaded records.
+   * The last block is marked free again, as it may have room left.
+   * The summary is printed only if something was loaded.
+   */
+  public int close() {
+    if (ts != null)
+      ts.close();
+    BlockId last = (rp != null) ? rp.block() : null;
+    writeBlock();
+    if (last != null)
+      tx.freeSpaceMap(filename).markFree(last.number());
+    if (records > 0)
+      System.out.println("[BulkLoader] loaded " + records + " records into " + blocks + " new blocks of " + filename);
+    return records;
+  }
+
+  private int ordinal(String fldname) {
+    int ordinal = layout.ordinal(fldname);
+    if (ordinal < 0)
+      throw new RuntimeException("field " + fldname + " not found.");
+    return ordinal;
+  }
+
+  private void newBlock() {
+    BlockId blk = tx.append(filename);
+    tx.pin(blk);
+    handle = new PageHandle(tx, blk);
+    handle.lockExclusive();
+    tx.freeSpaceMap(filename).markFull(blk.number());
+    image = new Page(tx.blockSize());
+    rp = new RecordPage(tx, blk, layout, image);
+    rp.format();
+    currentslot = -1;
+  }
+
+  /*
+   * Write the image to its block as a logged full-page write.
+   */
+  private void writeBlock() {
+    if (rp == null)
+      return;
+    handle.setRawBytes(0, image.getRawBytes(0, tx.blockSize()), true);
+    tx.unpin(rp.block());
+    blocks++;
+    rp = null;
+  }
+}
@@ -10,7 +10,17 @@ import simpledb.file.Page;
 /*
  * Description of the structure of a record.
  * It contains the name, type, length and offset of
- * each field of the table.
+ * each field of the table, and the format of the records in the blocks.
+ * In the SLOTTED format the strings are stored after the fixed-size part
+ * of the record, which has the position of each string at its offset,
+ * and the slot size is the size of the fixed-size part.
+ * In the PAX format the offset of a field is where its values start
+ * in units of the slots of the block (see RecordPage).
+ *
+ * Each field also has an ordinal, its position in the schema,
+ * and the offset, type and length of the fields are kept in arrays
+ * by ordinal, so that a scan can resolve a field name once and
+ * then access the field of every record without a map lookup.
  */
 public class Layout {
   private Schema schema;
@@ -19,22 +29,40 @@ public class Layout {
    */
   private Map<String, Integer> offsets;
   private int slotsize;
+  private RecordFormat format;
+  private Map<String, Integer> ordinals = new HashMap<>();
+  private String[] fldnames;
+  private int[] offsetArray;
+  private int[] types;
+  private int[] lengths;
 
   public Layout(Schema schema) {
+    this(schema, RecordFormat.FLAG);
+  }
+
+  public Layout(Schema schema, RecordFormat format) {
     this.schema = schema;
+    this.format = format;
     offsets = new HashMap<>();
-    int pos = Integer.BYTES; // leave space for the empty/inuse flag
+    int pos = (format == RecordFormat.FLAG) ? Integer.BYTES : 0; // leave space for the empty/inuse flag
     for (String fldname : schema.fields()) {
       offsets.put(fldname, pos);
       pos += lengthInBytes(fldname);
     }
     slotsize = pos;
+    initOrdinals();
   }
 
   public Layout(Schema schema, Map<String, Integer> offsets, int slotsize) {
+    this(schema, offsets, slotsize, RecordFormat.FLAG);
+  }
+
+  public Layout(Schema schema, Map<String, Integer> offsets, int slotsize, RecordFormat format) {
     this.schema = schema;
     this.offsets = offsets;
     this.slotsize = slotsize;
+    this.format = format;
+    initOrdinals();
   }
 
   public Schema schema() {
@@ -45,15 +73,62 @@ public class Layout {
     return offsets.get(fldname);
   }
 
+  /*
+   * Return the ordinal of the field, or -1 if the layout doesn't have it.
+   */
+  public int ordinal(String fldname) {
+    Integer ordinal = ordinals.get(fldname);
+    return (ordinal != null) ? ordinal : -1;
+  }
+
+  public String fieldName(int ordinal) {
+    return fldnames[ordinal];
+  }
+
+  public int offset(int ordinal) {
+    return offsetArray[ordinal];
+  }
+
+  public int type(int ordinal) {
+    return types[ordinal];
+  }
+
+  public int lengthInBytes(int ordinal) {
+    return lengths[ordinal];
+  }
+
   public int slotSize() {
     return slotsize;
   }
 
-  private int lengthInBytes(String fldname) {
+  public RecordFormat format() {
+    return format;
+  }
+
+  /*
+   * Return the number of bytes the field takes in a slot.
+   */
+  public int lengthInBytes(String fldname) {
     int fldtype = schema.type(fldname);
-    if (fldtype == INTEGER)
+    if (fldtype == INTEGER || format == RecordFormat.SLOTTED)
       return Integer.BYTES;
     else
       return Page.maxLength(schema.length(fldname)); // 4 bytes + length of bytes (= strlen if using ASCII)
   }
+
+  private void initOrdinals() {
+    int n = schema.fields().size();
+    fldnames = new String[n];
+    offsetArray = new int[n];
+    types = new int[n];
+    lengths = new int[n];
+    for (int ordinal = 0; ordinal < n; ordinal++) {
+      String fldname = schema.fields().get(ordinal);
+      ordinals.putIfAbsent(fldname, ordinal);
+      fldnames[ordinal] = fldname;
+      offsetArray[ordinal] = offsets.get(fldname);
+      types[ordinal] = schema.type(fldname);
+      lengths[ordinal] = lengthInBytes(fldname);
+    }
+  }
 }
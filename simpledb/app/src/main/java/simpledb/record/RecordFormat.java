@@ -0,0 +1,34 @@
+package simpledb.record;
+
+/*
+ * The formats of the records in the blocks of a table.
+ * FLAG starts every slot with an EMPTY/USED flag.
+ * BITMAP keeps the flags of the slots in a bitmap at the head of the block
+ * together with the number of the records, and the slots hold only the fields.
+ * SLOTTED stores variable-length records through a slot directory,
+ * so that a string takes only its actual length (see SlottedPage).
+ * PAX has the header of BITMAP, and groups the values of each field
+ * together in the block instead of storing the records one after another.
+ *
+ * The code of the format is stored in the catalog.
+ */
+public enum RecordFormat {
+  FLAG(0), BITMAP(1), SLOTTED(2), PAX(3);
+
+  private int code;
+
+  RecordFormat(int code) {
+    this.code = code;
+  }
+
+  public int code() {
+    return code;
+  }
+
+  public static RecordFormat fromCode(int code) {
+    for (RecordFormat format : values())
+      if (format.code == code)
+        return format;
+    throw new RuntimeException("cannot find record format " + code);
+  }
+}
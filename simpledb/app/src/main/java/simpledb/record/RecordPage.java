@@ -3,20 +3,69 @@ package simpledb.record;
 import static java.sql.Types.INTEGER;
 
 import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.tx.PageHandle;
 import simpledb.tx.Transaction;
 
+/*
+ * Record Page stores the records of a table in a block.
+ * In the FLAG format every slot starts with its EMPTY/USED flag.
+ * In the BITMAP format the block starts with a header:
+ * |<number of records><bitmap words>.....<slots>|
+ * where the bit of a slot is set if the slot is used, and the slots
+ * hold only the fields. Looking for a used or an empty slot reads
+ * 32 slots at a time from a bitmap word instead of a flag per slot.
+ * The header is shared by the records, so it isn't locked: a record
+ * is locked by its slot, and its bit and the count are updated from
+ * their current values, which the undo keeps for the other records.
+ * The PAX format has the same header, but the slots are split by field:
+ * |<header><a of slot 0><a of slot 1>...<b of slot 0><b of slot 1>...|
+ * so that the values of a field are next to each other, and a scan
+ * reading a few fields of a wide table touches only their part of the block.
+ * The records of the SLOTTED format are managed by SlottedPage.
+ */
 public class RecordPage {
   public static final int EMPTY = 0;
   public static final int USED = 1;
+  private static final int BITS = Integer.SIZE;
   private Transaction tx;
   private BlockId blk;
   private Layout layout;
+  private PageHandle page;
+  private boolean bitmap; // true if the block has the header of the BITMAP format
+  private boolean pax;
+  private SlottedPage slotted; // null unless the format is SLOTTED
+  private int nslots = -1; // the number of the slots in the BITMAP format
+  private boolean building = false; // true if the page is an image in memory
 
   public RecordPage(Transaction tx, BlockId blk, Layout layout) {
     this.tx = tx;
     this.blk = blk;
     this.layout = layout;
+    pax = layout.format() == RecordFormat.PAX;
+    bitmap = layout.format() == RecordFormat.BITMAP || pax;
     tx.pin(blk);
+    page = new PageHandle(tx, blk);
+    if (layout.format() == RecordFormat.SLOTTED)
+      slotted = new SlottedPage(tx, blk, layout, page);
+  }
+
+  /*
+   * Create a record page over an image of the block in memory,
+   * which the bulk loader fills and then writes to the block.
+   * Neither the block is pinned nor the records are locked,
+   * and the writes are not logged.
+   */
+  public RecordPage(Transaction tx, BlockId blk, Layout layout, Page image) {
+    if (layout.format() == RecordFormat.SLOTTED)
+      throw new RuntimeException("cannot build an image of a SLOTTED page");
+    this.tx = tx;
+    this.blk = blk;
+    this.layout = layout;
+    pax = layout.format() == RecordFormat.PAX;
+    bitmap = layout.format() == RecordFormat.BITMAP || pax;
+    page = new PageHandle(blk, image);
+    building = true;
   }
 
   /*
@@ -24,23 +73,55 @@ public class RecordPage {
    * slot is the number to specify a record (n-th record)
    */
   public int getInt(int slot, String fldname) {
-    int fldpos = offset(slot) + layout.offset(fldname);
-    return tx.getInt(blk, fldpos);
+    return getInt(slot, ordinal(fldname));
+  }
+
+  /*
+   * get int from the field of the given ordinal in the layout
+   * at the specified slot.
+   */
+  public int getInt(int slot, int ordinal) {
+    if (slotted != null)
+      return slotted.getInt(slot, layout.fieldName(ordinal));
+    int fldpos = fieldOffset(slot, ordinal);
+    return page.getRecordInt(slot, fldpos);
   }
 
   public String getString(int slot, String fldname) {
-    int fldpos = offset(slot) + layout.offset(fldname);
-    return tx.getString(blk, fldpos);
+    return getString(slot, ordinal(fldname));
+  }
+
+  public String getString(int slot, int ordinal) {
+    if (slotted != null)
+      return slotted.getString(slot, layout.fieldName(ordinal));
+    int fldpos = fieldOffset(slot, ordinal);
+    return page.getRecordString(slot, fldpos);
   }
 
   public void setInt(int slot, String fldname, int val) {
-    int fldpos = offset(slot) + layout.offset(fldname);
-    tx.setInt(blk, fldpos, val, true);
+    setInt(slot, ordinal(fldname), val);
+  }
+
+  public void setInt(int slot, int ordinal, int val) {
+    if (slotted != null) {
+      slotted.setInt(slot, layout.fieldName(ordinal), val);
+      return;
+    }
+    int fldpos = fieldOffset(slot, ordinal);
+    page.setRecordInt(slot, fldpos, val, true);
   }
 
   public void setString(int slot, String fldname, String val) {
-    int fldpos = offset(slot) + layout.offset(fldname);
-    tx.setString(blk, fldpos, val, true);
+    setString(slot, ordinal(fldname), val);
+  }
+
+  public void setString(int slot, int ordinal, String val) {
+    if (slotted != null) {
+      slotted.setString(slot, layout.fieldName(ordinal), val);
+      return;
+    }
+    int fldpos = fieldOffset(slot, ordinal);
+    page.setRecordString(slot, fldpos, val, true);
   }
 
   public void delete(int slot) {
@@ -50,18 +131,30 @@ public class RecordPage {
   /*
    * Format all slots in the block with zero-value.
    * These values are not logged as the old values are meaningless.
+   * In the BITMAP and PAX formats only the header is cleared, as the fields
+   * of an empty slot are never read.
    */
   public void format() {
+    if (slotted != null) {
+      slotted.format();
+      return;
+    }
+    if (bitmap) {
+      page.setInt(0, 0, false);
+      for (int w = 0; w < words(); w++)
+        page.setInt(wordOffset(w), 0, false);
+      return;
+    }
     int slot = 0;
     while (isValidSlot(slot)) {
-      tx.setInt(blk, offset(slot), EMPTY, false);
+      page.setInt(offset(slot), EMPTY, false);
       Schema schema = layout.schema();
       for (String fldname : schema.fields()) {
         int fldpos = offset(slot) + layout.offset(fldname);
         if (schema.type(fldname) == INTEGER)
-          tx.setInt(blk, fldpos, 0, false);
+          page.setInt(fldpos, 0, false);
         else
-          tx.setString(blk, fldpos, "", false);
+          page.setString(fldpos, "", false);
       }
       slot++;
     }
@@ -83,44 +176,233 @@ public class RecordPage {
    * so renamed to useNextEmptySlot
    */
   public int useNextEmptySlot(int slot) { // insertAfter in the original SimpleDB
-    int newslot = searchAfter(slot, EMPTY);
-    if (newslot >= 0)
-      setFlag(newslot, USED);
-    return newslot;
+    if (slotted != null)
+      return slotted.useNextEmptySlot(slot);
+    if (bitmap) {
+      // lock only the slot that looks empty, and check it again with the lock
+      if (page.peekInt(0) == slots())
+        return -1;
+      slot = searchBitmap(slot, false);
+      while (slot >= 0) {
+        page.lockRecordExclusive(slot);
+        if (!isUsed(slot)) {
+          setFlag(slot, USED);
+          return slot;
+        }
+        slot = searchBitmap(slot, false);
+      }
+      return -1;
+    }
+    slot++;
+    while (isValidSlot(slot)) {
+      // lock only the slot that looks empty, and check it again with the lock
+      if (page.peekInt(offset(slot)) == EMPTY) {
+        page.lockRecordExclusive(slot);
+        if (page.getRecordInt(slot, offset(slot)) == EMPTY) {
+          setFlag(slot, USED);
+          return slot;
+        }
+      }
+      slot++;
+    }
+    return -1;
   }
 
   /*
-   * Search for the first slot of the given flag after the given slot
+   * Copy the record of the slot into the first empty slot of the destination page
+   * after the given slot, and return that slot, or -1 if there's no room for it.
+   * A record of the SLOTTED format is copied as a whole, so that it isn't
+   * moved on to another block when its strings don't fit.
+   */
+  public int copyTo(int slot, RecordPage dest, int destslot) {
+    if (slotted != null)
+      return dest.slotted.useNextEmptySlot(destslot, slotted.recordBytes(slot));
+    destslot = dest.useNextEmptySlot(destslot);
+    if (destslot < 0)
+      return -1;
+    for (int ordinal = 0; ordinal < layout.schema().fields().size(); ordinal++) {
+      if (layout.type(ordinal) == INTEGER)
+        dest.setInt(destslot, ordinal, getInt(slot, ordinal));
+      else
+        dest.setString(destslot, ordinal, getString(slot, ordinal));
+    }
+    return destslot;
+  }
+
+  /*
+   * Search for the first slot of the given flag after the given slot.
+   * In the FLAG format a slot is locked and its flag is read with the lock.
+   * Looking for an empty slot, the flags are read under the latch without
+   * locking first, and only the slot that looks empty is locked and checked.
+   * Looking for a used slot, the empty slots are locked too, as a slot
+   * emptied by a delete that is not committed is used again at its rollback.
+   * In the BITMAP and PAX formats the bits are read from the bitmap
+   * when the block can be locked in S without waiting, that is,
+   * when no other transaction is writing its records.
+   * Otherwise the slots are locked and read one by one as in the FLAG format.
    */
   public int searchAfter(int slot, int flag) {
+    if (slotted != null)
+      return (flag == USED) ? slotted.nextUsedSlot(slot) : slotted.nextEmptySlot(slot);
+    if (bitmap) {
+      if (flag == EMPTY || page.tryLockShared()) {
+        if (flag == USED && page.peekInt(0) == 0)
+          return -1;
+        return searchBitmap(slot, flag == USED);
+      }
+      for (slot++; slot < slots(); slot++)
+        if (isUsed(slot))
+          return slot;
+      return -1;
+    }
     slot++;
     while (isValidSlot(slot)) {
-      if (tx.getInt(blk, offset(slot)) == flag)
-        return slot;
+      if (flag == USED || page.peekInt(offset(slot)) == flag) {
+        if (page.getRecordInt(slot, offset(slot)) == flag)
+          return slot;
+      }
       slot++;
     }
     return -1;
   }
 
+  /*
+   * Return true if the block has no record.
+   * A block of the SLOTTED format with a record moved here
+   * from another block is not empty.
+   */
+  public boolean isEmpty() {
+    if (slotted != null)
+      return slotted.isEmpty();
+    return nextUsedSlot(-1) < 0;
+  }
+
   public BlockId block() {
     return blk;
   }
 
   /*
-   * Set the given flag to the given slot
+   * Unpin the block, and the other blocks pinned for its records.
+   */
+  public void close() {
+    if (slotted != null)
+      slotted.close();
+    if (!building)
+      tx.unpin(blk);
+  }
+
+  /*
+   * Set the given flag to the given slot.
+   * In the BITMAP and PAX formats the bit of the slot is flipped and the count
+   * is updated under the latch of the page, with only the slot locked.
    */
   public void setFlag(int slot, int flag) {
-    tx.setInt(blk, offset(slot), flag, true);
+    if (slotted != null) {
+      slotted.setFlag(slot, flag);
+      return;
+    }
+    if (!bitmap) {
+      page.setRecordInt(slot, offset(slot), flag, true);
+      return;
+    }
+    page.lockRecordExclusive(slot);
+    if (isUsed(slot) == (flag == USED))
+      return;
+    page.xorInt(wordOffset(slot / BITS), bit(slot), true);
+    page.addInt(0, (flag == USED) ? 1 : -1, true);
+  }
+
+  /*
+   * Return true if the bit of the slot is set, locking the slot in S
+   * unless it's locked already.
+   */
+  private boolean isUsed(int slot) {
+    return (page.getRecordInt(slot, wordOffset(slot / BITS)) & bit(slot)) != 0;
+  }
+
+  /*
+   * Return the first slot after the given slot whose bit is the given one,
+   * looking at a bitmap word at a time. The words are read without locking,
+   * so the caller locks the block or the slot it returns.
+   */
+  private int searchBitmap(int slot, boolean used) {
+    slot++;
+    while (slot < slots()) {
+      int w = slot / BITS;
+      int word = page.peekInt(wordOffset(w));
+      if (!used)
+        word = ~word;
+      word &= -1 << (slot % BITS); // ignore the slots up to the given one
+      if (word != 0) {
+        int found = w * BITS + Integer.numberOfTrailingZeros(word);
+        return found < slots() ? found : -1;
+      }
+      slot = (w + 1) * BITS;
+    }
+    return -1;
+  }
+
+  private int ordinal(String fldname) {
+    int ordinal = layout.ordinal(fldname);
+    if (ordinal < 0)
+      throw new RuntimeException("field " + fldname + " not found.");
+    return ordinal;
   }
 
   /*
    * Check if the slot fits in the block of the transaction.
    */
   private boolean isValidSlot(int slot) {
+    if (bitmap)
+      return slot < slots();
     return offset(slot + 1) <= tx.blockSize();
   }
 
+  /*
+   * Return the position of the field of the slot.
+   * In the PAX format the offset of the field in the layout tells
+   * where the values of the field start relative to the other fields,
+   * and each field has room for the values of all the slots.
+   */
+  private int fieldOffset(int slot, int ordinal) {
+    if (pax)
+      return headerSize(slots()) + slots() * layout.offset(ordinal) + slot * layout.lengthInBytes(ordinal);
+    return offset(slot) + layout.offset(ordinal);
+  }
+
   private int offset(int slot) {
+    if (bitmap)
+      return headerSize(slots()) + slot * layout.slotSize();
     return slot * layout.slotSize();
   }
+
+  /*
+   * Return the number of the slots of the BITMAP and PAX formats:
+   * the most slots that fit in the block with their header.
+   */
+  private int slots() {
+    if (nslots < 0) {
+      int n = (tx.blockSize() - Integer.BYTES) / layout.slotSize();
+      while (n > 0 && headerSize(n) + n * layout.slotSize() > tx.blockSize())
+        n--;
+      nslots = n;
+    }
+    return nslots;
+  }
+
+  private int words() {
+    return (slots() + BITS - 1) / BITS;
+  }
+
+  private static int bit(int slot) {
+    return 1 << (slot % BITS);
+  }
+
+  private int wordOffset(int w) {
+    return Integer.BYTES + w * Integer.BYTES;
+  }
+
+  private static int headerSize(int slots) {
+    return Integer.BYTES + (slots + BITS - 1) / BITS * Integer.BYTES;
+  }
 }
@@ -0,0 +1,449 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+
+import simpledb.file.BlockId;
+import simpledb.file.FreeSpaceMap;
+import simpledb.file.Page;
+import simpledb.tx.PageHandle;
+import simpledb.tx.Transaction;
+
+/*
+ * Slotted Page stores the variable-length records of a block
+ * in the SLOTTED format:
+ * |<number of slots><free end><slot directory>.....<records>|
+ * A directory entry has the offset and the length of the record of the slot.
+ * The records are written from the end of the block towards the directory,
+ * and a record takes only the actual length of its strings:
+ * |<int values and string positions><strings>|
+ * where the position of a string is relative to the record.
+ *
+ * A record whose size changes is written again, and the space it leaves
+ * is reclaimed by compacting the block when the free space runs out.
+ * The directory entry doesn't move, so the RID of the record stays the same.
+ * A record that doesn't fit in its block any more is moved to another block,
+ * and its entry forwards to the moved record, which the scans skip.
+ *
+ * The block is locked as a whole, because compacting the block
+ * moves the records of the other transactions.
+ */
+class SlottedPage {
+  private static final int SLOTS = 0;
+  private static final int FREE_END = Integer.BYTES;
+  private static final int DIRECTORY = 2 * Integer.BYTES;
+  private static final int ENTRY_SIZE = 2 * Integer.BYTES;
+  // a directory entry is one of
+  // empty: offset 0
+  // used: offset > 0 and length >= 0
+  // moved here from another block: offset > 0 and length = ~length
+  // forwarded to another block: offset = ~block number and length = slot
+  private Transaction tx;
+  private BlockId blk;
+  private Layout layout;
+  private PageHandle page;
+  private boolean pinned; // the block is pinned by this page, not by its record page
+  private SlottedPage fwd; // the block of the last forwarded record
+  private int fwdslot;
+
+  SlottedPage(Transaction tx, BlockId blk, Layout layout, PageHandle page) {
+    this.tx = tx;
+    this.blk = blk;
+    this.layout = layout;
+    this.page = page;
+  }
+
+  private static SlottedPage pin(Transaction tx, BlockId blk, Layout layout) {
+    tx.pin(blk);
+    SlottedPage sp = new SlottedPage(tx, blk, layout, new PageHandle(tx, blk));
+    sp.pinned = true;
+    return sp;
+  }
+
+  int getInt(int slot, String fldname) {
+    if (isForwarded(slot))
+      return forward(slot).getInt(fwdslot, fldname);
+    return page.getInt(recordOffset(slot) + layout.offset(fldname));
+  }
+
+  String getString(int slot, String fldname) {
+    if (isForwarded(slot))
+      return forward(slot).getString(fwdslot, fldname);
+    int pos = recordOffset(slot);
+    return page.getString(pos + page.getInt(pos + layout.offset(fldname)));
+  }
+
+  void setInt(int slot, String fldname, int val) {
+    if (isForwarded(slot)) {
+      forward(slot).setInt(fwdslot, fldname, val);
+      return;
+    }
+    page.setInt(recordOffset(slot) + layout.offset(fldname), val, true);
+  }
+
+  /*
+   * Write the string in place if its length doesn't change,
+   * otherwise write the record again with the new string.
+   */
+  void setString(int slot, String fldname, String val) {
+    page.lockExclusive();
+    SlottedPage sp = isForwarded(slot) ? forward(slot) : this;
+    int spslot = (sp == this) ? slot : fwdslot;
+    sp.page.lockExclusive();
+    int pos = sp.recordOffset(spslot);
+    int strpos = pos + sp.page.getInt(pos + layout.offset(fldname));
+    if (sp.page.getInt(strpos) == val.getBytes(Page.CHARSET).length) {
+      sp.page.setString(strpos, val, true);
+      return;
+    }
+    byte[] rec = sp.encode(spslot, fldname, val);
+    if (rec.length > maxRecordSize())
+      throw new RuntimeException("cannot store a record of " + rec.length + " bytes in " + blk);
+    if (!sp.write(spslot, rec))
+      relocate(slot, rec, sp, spslot);
+  }
+
+  /*
+   * Format the block with no slots.
+   * These values are not logged as the old values are meaningless.
+   */
+  void format() {
+    page.setInt(SLOTS, 0, false);
+    page.setInt(FREE_END, tx.blockSize(), false);
+  }
+
+  /*
+   * Return the first slot after the given slot that has a record,
+   * skipping the records moved here from another block.
+   */
+  int nextUsedSlot(int slot) {
+    int n = page.getInt(SLOTS);
+    for (slot++; slot < n; slot++) {
+      int offset = page.getInt(entry(slot));
+      if (offset < 0 || (offset > 0 && page.getInt(entry(slot) + Integer.BYTES) >= 0))
+        return slot;
+    }
+    return -1;
+  }
+
+  /*
+   * Return true if no slot has a record, counting the records
+   * moved here from another block.
+   */
+  boolean isEmpty() {
+    int n = page.getInt(SLOTS);
+    for (int slot = 0; slot < n; slot++)
+      if (page.getInt(entry(slot)) != 0)
+        return false;
+    return true;
+  }
+
+  int nextEmptySlot(int slot) {
+    int n = page.getInt(SLOTS);
+    for (slot++; slot < n; slot++)
+      if (page.getInt(entry(slot)) == 0)
+        return slot;
+    return -1;
+  }
+
+  /*
+   * Write an empty record into the first empty slot after the given slot,
+   * or into a new slot. Return -1 if the block has no room for it.
+   */
+  int useNextEmptySlot(int slot) {
+    return useNextEmptySlot(slot, emptyRecord());
+  }
+
+  /*
+   * Write the record into the first empty slot after the given slot,
+   * or into a new slot. Return -1 if the block has no room for it.
+   */
+  int useNextEmptySlot(int slot, byte[] rec) {
+    page.lockExclusive();
+    slot = nextEmptySlot(slot);
+    if (slot < 0) {
+      if (!reserve(rec.length + ENTRY_SIZE, -1))
+        return -1;
+      slot = page.getInt(SLOTS);
+      page.setInt(SLOTS, slot + 1, true);
+    } else if (!reserve(rec.length, -1)) {
+      return -1;
+    }
+    store(slot, rec, false);
+    return slot;
+  }
+
+  /*
+   * Return the record of the slot, from the block it's forwarded to if it moved.
+   * The string positions are relative to the record, so it can be
+   * stored as it is in another slot.
+   */
+  byte[] recordBytes(int slot) {
+    if (isForwarded(slot))
+      return forward(slot).recordBytes(fwdslot);
+    return page.getRawBytes(recordOffset(slot), recordLength(slot));
+  }
+
+  /*
+   * Mark the slot of a record in use by writing an empty record to it,
+   * or delete the record.
+   */
+  void setFlag(int slot, int flag) {
+    page.lockExclusive();
+    if (flag == RecordPage.EMPTY) {
+      delete(slot);
+    } else if (page.getInt(entry(slot)) == 0) {
+      byte[] rec = emptyRecord();
+      if (!reserve(rec.length, -1))
+        throw new RuntimeException("cannot store a record in " + blk);
+      store(slot, rec, false);
+    }
+  }
+
+  /*
+   * Empty the slot. The space of the record is reclaimed
+   * when the block is compacted.
+   */
+  void delete(int slot) {
+    page.lockExclusive();
+    if (isForwarded(slot))
+      forward(slot).delete(fwdslot);
+    page.setInt(entry(slot), 0, true);
+    page.setInt(entry(slot) + Integer.BYTES, 0, true);
+  }
+
+  void close() {
+    if (fwd != null) {
+      fwd.close();
+      fwd = null;
+    }
+    if (pinned)
+      tx.unpin(blk);
+  }
+
+  /*
+   * Write the record of the slot again. It's written in place if it's
+   * not longer, or in the free space, compacting the block if needed.
+   * Return false if it doesn't fit in the block.
+   */
+  private boolean write(int slot, byte[] rec) {
+    int e = entry(slot);
+    int length = page.getInt(e + Integer.BYTES);
+    boolean moved = length < 0;
+    if (rec.length <= (moved ? ~length : length)) {
+      page.setRawBytes(page.getInt(e), rec, true);
+      page.setInt(e + Integer.BYTES, moved ? ~rec.length : rec.length, true);
+      return true;
+    }
+    if (!reserve(rec.length, slot))
+      return false;
+    store(slot, rec, moved);
+    return true;
+  }
+
+  /*
+   * Move the record of the slot to another block and forward the slot to it.
+   * The record is stored in the block at the given slot now, which is
+   * this block or the block it was moved to before.
+   * It goes to the first block not known to be full other than those two,
+   * and to a new block only if it doesn't fit there.
+   */
+  private void relocate(int slot, byte[] rec, SlottedPage sp, int spslot) {
+    if (sp != this)
+      sp.delete(spslot);
+    String filename = blk.fileName();
+    FreeSpaceMap fsm = tx.freeSpaceMap(filename);
+    int size = tx.size(filename);
+    int blknum = fsm.firstFree(size);
+    while (blknum == blk.number() || blknum == sp.blk.number())
+      blknum = fsm.nextFree(blknum + 1, size);
+    SlottedPage target = null;
+    int tslot = -1;
+    if (blknum >= 0) {
+      target = pin(tx, new BlockId(filename, blknum), layout);
+      tslot = target.storeMoved(rec);
+    }
+    if (tslot < 0) {
+      if (target != null)
+        target.close();
+      target = pin(tx, tx.append(filename), layout);
+      target.format();
+      tslot = target.storeMoved(rec);
+    }
+    System.out.println("[SlottedPage] moved record " + blk + " slot " + slot + " to " + target.blk + " slot " + tslot);
+    page.setInt(entry(slot), ~target.blk.number(), true);
+    page.setInt(entry(slot) + Integer.BYTES, tslot, true);
+    if (fwd != null && fwd != sp)
+      fwd.close();
+    fwd = target;
+    fwdslot = tslot;
+    if (sp != this && sp != fwd)
+      sp.close();
+  }
+
+  /*
+   * Store the record moved from another block.
+   * Return its slot, or -1 if the block has no room for it.
+   */
+  private int storeMoved(byte[] rec) {
+    page.lockExclusive();
+    int slot = nextEmptySlot(-1);
+    if (slot < 0) {
+      if (!reserve(rec.length + ENTRY_SIZE, -1))
+        return -1;
+      slot = page.getInt(SLOTS);
+      page.setInt(SLOTS, slot + 1, true);
+    } else if (!reserve(rec.length, -1)) {
+      return -1;
+    }
+    store(slot, rec, true);
+    return slot;
+  }
+
+  /*
+   * Write the record at the end of the free space.
+   * The caller has reserved the space.
+   */
+  private void store(int slot, byte[] rec, boolean moved) {
+    int pos = page.getInt(FREE_END) - rec.length;
+    page.setRawBytes(pos, rec, true);
+    page.setInt(FREE_END, pos, true);
+    page.setInt(entry(slot), pos, true);
+    page.setInt(entry(slot) + Integer.BYTES, moved ? ~rec.length : rec.length, true);
+  }
+
+  /*
+   * Make the free space at least the given size, compacting the block
+   * if it's fragmented. The record of the skipped slot is left out
+   * of the compaction, as it's going to be written again.
+   * Return false if the block can't have that much free space.
+   */
+  private boolean reserve(int size, int skip) {
+    int n = page.getInt(SLOTS);
+    int dirEnd = entry(n);
+    if (page.getInt(FREE_END) - dirEnd >= size)
+      return true;
+    int live = 0;
+    for (int slot = 0; slot < n; slot++)
+      if (slot != skip && page.getInt(entry(slot)) > 0)
+        live += recordLength(slot);
+    if (tx.blockSize() - dirEnd - live < size)
+      return false;
+    compact(skip);
+    return true;
+  }
+
+  /*
+   * Move the records to the end of the block next to each other,
+   * so that the free space is in one piece.
+   */
+  private void compact(int skip) {
+    int n = page.getInt(SLOTS);
+    byte[][] recs = new byte[n][];
+    int total = 0;
+    for (int slot = 0; slot < n; slot++)
+      if (slot != skip && page.getInt(entry(slot)) > 0) {
+        recs[slot] = page.getRawBytes(page.getInt(entry(slot)), recordLength(slot));
+        total += recs[slot].length;
+      }
+    int freeEnd = tx.blockSize() - total;
+    byte[] area = new byte[total];
+    int pos = 0;
+    for (int slot = 0; slot < n; slot++)
+      if (recs[slot] != null) {
+        System.arraycopy(recs[slot], 0, area, pos, recs[slot].length);
+        page.setInt(entry(slot), freeEnd + pos, true);
+        pos += recs[slot].length;
+      }
+    page.setRawBytes(freeEnd, area, true);
+    page.setInt(FREE_END, freeEnd, true);
+    System.out.println("[SlottedPage] compacted " + blk + ", free space " + (freeEnd - entry(n)) + " bytes");
+  }
+
+  /*
+   * Return the record of the slot with the string of the field replaced.
+   */
+  private byte[] encode(int slot, String fldname, String val) {
+    Page old = new Page(page.getRawBytes(recordOffset(slot), recordLength(slot)));
+    Schema sch = layout.schema();
+    int size = layout.slotSize();
+    for (String f : sch.fields())
+      if (sch.type(f) != INTEGER)
+        size += stringSize(f.equals(fldname) ? val : old.getString(old.getInt(layout.offset(f))));
+    Page rec = new Page(new byte[size]);
+    int pos = layout.slotSize();
+    for (String f : sch.fields()) {
+      int fldpos = layout.offset(f);
+      if (sch.type(f) == INTEGER) {
+        rec.setInt(fldpos, old.getInt(fldpos));
+      } else {
+        String s = f.equals(fldname) ? val : old.getString(old.getInt(fldpos));
+        rec.setInt(fldpos, pos);
+        rec.setString(pos, s);
+        pos += stringSize(s);
+      }
+    }
+    return rec.getRawBytes(0, size);
+  }
+
+  /*
+   * Return a record with zero and empty strings.
+   */
+  private byte[] emptyRecord() {
+    Schema sch = layout.schema();
+    int size = layout.slotSize();
+    for (String f : sch.fields())
+      if (sch.type(f) != INTEGER)
+        size += Integer.BYTES;
+    Page rec = new Page(new byte[size]);
+    int pos = layout.slotSize();
+    for (String f : sch.fields())
+      if (sch.type(f) != INTEGER) {
+        rec.setInt(layout.offset(f), pos);
+        pos += Integer.BYTES;
+      }
+    return rec.getRawBytes(0, size);
+  }
+
+  private static int stringSize(String s) {
+    return Integer.BYTES + s.getBytes(Page.CHARSET).length;
+  }
+
+  private boolean isForwarded(int slot) {
+    return page.getInt(entry(slot)) < 0;
+  }
+
+  /*
+   * Return the page of the block the record of the slot is forwarded to,
+   * and set fwdslot to its slot in the block.
+   */
+  private SlottedPage forward(int slot) {
+    int blknum = ~page.getInt(entry(slot));
+    fwdslot = page.getInt(entry(slot) + Integer.BYTES);
+    if (fwd == null || fwd.blk.number() != blknum) {
+      if (fwd != null)
+        fwd.close();
+      fwd = pin(tx, new BlockId(blk.fileName(), blknum), layout);
+    }
+    return fwd;
+  }
+
+  private int recordOffset(int slot) {
+    return page.getInt(entry(slot));
+  }
+
+  private int recordLength(int slot) {
+    int length = page.getInt(entry(slot) + Integer.BYTES);
+    return length < 0 ? ~length : length;
+  }
+
+  /*
+   * The largest record that fits in an empty block with one slot.
+   */
+  private int maxRecordSize() {
+    return tx.blockSize() - DIRECTORY - ENTRY_SIZE;
+  }
+
+  private static int entry(int slot) {
+    return DIRECTORY + slot * ENTRY_SIZE;
+  }
+}
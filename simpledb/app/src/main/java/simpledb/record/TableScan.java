@@ -3,6 +3,7 @@ package simpledb.record;
 import static java.sql.Types.INTEGER;
 
 import simpledb.file.BlockId;
+import simpledb.file.FreeSpaceMap;
 import simpledb.query.Constant;
 import simpledb.query.UpdateScan;
 import simpledb.tx.Transaction;
@@ -58,10 +59,10 @@ public class TableScan implements UpdateScan {
 
   @Override
   public Constant getVal(String fldname) {
-    if (layout.schema().type(fldname) == INTEGER)
-      return new Constant(getInt(fldname));
-    else
-      return new Constant(getString(fldname));
+    int ordinal = layout.ordinal(fldname);
+    if (ordinal < 0)
+      throw new RuntimeException("field " + fldname + " not found.");
+    return getVal(ordinal);
   }
 
   @Override
@@ -69,10 +70,33 @@ public class TableScan implements UpdateScan {
     return layout.schema().hasField(fldname);
   }
 
+  @Override
+  public int ordinal(String fldname) {
+    return layout.ordinal(fldname);
+  }
+
+  @Override
+  public int getInt(int ordinal) {
+    return rp.getInt(currentslot, ordinal);
+  }
+
+  @Override
+  public String getString(int ordinal) {
+    return rp.getString(currentslot, ordinal);
+  }
+
+  @Override
+  public Constant getVal(int ordinal) {
+    if (layout.type(ordinal) == INTEGER)
+      return new Constant(getInt(ordinal));
+    else
+      return new Constant(getString(ordinal));
+  }
+
   @Override
   public void close() {
     if (rp != null)
-      tx.unpin(rp.block());
+      rp.close();
   }
 
   @Override
@@ -93,21 +117,53 @@ public class TableScan implements UpdateScan {
     rp.setString(currentslot, fldname, val);
   }
 
+  /*
+   * Set the field of the given ordinal in the layout,
+   * as the getters by ordinal do.
+   */
+  public void setInt(int ordinal, int val) {
+    rp.setInt(currentslot, ordinal, val);
+  }
+
+  public void setString(int ordinal, String val) {
+    rp.setString(currentslot, ordinal, val);
+  }
+
+  public void setVal(int ordinal, Constant val) {
+    if (layout.type(ordinal) == INTEGER)
+      setInt(ordinal, val.asInt());
+    else
+      setString(ordinal, val.asString());
+  }
+
+  /*
+   * Insert a record after the current slot, or in a block
+   * the free space map has as not full.
+   * A block searched from its first slot without finding room is
+   * marked as full, so the following inserts don't try it again.
+   */
   @Override
   public void insert() {
-    currentslot = rp.useNextEmptySlot(currentslot);
+    FreeSpaceMap fsm = tx.freeSpaceMap(filename);
+    int start = currentslot;
+    currentslot = rp.useNextEmptySlot(start);
     while (currentslot < 0) {
-      if (atLastBlock())
+      if (start < 0)
+        fsm.markFull(rp.block().number());
+      int blknum = fsm.firstFree(tx.size(filename));
+      if (blknum < 0)
         moveToNewBlock();
       else
-        moveToBlock(rp.block().number() + 1);
-      currentslot = rp.useNextEmptySlot(currentslot);
+        moveToBlock(blknum);
+      start = currentslot;
+      currentslot = rp.useNextEmptySlot(start);
     }
   }
 
   @Override
   public void delete() {
     rp.delete(currentslot);
+    tx.freeSpaceMap(filename).markFree(rp.block().number());
   }
 
   @Override
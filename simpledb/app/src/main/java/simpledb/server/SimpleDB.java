@@ -11,16 +11,24 @@ import simpledb.plan.BasicQueryPlanner;
 import simpledb.plan.Planner;
 import simpledb.plan.QueryPlanner;
 import simpledb.plan.UpdatePlanner;
+import simpledb.plan.Vacuum;
 import simpledb.tx.Transaction;
+import simpledb.tx.TxNumAllocator;
+import simpledb.tx.concurrency.VersionStore;
+import simpledb.tx.recovery.RecoveryMgr;
 
 public class SimpleDB {
   public static int BLOCK_SIZE = 400;
   public static int BUFFER_SIZE = 8;
   public static String LOG_FILE = "simpledb.log";
+  public static long CHECKPOINT_INTERVAL = 60000; // milliseconds
+  public static long LOG_FLUSH_INTERVAL = 10; // milliseconds, the data loss window of async commits
 
   private FileMgr fm;
   private BufferMgr bm;
   private LogMgr lm;
+  private VersionStore versionStore;
+  private TxNumAllocator txNumAllocator;
   private MetadataMgr mdm;
   private Planner planner;
 
@@ -32,6 +40,8 @@ public class SimpleDB {
     fm = new FileMgr(dbDirectory, blocksize);
     lm = new LogMgr(fm, LOG_FILE);
     bm = new BufferMgr(fm, lm, buffsize);
+    versionStore = new VersionStore();
+    txNumAllocator = new TxNumAllocator(fm);
   }
 
   /*
@@ -50,12 +60,36 @@ public class SimpleDB {
     mdm = new MetadataMgr(isnew, tx);
     QueryPlanner qp = new BasicQueryPlanner(mdm);
     UpdatePlanner up = new IndexUpdatePlanner(mdm);
-    planner = new Planner(qp, up);
+    planner = new Planner(qp, up, new Vacuum(mdm, this::newTx));
     tx.commit();
+    startCheckpointer();
+    lm.startFlusher(LOG_FLUSH_INTERVAL);
   }
 
   public Transaction newTx() {
-    return new Transaction(fm, lm, bm);
+    return new Transaction(fm, lm, bm, versionStore, txNumAllocator, false);
+  }
+
+  /*
+   * A read-only transaction reads a snapshot without locks or log records.
+   */
+  public Transaction newReadOnlyTx() {
+    return new Transaction(fm, lm, bm, versionStore, txNumAllocator, true);
+  }
+
+  /*
+   * Write a fuzzy checkpoint without stopping the running transactions.
+   */
+  public void checkpoint() {
+    RecoveryMgr.checkpoint(lm, bm);
+  }
+
+  /*
+   * Wait until the log is written to disk up to the LSN,
+   * such as the commitLSN of an async commit.
+   */
+  public void waitForDurable(long lsn) {
+    lm.waitForDurable(lsn);
   }
 
   public MetadataMgr mdMgr() {
@@ -66,6 +100,26 @@ public class SimpleDB {
     return planner;
   }
 
+  /*
+   * Start a daemon thread that writes a checkpoint periodically
+   * so that the recovery reads a bounded part of the log
+   * and the old log segments can be removed.
+   */
+  private void startCheckpointer() {
+    Thread t = new Thread(() -> {
+      while (true) {
+        try {
+          Thread.sleep(CHECKPOINT_INTERVAL);
+        } catch (InterruptedException e) {
+          return;
+        }
+        checkpoint();
+      }
+    }, "checkpointer");
+    t.setDaemon(true);
+    t.start();
+  }
+
   // These methods are for debugging
   public FileMgr fileMgr() {
     return fm;
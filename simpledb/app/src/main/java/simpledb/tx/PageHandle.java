@@ -0,0 +1,244 @@
+package simpledb.tx;
+
+import simpledb.buffer.Buffer;
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.file.PageUpdate;
+
+/*
+ * Page Handle gives a record page or a B-tree page direct access
+ * to the buffer of its pinned block.
+ * The block is locked at the first read and the first write,
+ * and the following accesses go straight to the page without
+ * looking up the lock and the buffer of the block.
+ * The record accessors lock the record at the slot instead of the block,
+ * so that the other records of the block stay available.
+ * Each access still holds the latch of the page while it runs.
+ * The integers shared by the records of the page, such as a bitmap,
+ * are updated from their current value without a lock on the block.
+ *
+ * The accesses of a read-only or an optimistic transaction go through
+ * the transaction, which reads the snapshot and keeps the private writes.
+ *
+ * A handle can also be made over a page that is not in a buffer,
+ * such as a page the bulk loader builds in memory; its accesses
+ * go straight to the page and are neither locked nor logged.
+ */
+public class PageHandle {
+  private static final int NO_SLOT = Integer.MIN_VALUE;
+  private Transaction tx;
+  private BlockId blk;
+  private Buffer buff; // null if the accesses go through the transaction or the image
+  private Page image; // the page in memory, or null
+  private boolean shared = false;
+  private boolean exclusive = false;
+  private int sharedSlot = NO_SLOT; // the last record locked by this handle
+  private int exclusiveSlot = NO_SLOT;
+
+  /*
+   * The block has to be pinned by the transaction.
+   */
+  public PageHandle(Transaction tx, BlockId blk) {
+    this.tx = tx;
+    this.blk = blk;
+    buff = tx.pinnedBuffer(blk);
+  }
+
+  public PageHandle(BlockId blk, Page image) {
+    this.blk = blk;
+    this.image = image;
+  }
+
+  public int getInt(int offset) {
+    if (buff == null)
+      return (image != null) ? image.getInt(offset) : tx.getInt(blk, offset);
+    lockShared();
+    return buff.latch().getInt(buff.contents(), offset);
+  }
+
+  public String getString(int offset) {
+    if (buff == null)
+      return (image != null) ? image.getString(offset) : tx.getString(blk, offset);
+    lockShared();
+    return buff.latch().getString(buff.contents(), offset);
+  }
+
+  public byte[] getRawBytes(int offset, int length) {
+    if (buff == null)
+      return (image != null) ? image.getRawBytes(offset, length) : tx.getRawBytes(blk, offset, length);
+    lockShared();
+    return buff.latch().getRawBytes(buff.contents(), offset, length);
+  }
+
+  /*
+   * Read the integer without locking. See Transaction.peekInt.
+   * A transaction without a buffer for the block takes no locks,
+   * so the integer is read as getInt does.
+   */
+  public int peekInt(int offset) {
+    if (buff == null)
+      return (image != null) ? image.getInt(offset) : tx.getInt(blk, offset);
+    return buff.latch().getInt(buff.contents(), offset);
+  }
+
+  /*
+   * Read the integer of the record at the slot, locking the record in S.
+   */
+  public int getRecordInt(int slot, int offset) {
+    if (buff == null)
+      return getInt(offset);
+    lockRecordShared(slot);
+    return buff.latch().getInt(buff.contents(), offset);
+  }
+
+  public String getRecordString(int slot, int offset) {
+    if (buff == null)
+      return getString(offset);
+    lockRecordShared(slot);
+    return buff.latch().getString(buff.contents(), offset);
+  }
+
+  public void setInt(int offset, int val, boolean okToLog) {
+    if (buff == null) {
+      if (image != null)
+        image.setInt(offset, val);
+      else
+        tx.setInt(blk, offset, val, okToLog);
+      return;
+    }
+    lockExclusive();
+    tx.writeInt(buff, offset, val, okToLog);
+  }
+
+  public void setString(int offset, String val, boolean okToLog) {
+    if (buff == null) {
+      if (image != null)
+        image.setString(offset, val);
+      else
+        tx.setString(blk, offset, val, okToLog);
+      return;
+    }
+    lockExclusive();
+    tx.writeString(buff, offset, val, okToLog);
+  }
+
+  public void setRawBytes(int offset, byte[] val, boolean okToLog) {
+    if (buff == null) {
+      if (image != null)
+        image.setRawBytes(offset, val);
+      else
+        tx.setRawBytes(blk, offset, val, okToLog);
+      return;
+    }
+    lockExclusive();
+    tx.writeRawBytes(buff, offset, val, okToLog);
+  }
+
+  /*
+   * Write the integer of the record at the slot, locking the record in X.
+   */
+  public void setRecordInt(int slot, int offset, int val, boolean okToLog) {
+    if (buff == null) {
+      setInt(offset, val, okToLog);
+      return;
+    }
+    lockRecordExclusive(slot);
+    tx.writeInt(buff, offset, val, okToLog);
+  }
+
+  public void setRecordString(int slot, int offset, String val, boolean okToLog) {
+    if (buff == null) {
+      setString(offset, val, okToLog);
+      return;
+    }
+    lockRecordExclusive(slot);
+    tx.writeString(buff, offset, val, okToLog);
+  }
+
+  /*
+   * Flip the bits of the integer that are set in the mask.
+   * The block isn't locked: the caller locks the records of the bits,
+   * and the other bits are left as they are, also by the undo.
+   * See Transaction.updateInt.
+   */
+  public void xorInt(int offset, int mask, boolean okToLog) {
+    if (buff == null) {
+      setInt(offset, getInt(offset) ^ mask, okToLog);
+      return;
+    }
+    tx.updateInt(buff, offset, mask, PageUpdate.XOR, okToLog);
+  }
+
+  /*
+   * Add the number to the integer, such as a count of the records.
+   * The block isn't locked, as in xorInt.
+   */
+  public void addInt(int offset, int n, boolean okToLog) {
+    if (buff == null) {
+      setInt(offset, getInt(offset) + n, okToLog);
+      return;
+    }
+    tx.updateInt(buff, offset, n, PageUpdate.ADD, okToLog);
+  }
+
+  public BlockId block() {
+    return blk;
+  }
+
+  /*
+   * Lock the block exclusively before reading what is going to be written,
+   * instead of upgrading the shared lock at the first write.
+   * The locks are held until the transaction ends,
+   * so the block is locked only once.
+   */
+  public void lockExclusive() {
+    if (buff == null)
+      return; // the transaction takes no block locks or locks at the write, or the page is an image
+    if (!exclusive) {
+      tx.lockExclusive(blk);
+      exclusive = true;
+    }
+  }
+
+  /*
+   * Lock the record exclusively before reading what is going to be written.
+   * The record locked last is not locked again, as the fields
+   * of a record are usually accessed one after another.
+   */
+  public void lockRecordExclusive(int slot) {
+    if (image != null)
+      return;
+    if (slot != exclusiveSlot) {
+      tx.xLockRecord(blk, slot);
+      exclusiveSlot = slot;
+    }
+  }
+
+  /*
+   * Lock the block in S without waiting, so that the page can be read
+   * without locking its records. Return false if another transaction
+   * holds a conflicting lock, such as a record it is writing.
+   * The accesses that take no block locks return true.
+   */
+  public boolean tryLockShared() {
+    if (buff == null)
+      return true;
+    if (!shared && !exclusive)
+      shared = tx.tryLockShared(blk);
+    return shared || exclusive;
+  }
+
+  private void lockRecordShared(int slot) {
+    if (slot != sharedSlot && slot != exclusiveSlot) {
+      tx.sLockRecord(blk, slot);
+      sharedSlot = slot;
+    }
+  }
+
+  private void lockShared() {
+    if (!shared && !exclusive) {
+      tx.lockShared(blk);
+      shared = true;
+    }
+  }
+}
@@ -1,34 +1,95 @@
 package simpledb.tx;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 import simpledb.buffer.Buffer;
 import simpledb.buffer.BufferMgr;
 import simpledb.file.BlockId;
 import simpledb.file.FileMgr;
+import simpledb.file.FreeSpaceMap;
 import simpledb.file.Page;
+import simpledb.file.PageUpdate;
 import simpledb.log.LogMgr;
 import simpledb.tx.concurrency.ConcurrencyMgr;
+import simpledb.tx.concurrency.LockAbortException;
+import simpledb.tx.concurrency.OptimisticAbortException;
+import simpledb.tx.concurrency.VersionStore;
 import simpledb.tx.recovery.RecoveryMgr;
 
 public class Transaction {
-  private static int nextTxNum = 0;
   private static final int END_OF_FILE = -1;
+  private static final Object validation = new Object(); // one optimistic commit at a time
+  // the version stores and the allocators of the databases whose transactions
+  // are created without them, such as in the tests
+  private static Map<FileMgr, VersionStore> versionStores = Collections.synchronizedMap(new WeakHashMap<>());
+  private static Map<FileMgr, TxNumAllocator> txNumAllocators = Collections.synchronizedMap(new WeakHashMap<>());
   private RecoveryMgr recoveryMgr;
   private ConcurrencyMgr concurMgr;
   private BufferMgr bm;
   private FileMgr fm;
-  private int txnum;
+  private LogMgr lm;
+  private VersionStore versionStore;
+  private long txnum;
   private BufferList mybuffers;
+  private boolean readOnly;
+  private long snapshotTs = -1;
+  private Set<BlockId> snapshotBlocks = new HashSet<>(); // the blocks read in the snapshot
+  private Map<BlockId, Page> snapshotPages = new HashMap<>(); // the pinned blocks as of the snapshot
+  private boolean optimistic = false;
+  private Set<BlockId> readSet;
+  private WriteSet writeSet;
 
   public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm) {
+    this(fm, lm, bm, false);
+  }
+
+  /*
+   * A read-only transaction reads the snapshot of the committed state
+   * at its start without taking any locks, so it never blocks the writers
+   * and is never blocked by them.
+   * It has nothing to recover, so it writes no log records
+   * and its commit doesn't wait for the log or the buffers.
+   */
+  public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm, boolean readOnly) {
+    this(fm, lm, bm, versionStores.computeIfAbsent(fm, k -> new VersionStore()),
+        txNumAllocators.computeIfAbsent(fm, TxNumAllocator::new), readOnly);
+  }
+
+  /*
+   * The version store and the allocator of the transaction numbers
+   * are shared by the transactions of the database,
+   * which is SimpleDB that creates them.
+   */
+  public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm, VersionStore versionStore, TxNumAllocator txNumAllocator,
+      boolean readOnly) {
     this.fm = fm;
+    this.lm = lm;
     this.bm = bm;
-    txnum = nextTxNumber();
-    recoveryMgr = new RecoveryMgr(this, txnum, lm, bm);
-    concurMgr = new ConcurrencyMgr();
+    this.readOnly = readOnly;
+    this.versionStore = versionStore;
+    txnum = txNumAllocator.next();
+    if (readOnly)
+      snapshotTs = beginSnapshot();
+    else
+      recoveryMgr = new RecoveryMgr(this, txnum, lm, bm, versionStore);
+    concurMgr = new ConcurrencyMgr(txnum);
     mybuffers = new BufferList(bm);
   }
 
   public void commit() {
+    if (readOnly) {
+      finishReadOnly();
+      return;
+    }
+    if (optimistic) {
+      commitOptimistic();
+      return;
+    }
     recoveryMgr.commit();
     System.out.println("transaction " + txnum + " committed");
     concurMgr.release();
@@ -36,13 +97,68 @@ public class Transaction {
   }
 
   public void rollback() {
+    if (readOnly) {
+      finishReadOnly();
+      return;
+    }
     recoveryMgr.rollback();
     System.out.println("transaction " + txnum + " rolled back");
+    endSnapshot();
     concurMgr.release();
     mybuffers.unpinAll();
   }
 
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /*
+   * Run the transaction with the optimistic concurrency control instead of 2PL.
+   * It reads a snapshot without locks, recording the blocks it reads,
+   * and keeps its writes private until the commit.
+   * The commit validates that no block it read has been modified by
+   * a transaction committed after the snapshot or is being modified
+   * by a locking transaction, and throws OptimisticAbortException otherwise.
+   * It must be called before the transaction accesses any block.
+   */
+  public void setOptimistic(boolean optimistic) {
+    if (readOnly || this.optimistic == optimistic)
+      return;
+    this.optimistic = optimistic;
+    if (optimistic) {
+      snapshotTs = beginSnapshot();
+      readSet = new HashSet<>();
+      writeSet = new WriteSet();
+    } else {
+      endSnapshot();
+      readSet = null;
+      writeSet = null;
+    }
+  }
+
+  public boolean isOptimistic() {
+    return optimistic;
+  }
+
+  /*
+   * Acknowledge the commit without waiting for the log to be on disk.
+   * The commit is durable when LogMgr.durableLSN() reaches commitLSN().
+   */
+  public void setAsyncCommit(boolean asyncCommit) {
+    if (!readOnly)
+      recoveryMgr.setAsyncCommit(asyncCommit);
+  }
+
+  /*
+   * Return the LSN of the commit record, or -1 if not committed
+   * or read-only.
+   */
+  public long commitLSN() {
+    return readOnly ? -1 : recoveryMgr.commitLSN();
+  }
+
   public void recover() {
+    checkWritable();
     bm.flushAll(txnum);
     recoveryMgr.recover();
   }
@@ -53,41 +169,236 @@ public class Transaction {
 
   public void unpin(BlockId blk) {
     mybuffers.unpin(blk);
+    if (mybuffers.getBuffer(blk) == null)
+      snapshotPages.remove(blk);
   }
 
   public int getInt(BlockId blk, int offset) {
+    if (optimistic) {
+      readSet.add(blk);
+      Page p = writeSet.page(blk);
+      if (p != null)
+        return p.getInt(offset);
+    }
+    if (readOnly || optimistic) {
+      Buffer buff = mybuffers.getBuffer(blk);
+      synchronized (buff) {
+        return snapshotPage(buff).getInt(offset);
+      }
+    }
     concurMgr.sLock(blk);
     Buffer buff = mybuffers.getBuffer(blk);
-    return buff.contents().getInt(offset);
+    return buff.latch().getInt(buff.contents(), offset);
   }
 
   public String getString(BlockId blk, int offset) {
+    if (optimistic) {
+      readSet.add(blk);
+      Page p = writeSet.page(blk);
+      if (p != null)
+        return p.getString(offset);
+    }
+    if (readOnly || optimistic) {
+      Buffer buff = mybuffers.getBuffer(blk);
+      synchronized (buff) {
+        return snapshotPage(buff).getString(offset);
+      }
+    }
     concurMgr.sLock(blk);
     Buffer buff = mybuffers.getBuffer(blk);
-    return buff.contents().getString(offset);
+    return buff.latch().getString(buff.contents(), offset);
+  }
+
+  /*
+   * Read the bytes at the offset as they are, without the length.
+   */
+  public byte[] getRawBytes(BlockId blk, int offset, int length) {
+    if (optimistic) {
+      readSet.add(blk);
+      Page p = writeSet.page(blk);
+      if (p != null)
+        return p.getRawBytes(offset, length);
+    }
+    if (readOnly || optimistic) {
+      Buffer buff = mybuffers.getBuffer(blk);
+      synchronized (buff) {
+        return snapshotPage(buff).getRawBytes(offset, length);
+      }
+    }
+    concurMgr.sLock(blk);
+    Buffer buff = mybuffers.getBuffer(blk);
+    return buff.latch().getRawBytes(buff.contents(), offset, length);
+  }
+
+  /*
+   * Read the integer without locking.
+   * The value may be changed by another transaction, so the caller
+   * has to lock and read it again before relying on it.
+   * A snapshot or an optimistic transaction takes no locks,
+   * so it reads the integer as getInt does.
+   */
+  public int peekInt(BlockId blk, int offset) {
+    if (readOnly || optimistic)
+      return getInt(blk, offset);
+    Buffer buff = mybuffers.getBuffer(blk);
+    return buff.latch().getInt(buff.contents(), offset);
+  }
+
+  /*
+   * Lock the record at the slot of the block, instead of the whole block.
+   * The following accesses to the block are not locked at block level.
+   */
+  public void sLockRecord(BlockId blk, int slot) {
+    if (!readOnly && !optimistic)
+      concurMgr.sLockRecord(blk, slot);
+  }
+
+  public void xLockRecord(BlockId blk, int slot) {
+    checkWritable();
+    if (!optimistic)
+      concurMgr.xLockRecord(blk, slot);
   }
 
   public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
+    checkWritable();
+    if (optimistic) {
+      privatePage(blk);
+      writeSet.setInt(blk, offset, val, okToLog);
+      return;
+    }
     concurMgr.xLock(blk);
-    Buffer buff = mybuffers.getBuffer(blk);
-    int lsn = -1;
-    if (okToLog)
-      lsn = recoveryMgr.setInt(buff, offset);
-    Page p = buff.contents();
-    p.setInt(offset, val);
-    buff.setModified(txnum, lsn);
+    writeInt(mybuffers.getBuffer(blk), offset, val, okToLog);
   }
 
   public void setString(BlockId blk, int offset, String val, boolean okToLog) {
+    checkWritable();
+    if (optimistic) {
+      privatePage(blk);
+      writeSet.setString(blk, offset, val, okToLog);
+      return;
+    }
     concurMgr.xLock(blk);
-    Buffer buff = mybuffers.getBuffer(blk);
-    int lsn = -1;
-    if (okToLog)
-      lsn = recoveryMgr.setString(buff, offset);
+    writeString(mybuffers.getBuffer(blk), offset, val, okToLog);
+  }
 
-    Page p = buff.contents();
-    p.setString(offset, val);
-    buff.setModified(txnum, lsn);
+  /*
+   * Write the bytes at the offset as they are, without the length.
+   * Only the bytes that change are logged.
+   */
+  public void setRawBytes(BlockId blk, int offset, byte[] val, boolean okToLog) {
+    checkWritable();
+    if (optimistic) {
+      privatePage(blk);
+      writeSet.setRawBytes(blk, offset, val, okToLog);
+      return;
+    }
+    concurMgr.xLock(blk);
+    writeRawBytes(mybuffers.getBuffer(blk), offset, val, okToLog);
+  }
+
+  /*
+   * Return the buffer of the pinned block for a page handle,
+   * or null if the accesses have to go through the transaction:
+   * the snapshot of a read-only transaction or the private writes
+   * of an optimistic one.
+   */
+  public Buffer pinnedBuffer(BlockId blk) {
+    if (readOnly || optimistic)
+      return null;
+    return mybuffers.getBuffer(blk);
+  }
+
+  void lockShared(BlockId blk) {
+    concurMgr.sLock(blk);
+  }
+
+  boolean tryLockShared(BlockId blk) {
+    return concurMgr.trySLock(blk);
+  }
+
+  void lockExclusive(BlockId blk) {
+    checkWritable();
+    concurMgr.xLock(blk);
+  }
+
+  /*
+   * The page is written under the monitor of the buffer,
+   * so that the snapshots read it together with its versions,
+   * and under the exclusive latch of the page, so that the readers
+   * that share the block through record locks don't see half of it.
+   */
+  void writeInt(Buffer buff, int offset, int val, boolean okToLog) {
+    synchronized (buff) {
+      long lsn = -1;
+      if (okToLog)
+        lsn = recoveryMgr.setInt(buff, offset, val);
+      Page p = buff.contents();
+      long stamp = buff.latch().lockExclusive();
+      try {
+        p.setInt(offset, val);
+      } finally {
+        buff.latch().unlockExclusive(stamp);
+      }
+      buff.setModified(txnum, lsn);
+    }
+  }
+
+  /*
+   * Update the integer from its current value, and log it as an XOR
+   * or an ADD update, which is undone from the value it has then.
+   * The value is read and written under the monitor of the buffer,
+   * so several transactions can update it without locking the block,
+   * such as the bitmap and the record count of a record page.
+   */
+  void updateInt(Buffer buff, int offset, int operand, PageUpdate kind, boolean okToLog) {
+    synchronized (buff) {
+      Page p = buff.contents();
+      int val = (kind == PageUpdate.XOR) ? p.getInt(offset) ^ operand : p.getInt(offset) + operand;
+      long lsn = -1;
+      if (okToLog)
+        lsn = recoveryMgr.setInt(buff, offset, val, kind);
+      long stamp = buff.latch().lockExclusive();
+      try {
+        p.setInt(offset, val);
+      } finally {
+        buff.latch().unlockExclusive(stamp);
+      }
+      buff.setModified(txnum, lsn);
+    }
+  }
+
+  void writeString(Buffer buff, int offset, String val, boolean okToLog) {
+    synchronized (buff) {
+      long lsn = -1;
+      if (okToLog)
+        lsn = recoveryMgr.setString(buff, offset, val);
+
+      Page p = buff.contents();
+      long stamp = buff.latch().lockExclusive();
+      try {
+        p.setString(offset, val);
+      } finally {
+        buff.latch().unlockExclusive(stamp);
+      }
+      buff.setModified(txnum, lsn);
+    }
+  }
+
+  void writeRawBytes(Buffer buff, int offset, byte[] val, boolean okToLog) {
+    synchronized (buff) {
+      long lsn = -1;
+      if (okToLog)
+        lsn = recoveryMgr.setRawBytes(buff, offset, val);
+
+      Page p = buff.contents();
+      long stamp = buff.latch().lockExclusive();
+      try {
+        p.setRawBytes(offset, val);
+      } finally {
+        buff.latch().unlockExclusive(stamp);
+      }
+      buff.setModified(txnum, lsn);
+    }
   }
 
   /*
@@ -95,11 +406,36 @@ public class Transaction {
    * Get xlock for END_OF_FILE before appending
    */
   public BlockId append(String filename) {
+    checkWritable();
     BlockId dummyblk = new BlockId(filename, END_OF_FILE);
     concurMgr.xLock(dummyblk);
     return fm.append(filename);
   }
 
+  /*
+   * Remove the blocks of the file from the given block to the end.
+   * The end of the file and the removed blocks are locked exclusively.
+   * The truncation is logged for the recovery to repeat, but it's not undone
+   * by a rollback, so the blocks must be empty and their emptiness committed.
+   * Return false without truncating if a snapshot may still read an older
+   * version of the blocks, or if another transaction holds a lock on the end
+   * of the file or on the blocks, such as a scan that read the size of the file;
+   * the locks are tried without waiting, as a scan may run for long.
+   */
+  public boolean truncate(String filename, int nblocks) {
+    checkWritable();
+    if (!concurMgr.tryXLock(new BlockId(filename, END_OF_FILE)))
+      return false;
+    int size = fm.length(filename);
+    for (int blknum = nblocks; blknum < size; blknum++) {
+      BlockId blk = new BlockId(filename, blknum);
+      if (!concurMgr.tryXLock(blk) || versionStore.hasVersions(blk))
+        return false;
+    }
+    recoveryMgr.truncate(filename, nblocks);
+    return true;
+  }
+
   public int blockSize() {
     return fm.blockSize();
   }
@@ -108,11 +444,6 @@ public class Transaction {
     return bm.available();
   }
 
-  private static synchronized int nextTxNumber() {
-    nextTxNum++;
-    return nextTxNum;
-  }
-
   /*
    * Return the number of blocks in the specified file.
    * The method first obtains Slock on the "end of file"
@@ -120,7 +451,141 @@ public class Transaction {
    */
   public int size(String filename) {
     BlockId dummyblk = new BlockId(filename, END_OF_FILE);
-    concurMgr.sLock(dummyblk);
+    if (!readOnly && !optimistic)
+      concurMgr.sLock(dummyblk);
     return fm.length(filename);
   }
+
+  /*
+   * Return the map of the blocks of the file that may have room
+   * for a record. It's a hint shared by all the transactions,
+   * so it's neither locked nor logged.
+   */
+  public FreeSpaceMap freeSpaceMap(String filename) {
+    return fm.freeSpaceMap(filename);
+  }
+
+  /*
+   * Return the page of the pinned buffer as of the snapshot.
+   * A page with modifications undone is built once while the block is pinned,
+   * as the state of the snapshot doesn't change.
+   * The caller holds the monitor of the buffer.
+   */
+  private Page snapshotPage(Buffer buff) {
+    BlockId blk = buff.block();
+    Page p = snapshotPages.get(blk);
+    if (p != null)
+      return p;
+    snapshotBlocks.add(blk);
+    p = versionStore.snapshot(blk, buff.contents(), fm.blockSize(), snapshotTs);
+    if (p != buff.contents())
+      snapshotPages.put(blk, p);
+    return p;
+  }
+
+  /*
+   * Return the private copy of the pinned block for an optimistic write,
+   * copying it from the snapshot at the first write.
+   */
+  private Page privatePage(BlockId blk) {
+    Page p = writeSet.page(blk);
+    if (p == null) {
+      Buffer buff = mybuffers.getBuffer(blk);
+      synchronized (buff) {
+        p = new Page(snapshotPage(buff).getRawBytes(0, fm.blockSize()));
+      }
+      writeSet.addPage(blk, p);
+    }
+    return p;
+  }
+
+  /*
+   * Lock the written blocks, validate the read blocks and apply the writes.
+   * The validation and the writes of a transaction finish
+   * before the next optimistic transaction validates, so that
+   * the validation sees all the transactions serialized before it.
+   * The read blocks are locked in S without waiting, so a block
+   * with an uncommitted write of a locking transaction fails the
+   * validation, and no such write starts until the commit ends.
+   */
+  private void commitOptimistic() {
+    try {
+      for (BlockId blk : writeSet.blocks())
+        concurMgr.xLock(blk);
+    } catch (LockAbortException e) {
+      rollback();
+      throw e;
+    }
+    BlockId conflict = null;
+    synchronized (validation) {
+      for (BlockId blk : readSet) {
+        if (!concurMgr.trySLock(blk) || versionStore.isModifiedAfter(blk, snapshotTs)) {
+          conflict = blk;
+          break;
+        }
+      }
+      if (conflict == null)
+        applyWrites();
+    }
+    if (conflict != null) {
+      System.out.println("[Transaction] validation of transaction " + txnum + " failed on " + conflict);
+      rollback();
+      throw new OptimisticAbortException();
+    }
+    System.out.println("transaction " + txnum + " committed");
+    endSnapshot();
+    concurMgr.release();
+    mybuffers.unpinAll();
+  }
+
+  /*
+   * Write the private writes to the buffers with logging, and commit.
+   */
+  private void applyWrites() {
+    for (BlockId blk : writeSet.blocks()) {
+      mybuffers.pin(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      for (WriteSet.Write w : writeSet.writes(blk)) {
+        if (w.val instanceof Integer)
+          writeInt(buff, w.offset, (Integer) w.val, w.okToLog);
+        else if (w.val instanceof String)
+          writeString(buff, w.offset, (String) w.val, w.okToLog);
+        else
+          writeRawBytes(buff, w.offset, (byte[]) w.val, w.okToLog);
+      }
+      mybuffers.unpin(blk);
+    }
+    recoveryMgr.commit();
+  }
+
+  /*
+   * A read-only transaction holds no locks and has no log records,
+   * so it only ends its snapshot and unpins its buffers.
+   */
+  private void finishReadOnly() {
+    endSnapshot();
+    mybuffers.unpinAll();
+  }
+
+  /*
+   * The running writers of the database that skipped their versions
+   * restore them from its log.
+   */
+  private long beginSnapshot() {
+    return versionStore.beginSnapshot(writer -> RecoveryMgr.restoreVersions(lm, writer));
+  }
+
+  private void endSnapshot() {
+    if (snapshotTs >= 0) {
+      versionStore.endSnapshot(snapshotTs, snapshotBlocks);
+      snapshotTs = -1;
+      snapshotBlocks.clear();
+      snapshotPages.clear();
+    }
+  }
+
+  private void checkWritable() {
+    if (readOnly)
+      throw new RuntimeException("cannot write in read-only transaction " + txnum);
+  }
 }
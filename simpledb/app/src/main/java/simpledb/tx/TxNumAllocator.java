@@ -0,0 +1,58 @@
+package simpledb.tx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+/*
+ * Allocate the transaction numbers of a database from an AtomicLong,
+ * so that starting a transaction doesn't wait for a monitor.
+ *
+ * The numbers are never reused across restarts: a high-water mark
+ * is kept in a control file, and the numbers up to it are reserved
+ * in batches of RESERVE_BATCH. The mark is written before any number
+ * above the old mark is handed out, and after a restart the numbering
+ * continues from the mark, skipping the numbers reserved but not used.
+ * There is one allocator per database, created by SimpleDB.
+ */
+public class TxNumAllocator {
+  public static final String CONTROL_FILE = "simpledb.txnum";
+  public static final int RESERVE_BATCH = 1000;
+  private FileMgr fm;
+  private BlockId blk;
+  private AtomicLong last;
+  private volatile long reserved; // the high-water mark on disk
+
+  public TxNumAllocator(FileMgr fm) {
+    this.fm = fm;
+    blk = new BlockId(CONTROL_FILE, 0);
+    Page p = new Page(fm.blockSize());
+    fm.read(blk, p);
+    reserved = p.getLong(0);
+    last = new AtomicLong(reserved);
+    System.out.println("[TxNumAllocator] transaction numbers start after " + reserved);
+  }
+
+  public long next() {
+    long txnum = last.incrementAndGet();
+    if (txnum > reserved)
+      reserve(txnum);
+    return txnum;
+  }
+
+  /*
+   * Write the next high-water mark that covers the number.
+   * The control file is written synchronously by the file manager.
+   */
+  private synchronized void reserve(long txnum) {
+    if (txnum <= reserved)
+      return;
+    long mark = txnum + RESERVE_BATCH;
+    Page p = new Page(fm.blockSize());
+    p.setLong(0, mark);
+    fm.write(blk, p);
+    reserved = mark;
+  }
+}
@@ -0,0 +1,68 @@
+package simpledb.tx;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+
+/*
+ * The private writes of an optimistic transaction.
+ * Each written block has a private copy of its page that the transaction
+ * reads and writes, and the writes are kept in order per block
+ * so that they are applied to the buffers at commit.
+ */
+class WriteSet {
+  private Map<BlockId, Page> pages = new LinkedHashMap<>();
+  private Map<BlockId, List<Write>> writes = new LinkedHashMap<>();
+
+  /*
+   * Return the private copy of the block, or null if it's not written.
+   */
+  Page page(BlockId blk) {
+    return pages.get(blk);
+  }
+
+  void addPage(BlockId blk, Page p) {
+    pages.put(blk, p);
+    writes.put(blk, new ArrayList<>());
+  }
+
+  void setInt(BlockId blk, int offset, int val, boolean okToLog) {
+    pages.get(blk).setInt(offset, val);
+    writes.get(blk).add(new Write(offset, val, okToLog));
+  }
+
+  void setString(BlockId blk, int offset, String val, boolean okToLog) {
+    pages.get(blk).setString(offset, val);
+    writes.get(blk).add(new Write(offset, val, okToLog));
+  }
+
+  void setRawBytes(BlockId blk, int offset, byte[] val, boolean okToLog) {
+    pages.get(blk).setRawBytes(offset, val);
+    writes.get(blk).add(new Write(offset, val.clone(), okToLog));
+  }
+
+  Set<BlockId> blocks() {
+    return writes.keySet();
+  }
+
+  List<Write> writes(BlockId blk) {
+    return writes.get(blk);
+  }
+
+  static class Write {
+    int offset;
+    Object val; // Integer, String or byte[]
+    boolean okToLog;
+
+    Write(int offset, Object val, boolean okToLog) {
+      this.offset = offset;
+      this.val = val;
+      this.okToLog = okToLog;
+    }
+  }
+}
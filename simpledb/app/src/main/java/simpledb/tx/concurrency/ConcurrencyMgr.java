@@ -1,67 +1,257 @@
 package simpledb.tx.concurrency;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import simpledb.file.BlockId;
 
 /*
- * Concurrency Manager implements lock protocol using block-level granularity.
+ * Concurrency Manager implements the multi-granularity lock protocol
  * and created for a transaction. The same lock table needs to be shared.
+ *
+ * A transaction locks a table, a block or a record after taking
+ * the intention lock (IS or IX) on the objects that contain it.
+ * Blocks are locked in S or X by default. The record layer locks the
+ * records it reads and writes instead, which leaves IS/IX on the block,
+ * and accesses the block through the record locks (see PageHandle).
+ * A block access of a transaction holding IS/IX on the block upgrades
+ * the intention lock to S, SIX or X.
+ *
+ * When a transaction holds more than ESCALATION_THRESHOLD record locks
+ * in a block, they are replaced with a lock on the block (escalation),
+ * so a large scan doesn't lock the other transactions out of the whole table.
+ * In the same way, when it holds more than TABLE_ESCALATION_THRESHOLD
+ * blocks of a table, they are replaced with S or X on the table.
  */
 public class ConcurrencyMgr {
+  public static final int ESCALATION_THRESHOLD = 32; // record locks per block
+  public static final int TABLE_ESCALATION_THRESHOLD = 64; // locked blocks per table
   /*
    * The lock table is shared among all Concurrency Manager as it's a static
    * variable
    */
   private static LockTable locktbl = new LockTable();
   /*
-   * The lock state of block:
-   * S if THE transaction holds slock on the block
-   * X if THE transaction holds xlock on the block
+   * The lock modes the transaction holds
    */
-  private Map<BlockId, String> locks = new HashMap<>();
+  private Map<LockTarget, LockMode> locks = new HashMap<>();
+  private Map<LockTarget, Integer> recordLocks = new HashMap<>(); // the number of record locks per block
+  private Map<LockTarget, Integer> blockLocks = new HashMap<>(); // the number of locked blocks per table
+  private long txnum;
+
+  public ConcurrencyMgr(long txnum) {
+    this.txnum = txnum;
+  }
 
   /*
-   * Shared Lock
+   * Shared Lock on the block.
+   * Nothing is locked if the table or the block is already locked in S.
+   * An intention lock held on the block is upgraded: IS to S and IX to SIX.
    */
   public void sLock(BlockId blk) {
-    locks.computeIfAbsent(blk, k -> {
-      System.out
-          .println("[ConcurrencyMgr] starting new sLock on file: " + blk.fileName() + ", blk: " + blk.number() + ". ("
-              + toString() + ")");
-      locktbl.sLock(k);
-      return "S";
-    });
+    LockTarget table = LockTarget.table(blk.fileName());
+    LockTarget block = LockTarget.block(blk);
+    if (holds(table, LockMode.S) || holds(block, LockMode.S))
+      return;
+    System.out.println("[ConcurrencyMgr] starting new sLock on file: " + blk.fileName() + ", blk: " + blk.number()
+        + ". (" + toString() + ")");
+    lock(table, LockMode.IS);
+    lockBlock(table, block, LockMode.S);
   }
 
   /*
-   * Exclusive Lock
-   * If the block doesn't have xlock, firstly get sLock and them promote to xlock
+   * Exclusive Lock on the block.
+   * Nothing is locked if the table or the block is already locked in X.
+   * An intention lock held on the block is upgraded to X, which waits
+   * for the other transactions holding records in the block.
    */
   public void xLock(BlockId blk) {
-    if (!hasXLock(blk)) {
-      System.out.println("[ConcurrencyMgr] starting new xLock on " + blk.fileName() + ", blk: " + blk.number() + ". ("
-          + toString() + ")");
-      sLock(blk);
-      locktbl.xLock(blk);
-      locks.put(blk, "X");
-    }
+    LockTarget table = LockTarget.table(blk.fileName());
+    LockTarget block = LockTarget.block(blk);
+    if (holds(table, LockMode.X) || holds(block, LockMode.X))
+      return;
+    System.out.println("[ConcurrencyMgr] starting new xLock on " + blk.fileName() + ", blk: " + blk.number() + ". ("
+        + toString() + ")");
+    lock(table, LockMode.IX);
+    lockBlock(table, block, LockMode.X);
+  }
+
+  /*
+   * Shared Lock on the block without waiting.
+   * Return false if another transaction holds the table or the block
+   * in a conflicting mode, such as a writer holding X or IX on the block.
+   * The blocks locked this way are not escalated.
+   */
+  public boolean trySLock(BlockId blk) {
+    LockTarget table = LockTarget.table(blk.fileName());
+    LockTarget block = LockTarget.block(blk);
+    if (holds(table, LockMode.S) || holds(block, LockMode.S))
+      return true;
+    return tryLock(table, LockMode.IS) && tryLock(block, LockMode.S);
+  }
+
+  /*
+   * Exclusive Lock on the block without waiting.
+   * Return false if another transaction holds the table or the block
+   * in any mode. The blocks locked this way are not escalated.
+   */
+  public boolean tryXLock(BlockId blk) {
+    LockTarget table = LockTarget.table(blk.fileName());
+    LockTarget block = LockTarget.block(blk);
+    if (holds(table, LockMode.X) || holds(block, LockMode.X))
+      return true;
+    return tryLock(table, LockMode.IX) && tryLock(block, LockMode.X);
+  }
+
+  /*
+   * Shared Lock on the record at the slot of the block.
+   */
+  public void sLockRecord(BlockId blk, int slot) {
+    LockTarget table = LockTarget.table(blk.fileName());
+    LockTarget block = LockTarget.block(blk);
+    LockTarget record = LockTarget.record(blk, slot);
+    if (holds(table, LockMode.S) || holds(block, LockMode.S) || holds(record, LockMode.S))
+      return;
+    lock(table, LockMode.IS);
+    lockBlock(table, block, LockMode.IS);
+    if (!holds(table, LockMode.S) && !holds(block, LockMode.S))
+      lockRecord(block, record, LockMode.S);
+  }
+
+  /*
+   * Exclusive Lock on the record at the slot of the block.
+   */
+  public void xLockRecord(BlockId blk, int slot) {
+    LockTarget table = LockTarget.table(blk.fileName());
+    LockTarget block = LockTarget.block(blk);
+    LockTarget record = LockTarget.record(blk, slot);
+    if (holds(table, LockMode.X) || holds(block, LockMode.X) || holds(record, LockMode.X))
+      return;
+    lock(table, LockMode.IX);
+    lockBlock(table, block, LockMode.IX);
+    if (!holds(table, LockMode.X) && !holds(block, LockMode.X))
+      lockRecord(block, record, LockMode.X);
+  }
+
+  /*
+   * The statistics of the shared lock table
+   */
+  public static LockStats lockStats() {
+    return locktbl.stats();
+  }
+
+  /*
+   * The current holders and waiters of the shared lock table
+   */
+  public static String dumpLocks() {
+    return locktbl.dump();
   }
 
   /*
    * Release all locks
    */
   public void release() {
-    for (BlockId blk : locks.keySet())
-      locktbl.unlock(blk);
+    for (LockTarget target : locks.keySet())
+      locktbl.unlock(target, txnum);
     locks.clear();
+    recordLocks.clear();
+    blockLocks.clear();
     System.out.println("[ConcurrencyMgr] completed release: " + toString());
   }
 
-  private boolean hasXLock(BlockId blk) {
-    String locktype = locks.get(blk);
-    return locktype != null && locktype.equals("X");
+  private boolean holds(LockTarget target, LockMode mode) {
+    LockMode held = locks.get(target);
+    return held != null && held.covers(mode);
+  }
+
+  private void lock(LockTarget target, LockMode mode) {
+    LockMode held = locks.get(target);
+    if (held != null && held.covers(mode))
+      return;
+    LockMode newmode = (held == null) ? mode : held.combine(mode);
+    locktbl.lock(target, txnum, newmode);
+    locks.put(target, newmode);
+  }
+
+  private boolean tryLock(LockTarget target, LockMode mode) {
+    LockMode held = locks.get(target);
+    if (held != null && held.covers(mode))
+      return true;
+    LockMode newmode = (held == null) ? mode : held.combine(mode);
+    if (!locktbl.tryLock(target, txnum, newmode))
+      return false;
+    locks.put(target, newmode);
+    return true;
+  }
+
+  /*
+   * Lock the block in the mode and count it as a block of the table.
+   * The blocks are escalated to the table when there are too many of them,
+   * so the lock of the block may not be held when this returns.
+   */
+  private void lockBlock(LockTarget table, LockTarget block, LockMode mode) {
+    boolean isNew = !locks.containsKey(block);
+    lock(block, mode);
+    if (!isNew)
+      return;
+    int count = blockLocks.merge(table, 1, Integer::sum);
+    if (count > TABLE_ESCALATION_THRESHOLD)
+      escalateTable(table);
+  }
+
+  private void lockRecord(LockTarget block, LockTarget record, LockMode mode) {
+    boolean isNew = !locks.containsKey(record);
+    lock(record, mode);
+    if (!isNew)
+      return;
+    int count = recordLocks.merge(block, 1, Integer::sum);
+    if (count > ESCALATION_THRESHOLD)
+      escalate(block);
+  }
+
+  /*
+   * Lock the whole block and release the record locks in it.
+   * The block is locked in X if the transaction has modified it, otherwise in S.
+   */
+  private void escalate(LockTarget block) {
+    LockMode mode = holds(block, LockMode.IX) ? LockMode.X : LockMode.S;
+    System.out.println("[ConcurrencyMgr] escalating " + recordLocks.get(block) + " record locks in " + block
+        + " to " + mode + " lock on the block");
+    lock(block, mode);
+    List<LockTarget> released = new ArrayList<>();
+    for (LockTarget target : locks.keySet())
+      if (target.isRecord() && target.block().equals(block))
+        released.add(target);
+    for (LockTarget target : released) {
+      locktbl.unlock(target, txnum);
+      locks.remove(target);
+    }
+    recordLocks.remove(block);
+  }
+
+  /*
+   * Lock the whole table and release the block and record locks in it.
+   * The table is locked in X if the transaction has modified it, otherwise in S.
+   * The table lock is taken first, so the released locks are always covered.
+   */
+  private void escalateTable(LockTarget table) {
+    LockMode mode = holds(table, LockMode.IX) ? LockMode.X : LockMode.S;
+    System.out.println("[ConcurrencyMgr] escalating " + blockLocks.get(table) + " block locks in " + table
+        + " to " + mode + " lock on the table");
+    lock(table, mode);
+    List<LockTarget> released = new ArrayList<>();
+    for (LockTarget target : locks.keySet())
+      if (!target.isTable() && target.fileName().equals(table.fileName()))
+        released.add(target);
+    for (LockTarget target : released) {
+      locktbl.unlock(target, txnum);
+      locks.remove(target);
+      if (!target.isRecord())
+        recordLocks.remove(target);
+    }
+    blockLocks.remove(table);
   }
 
   public String toString() {
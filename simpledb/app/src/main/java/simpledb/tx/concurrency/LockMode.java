@@ -0,0 +1,52 @@
+package simpledb.tx.concurrency;
+
+/*
+ * The lock modes of the multi-granularity locking.
+ * IS and IX are intention locks taken on a table or a block
+ * before locking a part of it in S or X.
+ * SIX is S on the whole object with the intention to lock parts of it in X.
+ */
+public enum LockMode {
+  IS, IX, S, SIX, X;
+
+  // COMPATIBLE[a][b] is true if a and b can be held by different transactions
+  private static final boolean[][] COMPATIBLE = {
+      // IS IX S SIX X
+      { true, true, true, true, false }, // IS
+      { true, true, false, false, false }, // IX
+      { true, false, true, false, false }, // S
+      { true, false, false, false, false }, // SIX
+      { false, false, false, false, false }, // X
+  };
+
+  public boolean isCompatible(LockMode other) {
+    return COMPATIBLE[ordinal()][other.ordinal()];
+  }
+
+  /*
+   * Return true if holding this mode also grants the other mode.
+   */
+  public boolean covers(LockMode other) {
+    return combine(other) == this;
+  }
+
+  /*
+   * Return the weakest mode that grants both modes,
+   * which is the mode a held lock is upgraded to.
+   */
+  public LockMode combine(LockMode other) {
+    if (this == other)
+      return this;
+    if (this == X || other == X)
+      return X;
+    if (this == SIX || other == SIX)
+      return SIX;
+    if ((this == S && other == IX) || (this == IX && other == S))
+      return SIX;
+    if (this == IS)
+      return other;
+    if (other == IS)
+      return this;
+    return X; // not reached
+  }
+}
@@ -0,0 +1,130 @@
+package simpledb.tx.concurrency;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * The statistics of the lock table:
+ * the requests per mode, the requests that waited and how long,
+ * the aborted requests and the deadlock victims,
+ * and the targets the transactions waited for most.
+ * The counters are updated without a common monitor,
+ * so a report is not an exact snapshot.
+ */
+public class LockStats {
+  private static final int MAX_CONTENDED = 1024; // the number of targets whose waits are counted
+  private static final long[] WAIT_BUCKETS_MS = { 1, 10, 100, 1000 }; // the upper bounds of the histogram
+  private LongAdder[] requests = new LongAdder[LockMode.values().length];
+  private LongAdder waits = new LongAdder();
+  private LongAdder waitNanos = new LongAdder();
+  private LongAdder[] waitHistogram = new LongAdder[WAIT_BUCKETS_MS.length + 1];
+  private LongAdder aborts = new LongAdder();
+  private LongAdder victims = new LongAdder();
+  private Map<LockTarget, LongAdder> contended = new ConcurrentHashMap<>();
+
+  public LockStats() {
+    for (int i = 0; i < requests.length; i++)
+      requests[i] = new LongAdder();
+    for (int i = 0; i < waitHistogram.length; i++)
+      waitHistogram[i] = new LongAdder();
+  }
+
+  void request(LockMode mode) {
+    requests[mode.ordinal()].increment();
+  }
+
+  /*
+   * Count a request that had to wait for the target.
+   */
+  void waitStarted(LockTarget target) {
+    waits.increment();
+    LongAdder count = contended.get(target);
+    if (count == null && contended.size() < MAX_CONTENDED)
+      count = contended.computeIfAbsent(target, k -> new LongAdder());
+    if (count != null)
+      count.increment();
+  }
+
+  /*
+   * Record the time a request waited, whether it was granted or aborted.
+   */
+  void waitEnded(long nanos) {
+    waitNanos.add(nanos);
+    long ms = nanos / 1_000_000;
+    int i = 0;
+    while (i < WAIT_BUCKETS_MS.length && ms >= WAIT_BUCKETS_MS[i])
+      i++;
+    waitHistogram[i].increment();
+  }
+
+  void aborted() {
+    aborts.increment();
+  }
+
+  void victimChosen() {
+    victims.increment();
+  }
+
+  public long requests(LockMode mode) {
+    return requests[mode.ordinal()].sum();
+  }
+
+  public long waits() {
+    return waits.sum();
+  }
+
+  public long aborts() {
+    return aborts.sum();
+  }
+
+  public long deadlockVictims() {
+    return victims.sum();
+  }
+
+  /*
+   * Return the targets with the most waits, the most contended first.
+   */
+  public List<Map.Entry<LockTarget, Long>> topContended(int n) {
+    List<Map.Entry<LockTarget, Long>> entries = new ArrayList<>();
+    for (Map.Entry<LockTarget, LongAdder> e : contended.entrySet())
+      entries.add(Map.entry(e.getKey(), e.getValue().sum()));
+    entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+    return entries.subList(0, Math.min(n, entries.size()));
+  }
+
+  public void reset() {
+    for (LongAdder a : requests)
+      a.reset();
+    for (LongAdder a : waitHistogram)
+      a.reset();
+    waits.reset();
+    waitNanos.reset();
+    aborts.reset();
+    victims.reset();
+    contended.clear();
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("requests:");
+    for (LockMode mode : LockMode.values())
+      sb.append(" ").append(mode).append("=").append(requests(mode));
+    long w = waits();
+    sb.append("\nwaits: ").append(w);
+    if (w > 0)
+      sb.append(", average ").append(waitNanos.sum() / w / 1000).append("us");
+    sb.append("\nwait time:");
+    for (int i = 0; i < waitHistogram.length; i++) {
+      String bound = (i < WAIT_BUCKETS_MS.length) ? "<" + WAIT_BUCKETS_MS[i] : ">=" + WAIT_BUCKETS_MS[i - 1];
+      sb.append(" ").append(bound).append("ms=").append(waitHistogram[i].sum());
+    }
+    sb.append("\naborts: ").append(aborts()).append(", deadlock victims: ").append(deadlockVictims());
+    sb.append("\nmost contended:");
+    for (Map.Entry<LockTarget, Long> e : topContended(10))
+      sb.append("\n  ").append(e.getKey()).append(" waits=").append(e.getValue());
+    return sb.toString();
+  }
+}
@@ -1,92 +1,289 @@
 package simpledb.tx.concurrency;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-import simpledb.file.BlockId;
-
+/*
+ * The lock table is split into stripes by the hash of the lock target,
+ * and each stripe has its own monitor, so transactions locking
+ * different targets rarely wait for the same monitor.
+ *
+ * Each locked target (a table, a block or a record) has a lock entry
+ * with the modes of its holders and a FIFO queue of the waiting requests.
+ * A request is granted when it's at the head of the queue and compatible
+ * with the other holders, and a waiting transaction only wakes up when
+ * the lock of its target changes.
+ * An upgrade of a held lock is queued before the other requests
+ * as the transaction already holds the target.
+ *
+ * A waiting transaction waits as long as needed; deadlocks are found
+ * by the wait-for graph when a request starts waiting, and the victim
+ * is aborted at once.
+ */
 public class LockTable {
-  private static final long MAX_TIME = 10000; // 10 seconds
+  private static final int STRIPES = 16;
+  private WaitForGraph graph = new WaitForGraph();
+  private LockStats stats = new LockStats();
+  private List<Map<LockTarget, Lock>> stripes = new ArrayList<>();
 
-  /*
-   * The lock state of block:
-   * -1 if a transaction holds xlock on the block
-   * the number of transactions that hold slock
-   */
-  private Map<BlockId, Integer> locks = new HashMap<>();
+  public LockTable() {
+    for (int i = 0; i < STRIPES; i++)
+      stripes.add(new HashMap<>());
+  }
 
   /*
-   * Shared Lock
-   * Set the number of transactions that hold shared lock on the block
+   * Lock the target in the mode, or upgrade the lock the transaction holds
+   * to the mode. Wait until the other holders are compatible
+   * and the earlier requests are granted.
+   * Throw LockAbortException if the transaction is chosen as a deadlock victim.
    */
-  public synchronized void sLock(BlockId blk) {
+  public void lock(LockTarget target, long txnum, LockMode mode) {
+    Lock lock = acquireEntry(target);
     try {
-      long timestamp = System.currentTimeMillis();
-      while (hasXLock(blk) && !waitingTooLong(timestamp))
-        wait(MAX_TIME);
-      if (hasXLock(blk))
-        throw new LockAbortException();
-
-      int val = getLockVal(blk);
-      locks.put(blk, val + 1);
-    } catch (InterruptedException e) {
-      throw new LockAbortException();
+      lock.acquire(txnum, mode);
+    } finally {
+      releaseEntry(target, lock);
     }
+    if (mode == LockMode.X)
+      System.out.println("[LockTable] completed xlock on " + target + ", txnum: " + txnum);
   }
 
   /*
-   * Exclusive Lock
-   * Set -1 for the block
+   * Lock the target in the mode, or upgrade the lock, only if it can be
+   * granted at once. Return false without waiting otherwise.
    */
-  synchronized void xLock(BlockId blk) {
+  public boolean tryLock(LockTarget target, long txnum, LockMode mode) {
+    Lock lock = acquireEntry(target);
     try {
-      long timestamp = System.currentTimeMillis();
-      while (hasOtherSLocks(blk) && !waitingTooLong(timestamp))
-        wait(MAX_TIME);
-      if (hasOtherSLocks(blk))
-        throw new LockAbortException();
-      locks.put(blk, -1);
-    } catch (InterruptedException e) {
-      throw new LockAbortException();
+      return lock.tryAcquire(txnum, mode);
+    } finally {
+      releaseEntry(target, lock);
     }
-    System.out.println("[LockTable] completed xlock on blk: " + blk.number() + ", status: " + lockStatusName(blk));
   }
 
-  synchronized void unlock(BlockId blk) {
-    int val = getLockVal(blk);
-    if (val > 1)
-      locks.put(blk, val - 1);
-    else {
-      locks.remove(blk);
-      notifyAll();
+  public void unlock(LockTarget target, long txnum) {
+    Lock lock = acquireEntry(target);
+    try {
+      lock.release(txnum);
+    } finally {
+      releaseEntry(target, lock);
     }
   }
 
-  private boolean hasXLock(BlockId blk) {
-    return getLockVal(blk) < 0; // As it has -1 if a transaction holds xlock
+  public LockStats stats() {
+    return stats;
   }
 
-  private boolean hasOtherSLocks(BlockId blk) {
-    return getLockVal(blk) > 1; // As it represents the number of transactions holding slock
+  /*
+   * Return the locked targets with their holders and waiting requests,
+   * one target per line. Each entry is read under its own monitor,
+   * so the entries may be from slightly different moments.
+   */
+  public String dump() {
+    List<Lock> locks = new ArrayList<>();
+    for (Map<LockTarget, Lock> stripe : stripes) {
+      synchronized (stripe) {
+        locks.addAll(stripe.values());
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Lock lock : locks)
+      lock.dump(sb);
+    return sb.toString();
   }
 
-  private boolean waitingTooLong(long starttime) {
-    return System.currentTimeMillis() - starttime > MAX_TIME;
+  private Map<LockTarget, Lock> stripe(LockTarget target) {
+    return stripes.get(Math.floorMod(target.hashCode(), STRIPES));
   }
 
-  private int getLockVal(BlockId blk) {
-    Integer ival = locks.get(blk);
-    int val = (ival == null) ? 0 : ival.intValue();
-    return val;
+  /*
+   * Return the lock entry of the block, creating it if needed.
+   * The entry is referenced until releaseEntry, so that it's not
+   * removed from the table while a transaction is using it.
+   */
+  private Lock acquireEntry(LockTarget target) {
+    Map<LockTarget, Lock> stripe = stripe(target);
+    synchronized (stripe) {
+      Lock lock = stripe.computeIfAbsent(target, Lock::new);
+      lock.refs++;
+      return lock;
+    }
+  }
+
+  /*
+   * Remove the entry when it's not used by any transaction.
+   */
+  private void releaseEntry(LockTarget target, Lock lock) {
+    Map<LockTarget, Lock> stripe = stripe(target);
+    synchronized (stripe) {
+      lock.refs--;
+      if (lock.refs == 0 && lock.isFree())
+        stripe.remove(target);
+    }
+  }
+
+  private static class Request {
+    private long txnum;
+    private LockMode mode;
+
+    Request(long txnum, LockMode mode) {
+      this.txnum = txnum;
+      this.mode = mode;
+    }
+
+    public String toString() {
+      return txnum + "=" + mode;
+    }
   }
 
-  private String lockStatusName(BlockId blk) {
-    Integer ival = locks.get(blk);
-    if (ival == null)
-      return "no lock";
-    else if (ival > 0)
-      return "slock";
-    else
-      return "xlock";
+  /*
+   * The lock entry of a target.
+   * The fields are guarded by the monitor of the entry,
+   * except refs which is guarded by the monitor of the stripe.
+   */
+  private class Lock {
+    private LockTarget target;
+    private int refs = 0;
+    private Map<Long, LockMode> holders = new HashMap<>();
+    private Deque<Request> waiting = new ArrayDeque<>();
+
+    Lock(LockTarget target) {
+      this.target = target;
+    }
+
+    /*
+     * Wait until the request is granted.
+     * When the request makes a deadlock, the victim is woken up
+     * after leaving the monitor of this entry, so that two monitors
+     * of the entries are never held at the same time.
+     */
+    void acquire(long txnum, LockMode mode) {
+      Request req;
+      long waitStart = -1;
+      synchronized (this) {
+        LockMode held = holders.get(txnum);
+        if (held != null && held.covers(mode))
+          return;
+        stats.request(mode);
+        if (held != null) {
+          req = new Request(txnum, held.combine(mode));
+          waiting.addFirst(req); // upgrade
+        } else {
+          req = new Request(txnum, mode);
+          waiting.addLast(req);
+        }
+      }
+      try {
+        while (true) {
+          Object victimMonitor = null;
+          synchronized (this) {
+            if (graph.takeVictim(txnum))
+              throw new LockAbortException();
+            if (isGrantable(req)) {
+              holders.put(txnum, req.mode);
+              return;
+            }
+            if (waitStart < 0) {
+              waitStart = System.nanoTime();
+              stats.waitStarted(target);
+            }
+            long victim = graph.waitFor(txnum, blockers(req), this);
+            if (victim >= 0)
+              stats.victimChosen();
+            if (victim == txnum)
+              throw new LockAbortException();
+            if (victim >= 0)
+              victimMonitor = graph.monitorOf(victim);
+            else
+              wait();
+          }
+          if (victimMonitor != null) {
+            synchronized (victimMonitor) {
+              victimMonitor.notifyAll();
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        stats.aborted();
+        throw new LockAbortException();
+      } catch (LockAbortException e) {
+        stats.aborted();
+        throw e;
+      } finally {
+        if (waitStart >= 0)
+          stats.waitEnded(System.nanoTime() - waitStart);
+        synchronized (this) {
+          waiting.remove(req);
+          notifyAll(); // the next request may be granted now
+        }
+        graph.remove(txnum);
+      }
+    }
+
+    /*
+     * Grant the request if the other holders are compatible and
+     * no request is queued before it, which an upgrade never is.
+     */
+    synchronized boolean tryAcquire(long txnum, LockMode mode) {
+      LockMode held = holders.get(txnum);
+      if (held != null && held.covers(mode))
+        return true;
+      stats.request(mode);
+      if (held == null && !waiting.isEmpty())
+        return false;
+      LockMode newmode = (held == null) ? mode : held.combine(mode);
+      for (Map.Entry<Long, LockMode> e : holders.entrySet())
+        if (e.getKey() != txnum && !e.getValue().isCompatible(newmode))
+          return false;
+      holders.put(txnum, newmode);
+      return true;
+    }
+
+    synchronized void release(long txnum) {
+      holders.remove(txnum);
+      notifyAll();
+    }
+
+    synchronized boolean isFree() {
+      return holders.isEmpty() && waiting.isEmpty();
+    }
+
+    synchronized void dump(StringBuilder sb) {
+      if (!isFree())
+        sb.append(target).append(": held by ").append(holders).append(", waiting ").append(waiting).append("\n");
+    }
+
+    private boolean isGrantable(Request req) {
+      if (waiting.peekFirst() != req)
+        return false;
+      for (Map.Entry<Long, LockMode> e : holders.entrySet())
+        if (e.getKey() != req.txnum && !e.getValue().isCompatible(req.mode))
+          return false;
+      return true;
+    }
+
+    /*
+     * Return the transactions the request waits for:
+     * the incompatible holders and the requests queued before it.
+     */
+    private Set<Long> blockers(Request req) {
+      Set<Long> blockers = new HashSet<>();
+      for (Map.Entry<Long, LockMode> e : holders.entrySet())
+        if (!e.getValue().isCompatible(req.mode))
+          blockers.add(e.getKey());
+      for (Request r : waiting) {
+        if (r == req)
+          break;
+        blockers.add(r.txnum);
+      }
+      blockers.remove(req.txnum);
+      return blockers;
+    }
   }
 }
@@ -0,0 +1,70 @@
+package simpledb.tx.concurrency;
+
+import simpledb.file.BlockId;
+
+/*
+ * A lockable object: a table (its file), a block of the file,
+ * or a record (a slot of a block).
+ */
+public class LockTarget {
+  private static final int NONE = Integer.MIN_VALUE;
+  private String filename;
+  private int blknum;
+  private int slot;
+
+  private LockTarget(String filename, int blknum, int slot) {
+    this.filename = filename;
+    this.blknum = blknum;
+    this.slot = slot;
+  }
+
+  public static LockTarget table(String filename) {
+    return new LockTarget(filename, NONE, NONE);
+  }
+
+  public static LockTarget block(BlockId blk) {
+    return new LockTarget(blk.fileName(), blk.number(), NONE);
+  }
+
+  public static LockTarget record(BlockId blk, int slot) {
+    return new LockTarget(blk.fileName(), blk.number(), slot);
+  }
+
+  /*
+   * Return the block of a record, or the block itself.
+   */
+  public LockTarget block() {
+    return new LockTarget(filename, blknum, NONE);
+  }
+
+  public String fileName() {
+    return filename;
+  }
+
+  public boolean isTable() {
+    return blknum == NONE;
+  }
+
+  public boolean isRecord() {
+    return slot != NONE;
+  }
+
+  public boolean equals(Object obj) {
+    if (!(obj instanceof LockTarget))
+      return false;
+    LockTarget t = (LockTarget) obj;
+    return filename.equals(t.filename) && blknum == t.blknum && slot == t.slot;
+  }
+
+  public int hashCode() {
+    return 31 * (31 * filename.hashCode() + blknum) + slot;
+  }
+
+  public String toString() {
+    if (isTable())
+      return "[table " + filename + "]";
+    if (isRecord())
+      return "[file " + filename + ", block " + blknum + ", slot " + slot + "]";
+    return "[file " + filename + ", block " + blknum + "]";
+  }
+}
@@ -0,0 +1,10 @@
+package simpledb.tx.concurrency;
+
+/*
+ * Thrown at the commit of an optimistic transaction when a block it read
+ * has been modified by a transaction committed after its snapshot.
+ * The transaction is rolled back and can be retried.
+ */
+@SuppressWarnings("serial")
+public class OptimisticAbortException extends RuntimeException {
+}
@@ -0,0 +1,308 @@
+package simpledb.tx.concurrency;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.file.PageUpdate;
+
+/*
+ * Version Store keeps the before-images of the modifications,
+ * so that a read-only transaction can read the database as of its snapshot
+ * without taking any locks. There is one store per database.
+ *
+ * The before-images come from the update log records of the Recovery Manager.
+ * A version is stamped with the commit timestamp of its writer when it commits.
+ * A snapshot sees the modifications committed at or before its timestamp;
+ * to read a block, the before-images of the other modifications are
+ * applied to a copy of the page from the newest to the oldest.
+ * The XOR and ADD updates are undone from the bytes of the copy,
+ * so the updates of the same bytes by other transactions stay.
+ *
+ * The versions of a block are kept in a chain with its own monitor,
+ * so the writers and the snapshots of different blocks don't wait for each other.
+ * The page and the versions of a block are read under the monitor of its buffer,
+ * which the writers also hold while writing the page.
+ *
+ * No version is kept while no snapshot is active. A writer that skipped its
+ * versions is registered, and a snapshot that begins while it's running
+ * restores its versions from its log records before the snapshot starts.
+ *
+ * A version is removed when every active snapshot can see its modification:
+ * the chains of the blocks a snapshot read are collected when it ends,
+ * a chain is collected when a version is added to it, and all the chains
+ * are collected when the last snapshot ends.
+ */
+public class VersionStore {
+  private static final long UNCOMMITTED = Long.MAX_VALUE;
+  private Map<BlockId, Chain> chains = new ConcurrentHashMap<>();
+  private Map<Long, List<Version>> uncommitted = new ConcurrentHashMap<>();
+  /*
+   * The fields below are guarded by the monitor of the store.
+   */
+  private long clock = 0; // the timestamp of the latest commit
+  private TreeMap<Long, Integer> snapshots = new TreeMap<>(); // the number of snapshots per timestamp
+  private int beginning = 0; // the number of snapshots restoring the versions of the writers
+  private Set<Long> unversioned = new HashSet<>(); // the writers that skipped their versions
+  private volatile boolean versioning = false; // true while a snapshot is active or beginning
+  private volatile long horizon = 0; // the versions committed at or before it are visible to all snapshots
+
+  /*
+   * Start a snapshot of the committed state and return its timestamp.
+   * The versions of the writers that skipped them are restored first
+   * by the given function, which is called with their transaction numbers.
+   */
+  public long beginSnapshot(LongConsumer restore) {
+    List<Long> writers;
+    synchronized (this) {
+      beginning++;
+      versioning = true;
+      writers = new ArrayList<>(unversioned);
+    }
+    try {
+      for (long txnum : writers)
+        restore.accept(txnum);
+    } finally {
+      synchronized (this) {
+        beginning--;
+      }
+    }
+    synchronized (this) {
+      snapshots.merge(clock, 1, Integer::sum);
+      horizon = snapshots.firstKey();
+      return clock;
+    }
+  }
+
+  /*
+   * End the snapshot and remove the versions of the blocks it read
+   * that no snapshot needs any more.
+   */
+  public void endSnapshot(long ts, Collection<BlockId> blocks) {
+    boolean last;
+    synchronized (this) {
+      if (snapshots.merge(ts, -1, Integer::sum) == 0)
+        snapshots.remove(ts);
+      horizon = snapshots.isEmpty() ? clock : snapshots.firstKey();
+      last = snapshots.isEmpty();
+      if (last && beginning == 0)
+        versioning = false;
+    }
+    int count = 0;
+    for (BlockId blk : last ? chains.keySet() : blocks) {
+      Chain chain = chains.get(blk);
+      if (chain != null)
+        count += chain.collect(horizon);
+    }
+    if (count > 0)
+      System.out.println("[VersionStore] collected " + count + " versions");
+  }
+
+  /*
+   * Keep the bytes at the offset of the block before the transaction modifies them,
+   * and the bytes after for an XOR or an ADD update.
+   * Return false without keeping them if no snapshot is active; the transaction
+   * is registered as a writer without versions, and it doesn't need to call
+   * this method again until restored() is called for it.
+   */
+  public boolean addVersion(long txnum, BlockId blk, int offset, byte[] before, byte[] after, PageUpdate kind) {
+    if (!versioning && skip(txnum))
+      return false;
+    restoreVersion(txnum, blk, offset, before, after, kind);
+    return true;
+  }
+
+  /*
+   * Keep the version of a modification written without its version,
+   * restored from the log record of the modification.
+   */
+  public void restoreVersion(long txnum, BlockId blk, int offset, byte[] before, byte[] after, PageUpdate kind) {
+    Version v = new Version(blk, offset, before, (kind == PageUpdate.SET) ? null : after, kind);
+    uncommitted.computeIfAbsent(txnum, k -> new ArrayList<>()).add(v);
+    while (true) {
+      Chain chain = chains.computeIfAbsent(blk, Chain::new);
+      if (chain.add(v, horizon))
+        return;
+    }
+  }
+
+  /*
+   * Tell that the versions of the writer have been restored.
+   */
+  public synchronized void restored(long txnum) {
+    unversioned.remove(txnum);
+  }
+
+  /*
+   * Stamp the versions of the transaction with a new commit timestamp.
+   * They are removed at once if no snapshot is active.
+   */
+  public void commit(long txnum) {
+    List<Version> versions = uncommitted.remove(txnum);
+    boolean remove;
+    synchronized (this) {
+      clock++;
+      unversioned.remove(txnum);
+      if (versions != null)
+        for (Version v : versions)
+          v.commitTs = clock;
+      remove = snapshots.isEmpty() && beginning == 0;
+      if (remove)
+        horizon = clock;
+    }
+    if (versions != null && remove)
+      remove(versions);
+  }
+
+  /*
+   * Remove the versions of the transaction after its modifications are undone.
+   */
+  public void rollback(long txnum) {
+    synchronized (this) {
+      unversioned.remove(txnum);
+    }
+    List<Version> versions = uncommitted.remove(txnum);
+    if (versions != null)
+      remove(versions);
+  }
+
+  /*
+   * Return the page of the block as seen by the snapshot.
+   * The current page is returned when all its modifications are visible,
+   * otherwise a copy with the invisible modifications undone.
+   * The caller holds the monitor of the buffer.
+   */
+  public Page snapshot(BlockId blk, Page current, int blocksize, long ts) {
+    Chain chain = chains.get(blk);
+    if (chain == null)
+      return current;
+    synchronized (chain) {
+      Page p = current;
+      for (int i = chain.versions.size() - 1; i >= 0; i--) {
+        Version v = chain.versions.get(i);
+        if (v.commitTs > ts) {
+          if (p == current)
+            p = new Page(current.getRawBytes(0, blocksize));
+          p.setRawBytes(v.offset, v.kind.undoBytes(p, v.offset, v.before, v.after));
+        }
+      }
+      return p;
+    }
+  }
+
+  /*
+   * Return true if a transaction committed after the timestamp
+   * has modified the block. The versions are kept while the snapshot
+   * of the timestamp is active.
+   */
+  public boolean isModifiedAfter(BlockId blk, long ts) {
+    Chain chain = chains.get(blk);
+    if (chain == null)
+      return false;
+    synchronized (chain) {
+      for (Version v : chain.versions)
+        if (v.commitTs > ts && v.commitTs != UNCOMMITTED)
+          return true;
+      return false;
+    }
+  }
+
+  /*
+   * Return true if the block has versions that an active snapshot
+   * or an uncommitted transaction may need.
+   */
+  public boolean hasVersions(BlockId blk) {
+    Chain chain = chains.get(blk);
+    if (chain == null)
+      return false;
+    synchronized (chain) {
+      return !chain.versions.isEmpty();
+    }
+  }
+
+  /*
+   * Register the writer as one without versions,
+   * unless a snapshot has started in the meantime.
+   */
+  private synchronized boolean skip(long txnum) {
+    if (versioning)
+      return false;
+    unversioned.add(txnum);
+    return true;
+  }
+
+  private void remove(List<Version> versions) {
+    for (Version v : versions) {
+      Chain chain = chains.get(v.blk);
+      if (chain != null)
+        chain.remove(v);
+    }
+  }
+
+  /*
+   * The versions of a block from the oldest to the newest.
+   * An empty chain is removed from the store, and a version is added
+   * to a new chain if the chain has been removed in the meantime.
+   */
+  private class Chain {
+    private BlockId blk;
+    private List<Version> versions = new ArrayList<>();
+    private boolean removed = false;
+
+    Chain(BlockId blk) {
+      this.blk = blk;
+    }
+
+    synchronized boolean add(Version v, long horizon) {
+      if (removed)
+        return false;
+      versions.removeIf(old -> old.commitTs <= horizon);
+      versions.add(v);
+      return true;
+    }
+
+    synchronized void remove(Version v) {
+      if (versions.remove(v))
+        removeIfEmpty();
+    }
+
+    synchronized int collect(long horizon) {
+      int before = versions.size();
+      versions.removeIf(v -> v.commitTs <= horizon);
+      removeIfEmpty();
+      return before - versions.size();
+    }
+
+    private void removeIfEmpty() {
+      if (versions.isEmpty() && !removed) {
+        removed = true;
+        chains.remove(blk, this);
+      }
+    }
+  }
+
+  private static class Version {
+    private BlockId blk;
+    private int offset;
+    private byte[] before;
+    private byte[] after; // null for a SET update
+    private PageUpdate kind;
+    private volatile long commitTs = UNCOMMITTED;
+
+    Version(BlockId blk, int offset, byte[] before, byte[] after, PageUpdate kind) {
+      this.blk = blk;
+      this.offset = offset;
+      this.before = before;
+      this.after = after;
+      this.kind = kind;
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package simpledb.tx.concurrency;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * The wait-for graph of the transactions waiting for locks.
+ * An edge T1 -> T2 means T1 waits for a lock that T2 holds or requested earlier.
+ * A cycle is searched every time a transaction starts waiting
+ * or its edges change, and the youngest transaction in the cycle
+ * (the one with the largest txnum) is chosen as the victim to abort.
+ */
+public class WaitForGraph {
+  private Map<Long, Set<Long>> edges = new HashMap<>();
+  private Map<Long, Object> monitors = new HashMap<>(); // the monitor each transaction waits on
+  private Set<Long> victims = new HashSet<>();
+
+  /*
+   * Set the transactions that the transaction waits for
+   * and return the victim if it makes a deadlock, or -1 otherwise.
+   */
+  public synchronized long waitFor(long txnum, Set<Long> blockers, Object monitor) {
+    edges.put(txnum, blockers);
+    monitors.put(txnum, monitor);
+    List<Long> cycle = findCycle(txnum);
+    if (cycle == null)
+      return -1;
+    long victim = -1;
+    for (long t : cycle)
+      victim = Math.max(victim, t);
+    System.out.println("[WaitForGraph] deadlock " + cycle + ", aborting transaction " + victim);
+    victims.add(victim);
+    edges.remove(victim);
+    return victim;
+  }
+
+  /*
+   * Remove the transaction from the graph when it stops waiting.
+   * A transaction that got its lock before noticing it was chosen
+   * as a victim is not aborted.
+   */
+  public synchronized void remove(long txnum) {
+    edges.remove(txnum);
+    monitors.remove(txnum);
+    victims.remove(txnum);
+  }
+
+  /*
+   * Return true once if the transaction is chosen as a victim.
+   */
+  public synchronized boolean takeVictim(long txnum) {
+    return victims.remove(txnum);
+  }
+
+  /*
+   * Return the monitor the transaction waits on, or null if it's not waiting.
+   */
+  public synchronized Object monitorOf(long txnum) {
+    return monitors.get(txnum);
+  }
+
+  /*
+   * Return the transactions of a cycle through the transaction,
+   * or null if there is no cycle.
+   */
+  private List<Long> findCycle(long txnum) {
+    List<Long> path = new ArrayList<>();
+    path.add(txnum);
+    if (search(txnum, txnum, path, new HashSet<>()))
+      return path;
+    return null;
+  }
+
+  private boolean search(long start, long current, List<Long> path, Set<Long> visited) {
+    for (long next : edges.getOrDefault(current, Set.of())) {
+      if (next == start)
+        return true;
+      if (!visited.add(next))
+        continue;
+      path.add(next);
+      if (search(start, next, path, visited))
+        return true;
+      path.remove(path.size() - 1);
+    }
+    return false;
+  }
+}
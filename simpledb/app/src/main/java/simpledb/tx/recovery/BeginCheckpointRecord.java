@@ -0,0 +1,31 @@
+package simpledb.tx.recovery;
+
+import simpledb.log.LogMgr;
+
+/*
+ * The start of a fuzzy checkpoint.
+ * The analysis of the recovery reads the log from this record.
+ */
+public class BeginCheckpointRecord implements LogRecord {
+
+  public int op() {
+    return BEGIN_CHECKPOINT;
+  }
+
+  public long txNumber() {
+    return -1;
+  }
+
+  public long prevLSN() {
+    return -1;
+  }
+
+  public String toString() {
+    return "<BEGIN_CHECKPOINT>";
+  }
+
+  public static long writeToLog(LogMgr lm) {
+    byte[] rec = new LogEncoder(BEGIN_CHECKPOINT).toBytes();
+    return lm.append(rec);
+  }
+}
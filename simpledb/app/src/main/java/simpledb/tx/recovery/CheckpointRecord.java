@@ -1,32 +1,153 @@
 package simpledb.tx.recovery;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import simpledb.file.BlockId;
 import simpledb.file.Page;
 import simpledb.log.LogMgr;
-import simpledb.tx.Transaction;
 
+/*
+ * The end of a fuzzy checkpoint.
+ * It holds the active transactions with their latest LSN
+ * and the dirty pages with the LSN from which they need to be redone,
+ * as of some moment after the begin checkpoint record.
+ *
+ * The tables can be larger than a log block, so they are written
+ * in as many records as needed. The last one has the last flag.
+ * |<op><beginLSN><flags><ntx>(<txnum><lastLSN>)*<npages>(<filename><blknum><recLSN>)*|
+ */
 public class CheckpointRecord implements LogRecord {
+  private static final int HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES;
+  private static final int TX_ENTRY_SIZE = 2 * Long.BYTES;
+  private static final int LAST = 1;
+  private long beginLSN;
+  private boolean last;
+  private Map<Long, Long> txs = new HashMap<>();
+  private Map<BlockId, Long> dirtyPages = new HashMap<>();
+
+  public CheckpointRecord(Page p) {
+    int bpos = Integer.BYTES;
+    beginLSN = p.getLong(bpos);
+    int lpos = bpos + Long.BYTES;
+    int flags = p.getInt(lpos);
+    last = (flags & LAST) != 0;
+    int pos = lpos + Integer.BYTES;
+    int ntx = p.getInt(pos);
+    pos += Integer.BYTES;
+    for (int i = 0; i < ntx; i++) {
+      txs.put(p.getLong(pos), p.getLong(pos + Long.BYTES));
+      pos += TX_ENTRY_SIZE;
+    }
+    int npages = p.getInt(pos);
+    pos += Integer.BYTES;
+    for (int i = 0; i < npages; i++) {
+      String filename = p.getString(pos);
+      pos += Page.maxLength(filename.length());
+      BlockId blk = new BlockId(filename, p.getInt(pos));
+      pos += Integer.BYTES;
+      dirtyPages.put(blk, p.getLong(pos));
+      pos += Long.BYTES;
+    }
+  }
 
   public int op() {
     return CHECKPOINT;
   }
 
-  public int txNumber() {
+  public long txNumber() {
+    return -1;
+  }
+
+  public long prevLSN() {
     return -1;
   }
 
-  public void undo(Transaction tx) {
-    // Do nothing. because a checkpoint record
-    // contains no undo information.
+  public long beginLSN() {
+    return beginLSN;
+  }
+
+  public boolean isLast() {
+    return last;
+  }
+
+  public Map<Long, Long> activeTxs() {
+    return txs;
+  }
+
+  public Map<BlockId, Long> dirtyPages() {
+    return dirtyPages;
   }
 
   public String toString() {
-    return "<CHECKPOINT>";
+    return "<CHECKPOINT " + beginLSN + " " + txs + " " + dirtyPages + ">";
   }
 
-  public static int writeToLog(LogMgr lm) {
-    byte[] rec = new byte[Integer.BYTES];
+  /*
+   * Write the tables in one or more records and return the LSN of the last one.
+   */
+  public static long writeToLog(LogMgr lm, long beginLSN, Map<Long, Long> txs, Map<BlockId, Long> dirtyPages) {
+    Map<Long, Long> txchunk = new HashMap<>();
+    Map<BlockId, Long> pagechunk = new HashMap<>();
+    int size = HEADER_SIZE;
+    for (Map.Entry<Long, Long> e : txs.entrySet()) {
+      if (size + TX_ENTRY_SIZE > lm.maxRecordSize()) {
+        writeToLog(lm, beginLSN, false, txchunk, pagechunk);
+        txchunk.clear();
+        size = HEADER_SIZE;
+      }
+      txchunk.put(e.getKey(), e.getValue());
+      size += TX_ENTRY_SIZE;
+    }
+    for (Map.Entry<BlockId, Long> e : dirtyPages.entrySet()) {
+      int entrysize = pageEntrySize(e.getKey());
+      if (size + entrysize > lm.maxRecordSize()) {
+        writeToLog(lm, beginLSN, false, txchunk, pagechunk);
+        txchunk.clear();
+        pagechunk.clear();
+        size = HEADER_SIZE;
+      }
+      pagechunk.put(e.getKey(), e.getValue());
+      size += entrysize;
+    }
+    return writeToLog(lm, beginLSN, true, txchunk, pagechunk);
+  }
+
+  private static long writeToLog(LogMgr lm, long beginLSN, boolean last, Map<Long, Long> txs,
+      Map<BlockId, Long> dirtyPages) {
+    int size = HEADER_SIZE + txs.size() * TX_ENTRY_SIZE;
+    for (BlockId blk : dirtyPages.keySet())
+      size += pageEntrySize(blk);
+    byte[] rec = new byte[size];
     Page p = new Page(rec);
     p.setInt(0, CHECKPOINT);
+    int bpos = Integer.BYTES;
+    p.setLong(bpos, beginLSN);
+    int lpos = bpos + Long.BYTES;
+    p.setInt(lpos, last ? LAST : 0);
+    int pos = lpos + Integer.BYTES;
+    p.setInt(pos, txs.size());
+    pos += Integer.BYTES;
+    for (Map.Entry<Long, Long> e : txs.entrySet()) {
+      p.setLong(pos, e.getKey());
+      p.setLong(pos + Long.BYTES, e.getValue());
+      pos += TX_ENTRY_SIZE;
+    }
+    p.setInt(pos, dirtyPages.size());
+    pos += Integer.BYTES;
+    for (Map.Entry<BlockId, Long> e : dirtyPages.entrySet()) {
+      BlockId blk = e.getKey();
+      p.setString(pos, blk.fileName());
+      pos += Page.maxLength(blk.fileName().length());
+      p.setInt(pos, blk.number());
+      pos += Integer.BYTES;
+      p.setLong(pos, e.getValue());
+      pos += Long.BYTES;
+    }
     return lm.append(rec);
   }
+
+  private static int pageEntrySize(BlockId blk) {
+    return Page.maxLength(blk.fileName().length()) + Integer.BYTES + Long.BYTES;
+  }
 }
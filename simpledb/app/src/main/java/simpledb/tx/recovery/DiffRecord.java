@@ -0,0 +1,224 @@
+package simpledb.tx.recovery;
+
+import java.util.Arrays;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.file.PageUpdate;
+import simpledb.log.LogMgr;
+
+/*
+ * A compact update record that only has the changed byte range of a block:
+ * the bytes before and after the modification, without the bytes that
+ * are the same in both. The record is written in the compact format:
+ * |op|txnum|prevLSN|undoNextLSN|filename|blknum|offset|length|flags|old bytes|new bytes|
+ *
+ * A modification that doesn't fit in a log block is split into
+ * several records of consecutive byte ranges, chained by their prevLSN.
+ * The old bytes are left out of a compensation record, which is never undone,
+ * and of a record whose old bytes are all zero, such as the write of a whole
+ * new block by the bulk loader; the flags tell which.
+ * The flags also tell an XOR or an ADD update, which is undone
+ * from the current bytes of the page (see PageUpdate); the bytes of
+ * an ADD update are logged whole, as an integer.
+ */
+public class DiffRecord implements UpdateRecord {
+  private static final int HAS_OLD = 1;
+  private static final int ZERO_OLD = 2; // the old bytes are zero and not written
+  private static final int XOR = 4;
+  private static final int ADD = 8;
+  private long txnum;
+  private long prevLSN;
+  private long undoNextLSN;
+  private BlockId blk;
+  private int offset;
+  private byte[] oldbytes; // null for a compensation record
+  private byte[] newbytes;
+  private PageUpdate kind = PageUpdate.SET;
+
+  DiffRecord(LogDecoder d) {
+    txnum = d.readVarLong();
+    prevLSN = d.readLSN();
+    undoNextLSN = d.readLSN();
+    String filename = d.readString();
+    blk = new BlockId(filename, d.readVarInt());
+    offset = d.readVarInt();
+    int length = d.readVarInt();
+    int flags = d.readVarInt();
+    if ((flags & HAS_OLD) != 0)
+      oldbytes = d.readBytes(length);
+    else if ((flags & ZERO_OLD) != 0)
+      oldbytes = new byte[length];
+    newbytes = d.readBytes(length);
+    if ((flags & XOR) != 0)
+      kind = PageUpdate.XOR;
+    else if ((flags & ADD) != 0)
+      kind = PageUpdate.ADD;
+  }
+
+  public int op() {
+    return DIFF;
+  }
+
+  public long txNumber() {
+    return txnum;
+  }
+
+  public long prevLSN() {
+    return prevLSN;
+  }
+
+  public long undoNextLSN() {
+    return undoNextLSN;
+  }
+
+  public BlockId block() {
+    return blk;
+  }
+
+  public int offset() {
+    return offset;
+  }
+
+  public byte[] oldBytes() {
+    return oldbytes;
+  }
+
+  public byte[] newBytes() {
+    return newbytes;
+  }
+
+  public PageUpdate kind() {
+    return kind;
+  }
+
+  public String toString() {
+    return "<DIFF " + (kind == PageUpdate.SET ? "" : kind + " ") + txnum + " " + blk + " " + offset + " " + Arrays.toString(oldbytes) + " "
+        + Arrays.toString(newbytes) + ">";
+  }
+
+  public void redo(Page p) {
+    p.setRawBytes(offset, newbytes);
+  }
+
+  public byte[] undoBytes(Page p) {
+    return kind.undoBytes(p, offset, oldbytes, newbytes);
+  }
+
+  public void undo(Page p) {
+    p.setRawBytes(offset, undoBytes(p));
+  }
+
+  public long writeCompensationToLog(LogMgr lm, long prevLSN, byte[] undone) {
+    return writeToLog(lm, txnum, prevLSN, this.prevLSN, blk, offset, null, undone);
+  }
+
+  /*
+   * Return the bytes of the integer as it's written in a page.
+   */
+  public static byte[] bytes(int val) {
+    byte[] b = new byte[Integer.BYTES];
+    new Page(b).setInt(0, val);
+    return b;
+  }
+
+  /*
+   * Return the bytes of the string as it's written in a page.
+   */
+  public static byte[] bytes(String val) {
+    byte[] b = new byte[Integer.BYTES + val.getBytes(Page.CHARSET).length];
+    new Page(b).setString(0, val);
+    return b;
+  }
+
+  /*
+   * Return true if the both bytes are the same, so nothing needs to be logged.
+   */
+  public static boolean isUnchanged(byte[] oldbytes, byte[] newbytes) {
+    return Arrays.equals(oldbytes, newbytes);
+  }
+
+  /*
+   * Write the changed range of the bytes at the offset
+   * and return the LSN of the last record.
+   * The old and the new bytes have the same length;
+   * the old bytes are null for a compensation record.
+   */
+  public static long writeToLog(LogMgr lm, long txnum, long prevLSN, long undoNextLSN, BlockId blk, int offset,
+      byte[] oldbytes, byte[] newbytes) {
+    return writeToLog(lm, txnum, prevLSN, undoNextLSN, blk, offset, oldbytes, newbytes, PageUpdate.SET);
+  }
+
+  /*
+   * Write the update of the given kind.
+   * The compensation record of any kind is a SET update, as it's never undone.
+   */
+  public static long writeToLog(LogMgr lm, long txnum, long prevLSN, long undoNextLSN, BlockId blk, int offset,
+      byte[] oldbytes, byte[] newbytes, PageUpdate kind) {
+    int start = 0;
+    int end = newbytes.length;
+    if (oldbytes != null && kind != PageUpdate.ADD) {
+      start = commonPrefix(oldbytes, newbytes);
+      end -= commonSuffix(oldbytes, newbytes, start);
+    }
+    boolean zero = oldbytes != null && isZero(oldbytes, start, end);
+    int images = (oldbytes != null && !zero) ? 2 : 1;
+    int maxlength = (lm.maxRecordSize() - maxHeaderSize(blk)) / images;
+    long lsn = prevLSN;
+    int pos = start;
+    do {
+      int next = Math.min(end, pos + maxlength);
+      LogEncoder e = new LogEncoder(DIFF);
+      e.writeVarLong(txnum).writeLSN(lsn).writeLSN(undoNextLSN);
+      e.writeString(blk.fileName()).writeVarInt(blk.number());
+      e.writeVarInt(offset + pos).writeVarInt(next - pos);
+      e.writeVarInt((zero ? ZERO_OLD : (oldbytes != null) ? HAS_OLD : 0) | kindFlag(kind));
+      if (oldbytes != null && !zero)
+        e.writeBytes(Arrays.copyOfRange(oldbytes, pos, next));
+      e.writeBytes(Arrays.copyOfRange(newbytes, pos, next));
+      lsn = lm.append(e.toBytes());
+      pos = next;
+    } while (pos < end);
+    return lsn;
+  }
+
+  /*
+   * The largest size of the fields before the bytes:
+   * the op, the flags and up to 5 bytes for an int and 10 bytes for a long.
+   */
+  private static int maxHeaderSize(BlockId blk) {
+    return 2 + 5 + 2 * 10 + 5 + blk.fileName().getBytes(Page.CHARSET).length + 3 * 5;
+  }
+
+  private static int kindFlag(PageUpdate kind) {
+    switch (kind) {
+      case XOR:
+        return XOR;
+      case ADD:
+        return ADD;
+      default:
+        return 0;
+    }
+  }
+
+  private static boolean isZero(byte[] b, int start, int end) {
+    for (int i = start; i < end; i++)
+      if (b[i] != 0)
+        return false;
+    return true;
+  }
+
+  private static int commonPrefix(byte[] a, byte[] b) {
+    int i = 0;
+    while (i < a.length && a[i] == b[i])
+      i++;
+    return i;
+  }
+
+  private static int commonSuffix(byte[] a, byte[] b, int prefix) {
+    int i = 0;
+    while (i < a.length - prefix && a[a.length - 1 - i] == b[b.length - 1 - i])
+      i++;
+    return i;
+  }
+}
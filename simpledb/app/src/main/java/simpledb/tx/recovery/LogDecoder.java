@@ -0,0 +1,81 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.Page;
+
+/*
+ * Read a log record in place, from the page that holds it.
+ * The static methods read the operator and the transaction number
+ * without allocating anything, so the recovery can skip the records
+ * it doesn't need without decoding them.
+ * Both the compact records and the checkpoint record with 4-byte fields are read.
+ */
+public class LogDecoder {
+  private Page p;
+  private int pos;
+
+  LogDecoder(Page p, int pos) {
+    this.p = p;
+    this.pos = pos;
+  }
+
+  /*
+   * Return the operator of the record that starts at the position.
+   */
+  public static int op(Page p, int pos) {
+    byte b = p.getByte(pos);
+    if (isCompact(b))
+      return b & ~LogEncoder.COMPACT & 0xff;
+    return p.getInt(pos);
+  }
+
+  /*
+   * Return the transaction of the record that starts at the position,
+   * or -1 if the record doesn't belong to a transaction.
+   */
+  public static long txNumber(Page p, int pos) {
+    int op = op(p, pos);
+    if (op == LogRecord.CHECKPOINT || op == LogRecord.BEGIN_CHECKPOINT)
+      return -1;
+    return varLong(p, pos + 1);
+  }
+
+  private static long varLong(Page p, int pos) {
+    long n = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = p.getByte(pos++);
+      n |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return n;
+  }
+
+  static boolean isCompact(byte b) {
+    return (b & LogEncoder.COMPACT) != 0;
+  }
+
+  int readVarInt() {
+    return (int) readVarLong();
+  }
+
+  long readVarLong() {
+    long n = varLong(p, pos);
+    pos += LogEncoder.varLongSize(n);
+    return n;
+  }
+
+  long readLSN() {
+    return readVarLong() - 1;
+  }
+
+  String readString() {
+    return new String(readBytes(readVarInt()), Page.CHARSET);
+  }
+
+  byte[] readBytes(int length) {
+    byte[] b = p.getRawBytes(pos, length);
+    pos += length;
+    return b;
+  }
+}
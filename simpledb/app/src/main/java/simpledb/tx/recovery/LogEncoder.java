@@ -0,0 +1,83 @@
+package simpledb.tx.recovery;
+
+import java.util.Arrays;
+
+import simpledb.file.Page;
+
+/*
+ * Build a log record in the compact format.
+ * The first byte is the operator with the highest bit set,
+ * which tells the compact records apart from the checkpoint record
+ * that starts with a 4-byte operator. The numbers are written as varints:
+ * 7 bits per byte from the lowest, and the highest bit is set
+ * if more bytes follow.
+ */
+class LogEncoder {
+  static final int COMPACT = 0x80;
+  private byte[] buf = new byte[32];
+  private int pos = 0;
+
+  LogEncoder(int op) {
+    writeByte(COMPACT | op);
+  }
+
+  LogEncoder writeVarInt(int n) {
+    return writeVarLong(n & 0xffffffffL);
+  }
+
+  LogEncoder writeVarLong(long n) {
+    while ((n & ~0x7fL) != 0) {
+      writeByte((int) ((n & 0x7f) | 0x80));
+      n >>>= 7;
+    }
+    writeByte((int) n);
+    return this;
+  }
+
+  /*
+   * An LSN can be -1, so it's written with 1 added.
+   */
+  LogEncoder writeLSN(long lsn) {
+    return writeVarLong(lsn + 1);
+  }
+
+  LogEncoder writeString(String s) {
+    byte[] b = s.getBytes(Page.CHARSET);
+    writeVarInt(b.length);
+    return writeBytes(b);
+  }
+
+  LogEncoder writeBytes(byte[] b) {
+    ensure(b.length);
+    System.arraycopy(b, 0, buf, pos, b.length);
+    pos += b.length;
+    return this;
+  }
+
+  int size() {
+    return pos;
+  }
+
+  byte[] toBytes() {
+    return Arrays.copyOf(buf, pos);
+  }
+
+  static int varLongSize(long n) {
+    int size = 1;
+    while ((n & ~0x7fL) != 0) {
+      size++;
+      n >>>= 7;
+    }
+    return size;
+  }
+
+  private void writeByte(int b) {
+    ensure(1);
+    buf[pos++] = (byte) b;
+  }
+
+  private void ensure(int n) {
+    if (pos + n > buf.length)
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+  }
+}
@@ -1,39 +1,59 @@
 package simpledb.tx.recovery;
 
 import simpledb.file.Page;
-import simpledb.tx.Transaction;
 
 public interface LogRecord {
   static final int CHECKPOINT = 0;
   static final int START = 1;
   static final int COMMIT = 2;
   static final int ROLLBACK = 3;
-  static final int SETINT = 4;
-  static final int SETSTRING = 5;
+  static final int BEGIN_CHECKPOINT = 6;
+  static final int DIFF = 7;
+  static final int TRUNCATE = 8;
 
   int op();
 
-  int txNumber();
+  long txNumber();
 
-  void undo(Transaction tx);
+  /*
+   * Return the LSN of the previous log record of the same transaction,
+   * or -1 if the record doesn't belong to an undo chain.
+   */
+  long prevLSN();
 
-  static LogRecord createLogRecord(byte[] bytes) {
-    Page p = new Page(bytes);
-    switch (p.getInt(0)) {
-      case CHECKPOINT:
-        return new CheckpointRecord();
+  /*
+   * Return the log record that starts at the position of the log page.
+   * A compact record is decoded in place; the checkpoint record,
+   * the only one with 4-byte fields, is copied out of the page first.
+   */
+  static LogRecord createLogRecord(Page logpage, int pos) {
+    byte b = logpage.getByte(pos);
+    if (LogDecoder.isCompact(b))
+      return createLogRecord(new LogDecoder(logpage, pos + 1), b);
+    Page p = new Page(logpage.getBytes(pos - Integer.BYTES));
+    if (p.getInt(0) == CHECKPOINT)
+      return new CheckpointRecord(p);
+    System.out.println("LogRecord p.getInt: " + p.getInt(0));
+    return null;
+  }
+
+  private static LogRecord createLogRecord(LogDecoder d, byte b) {
+    int op = b & ~LogEncoder.COMPACT & 0xff;
+    switch (op) {
+      case BEGIN_CHECKPOINT:
+        return new BeginCheckpointRecord();
+      case START:
+        return new StartRecord(d.readVarLong());
       case COMMIT:
-        return new CommitRecord(p);
+        return new CommitRecord(d.readVarLong());
       case ROLLBACK:
-        return new RollbackRecord(p);
-      case SETINT:
-        return new SetIntRecord(p);
-      case SETSTRING:
-        return new SetStringRecord(p);
-      case START:
-        return new StartRecord(p);
+        return new RollbackRecord(d.readVarLong());
+      case DIFF:
+        return new DiffRecord(d);
+      case TRUNCATE:
+        return new TruncateRecord(d);
       default:
-        System.out.println("LogRecord p.getInt: " + p.getInt(0));
+        System.out.println("LogRecord op: " + op);
         return null;
     }
   }
@@ -0,0 +1,192 @@
+package simpledb.tx.recovery;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import simpledb.buffer.Buffer;
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+
+/*
+ * Apply the redo records with a pool of worker threads.
+ * The records are partitioned by block: all the records of a block
+ * go to the same worker in LSN order, and different blocks are
+ * redone in parallel. The first reference to a block starts reading
+ * the block into the buffer pool ahead of its worker.
+ * The blocks read ahead and not pinned by a worker yet are limited
+ * to the buffers the workers leave free, so that a read ahead doesn't
+ * push out another one before it's used.
+ */
+class ParallelRedo {
+  private static final int MAX_WORKERS = 4;
+  private static final Object END = new Object();
+  private BufferMgr bm;
+  private Worker[] workers;
+  private Thread[] threads;
+  private ExecutorService prefetcher;
+  private Set<BlockId> seen = new HashSet<>();
+  private Set<BlockId> ahead = ConcurrentHashMap.newKeySet(); // read ahead and not pinned by a worker yet
+  private int maxAhead;
+
+  ParallelRedo(BufferMgr bm) {
+    this.bm = bm;
+    // each worker keeps one buffer pinned, leave one for the prefetch
+    int n = Math.max(1, Math.min(MAX_WORKERS, bm.available() - 1));
+    maxAhead = Math.max(0, bm.available() - n);
+    workers = new Worker[n];
+    threads = new Thread[n];
+    for (int i = 0; i < n; i++) {
+      workers[i] = new Worker();
+      threads[i] = new Thread(workers[i], "redo-" + i);
+      threads[i].start();
+    }
+    prefetcher = Executors.newSingleThreadExecutor();
+  }
+
+  int workerCount() {
+    return workers.length;
+  }
+
+  /*
+   * Queue the record to the worker of its block.
+   * The records must be given in LSN order.
+   */
+  void apply(UpdateRecord rec, long lsn) {
+    BlockId blk = rec.block();
+    if (seen.add(blk) && ahead.size() < maxAhead) {
+      ahead.add(blk);
+      prefetcher.execute(() -> bm.prefetch(blk));
+    }
+    int i = Math.floorMod(blk.hashCode(), workers.length);
+    workers[i].queue.add(new Redo(rec, lsn));
+  }
+
+  /*
+   * Wait until the queued records are applied and the workers
+   * have unpinned their blocks, keeping the workers for the next records.
+   * The pending reads ahead are finished too, so that the caller
+   * can change the files, as the redo of a truncation does.
+   */
+  void barrier() {
+    CountDownLatch done = new CountDownLatch(workers.length);
+    for (Worker w : workers)
+      w.queue.add(done);
+    try {
+      done.await();
+      prefetcher.submit(() -> {
+      }).get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new RuntimeException(e);
+    }
+    ahead.clear();
+  }
+
+  /*
+   * Wait until all the queued records are applied, stop the workers
+   * and return the number of the applied records.
+   */
+  int finish() {
+    prefetcher.shutdown();
+    for (Worker w : workers)
+      w.queue.add(END);
+    int count = 0;
+    RuntimeException error = null;
+    try {
+      for (int i = 0; i < workers.length; i++) {
+        threads[i].join();
+        count += workers[i].count;
+        if (workers[i].error != null)
+          error = workers[i].error;
+      }
+      prefetcher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    if (error != null)
+      throw error;
+    return count;
+  }
+
+  int pages() {
+    return seen.size();
+  }
+
+  private static class Redo {
+    private UpdateRecord rec;
+    private long lsn;
+
+    Redo(UpdateRecord rec, long lsn) {
+      this.rec = rec;
+      this.lsn = lsn;
+    }
+  }
+
+  /*
+   * A worker keeps the current block pinned while
+   * its next records are for the same block.
+   * After an error, the worker skips the rest of its records,
+   * and finish() throws the error.
+   */
+  private class Worker implements Runnable {
+    private BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    private int count = 0;
+    private RuntimeException error;
+
+    public void run() {
+      Buffer buff = null;
+      try {
+        while (true) {
+          Object o = queue.poll();
+          if (o == null) {
+            if (buff != null) {
+              bm.unpin(buff);
+              buff = null;
+            }
+            o = queue.take();
+          }
+          if (o == END)
+            break;
+          if (o instanceof CountDownLatch) {
+            if (buff != null) {
+              bm.unpin(buff);
+              buff = null;
+            }
+            ((CountDownLatch) o).countDown();
+            continue;
+          }
+          if (error != null)
+            continue;
+          Redo r = (Redo) o;
+          try {
+            if (buff != null && !buff.block().equals(r.rec.block())) {
+              bm.unpin(buff);
+              buff = null;
+            }
+            if (buff == null) {
+              buff = bm.pin(r.rec.block());
+              ahead.remove(r.rec.block());
+            }
+            r.rec.redo(buff.contents());
+            buff.setModified(r.rec.txNumber(), r.lsn);
+            count++;
+          } catch (RuntimeException e) {
+            error = e;
+          }
+        }
+      } catch (InterruptedException e) {
+        error = new RuntimeException(e);
+      } finally {
+        if (buff != null)
+          bm.unpin(buff);
+      }
+    }
+  }
+}
@@ -1,95 +1,469 @@
 package simpledb.tx.recovery;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import simpledb.buffer.Buffer;
 import simpledb.buffer.BufferMgr;
 import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.file.PageUpdate;
+import simpledb.log.ForwardLogIterator;
+import simpledb.log.LogIterator;
 import simpledb.log.LogMgr;
+import simpledb.log.LogReader;
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.VersionStore;
 
+/*
+ * Recovery Manager implements the ARIES style undo/redo recovery.
+ * Update records have both the old and the new values, so a commit
+ * only needs to flush the log (no-force), and the recovery
+ * 1. analyzes the log from the last checkpoint to find the active transactions
+ *    and the dirty pages at the crash,
+ * 2. redoes the updates of the dirty pages to repeat the history, and
+ * 3. undoes the transactions that didn't finish, writing compensation records.
+ * Checkpoints are fuzzy: they record the active transactions and the dirty pages
+ * without waiting for the running transactions.
+ */
 public class RecoveryMgr {
+  private static final int REDO_PROGRESS_INTERVAL = 10000;
+  /*
+   * The recovery managers of the running transactions per log,
+   * shared among all Recovery Managers for checkpoints.
+   * Each database has its own log, so a checkpoint only records
+   * the transactions of its database.
+   */
+  private static Map<LogMgr, Map<Long, RecoveryMgr>> activeTxs = Collections.synchronizedMap(new WeakHashMap<>());
+  private Transaction tx;
   private LogMgr lm;
   private BufferMgr bm;
-  private Transaction tx;
-  private int txnum;
+  private VersionStore versionStore;
+  private long txnum;
+  private long firstLSN = -1; // the start record of the transaction
+  private long lastLSN = -1; // the latest log record of the transaction, -1 if finished
+  private long commitLSN = -1;
+  private boolean asyncCommit = false;
+  private boolean unversioned = false; // true if the modifications have no versions
 
-  public RecoveryMgr(Transaction tx, int txnum, LogMgr lm, BufferMgr bm) {
+  public RecoveryMgr(Transaction tx, long txnum, LogMgr lm, BufferMgr bm, VersionStore versionStore) {
     this.tx = tx;
     this.txnum = txnum;
     this.lm = lm;
     this.bm = bm;
-    StartRecord.writeToLog(lm, txnum);
+    this.versionStore = versionStore;
+    activeTxs(lm).put(txnum, this);
+    synchronized (this) {
+      firstLSN = StartRecord.writeToLog(lm, txnum);
+      lastLSN = firstLSN;
+    }
   }
 
+  /*
+   * Write the commit record and flush the log.
+   * The logged modifications are not written to disk;
+   * only the buffers with unlogged modifications are.
+   * With the async commit, the log is not flushed and the commit
+   * becomes durable when the background flusher writes the log.
+   */
   public void commit() {
-    bm.flushAll(txnum);
-    int lsn = CommitRecord.writeToLog(lm, txnum);
-    lm.flush(lsn);
+    bm.flushUnlogged(txnum);
+    synchronized (this) {
+      commitLSN = CommitRecord.writeToLog(lm, txnum);
+      lastLSN = -1;
+    }
+    versionStore.commit(txnum);
+    activeTxs(lm).remove(txnum);
+    if (asyncCommit)
+      lm.flushLater(commitLSN);
+    else
+      lm.flush(commitLSN);
+  }
+
+  /*
+   * Don't wait for the log to be written at commit.
+   * The commits after the last log flush are lost at a crash,
+   * but the database stays consistent because the log is written in order.
+   */
+  public void setAsyncCommit(boolean asyncCommit) {
+    this.asyncCommit = asyncCommit;
+  }
+
+  /*
+   * Return the LSN of the commit record, or -1 if not committed.
+   */
+  public long commitLSN() {
+    return commitLSN;
   }
 
   public void rollback() {
     doRollback();
-    bm.flushAll(txnum);
-    int lsn = RollbackRecord.writeToLog(lm, txnum);
+    versionStore.rollback(txnum);
+    bm.flushUnlogged(txnum);
+    long lsn;
+    synchronized (this) {
+      lsn = RollbackRecord.writeToLog(lm, txnum);
+      lastLSN = -1;
+    }
+    activeTxs(lm).remove(txnum);
     lm.flush(lsn);
   }
 
+  /*
+   * Recover the database from the log and write a checkpoint.
+   * It must be called before the other transactions start.
+   */
   public void recover() {
     doRecover();
-    bm.flushAll(txnum);
-    int lsn = CheckpointRecord.writeToLog(lm);
-    lm.flush(lsn);
+    checkpoint(lm, bm);
   }
 
-  public int setInt(Buffer buff, int offset) {
-    int oldval = buff.contents().getInt(offset);
-    BlockId blk = buff.block();
-    return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+  /*
+   * Write the log record of the modification
+   * before the value is written to the buffer.
+   * Only the changed bytes are logged, and nothing is logged
+   * if the value doesn't change.
+   * The old bytes are also kept in the version store for the snapshots,
+   * unless no snapshot is active.
+   * The caller holds the monitor of the buffer.
+   */
+  public long setInt(Buffer buff, int offset, int newval) {
+    return setBytes(buff, offset, DiffRecord.bytes(newval), PageUpdate.SET);
   }
 
-  public int setString(Buffer buff, int offset) {
-    String oldval = buff.contents().getString(offset);
+  /*
+   * Log the integer as an XOR or an ADD update of the current one,
+   * which is undone from the value it has then.
+   */
+  public long setInt(Buffer buff, int offset, int newval, PageUpdate kind) {
+    return setBytes(buff, offset, DiffRecord.bytes(newval), kind);
+  }
+
+  public long setString(Buffer buff, int offset, String newval) {
+    return setBytes(buff, offset, DiffRecord.bytes(newval), PageUpdate.SET);
+  }
+
+  public long setRawBytes(Buffer buff, int offset, byte[] newbytes) {
+    return setBytes(buff, offset, newbytes, PageUpdate.SET);
+  }
+
+  private synchronized long setBytes(Buffer buff, int offset, byte[] newbytes, PageUpdate kind) {
+    byte[] oldbytes = buff.contents().getRawBytes(offset, newbytes.length);
+    if (DiffRecord.isUnchanged(oldbytes, newbytes))
+      return lastLSN;
     BlockId blk = buff.block();
-    return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
+    buff.setRecLSN(lm.latestLSN());
+    lastLSN = DiffRecord.writeToLog(lm, txnum, lastLSN, -1, blk, offset, oldbytes, newbytes, kind);
+    if (!unversioned)
+      unversioned = !versionStore.addVersion(txnum, blk, offset, oldbytes, newbytes, kind);
+    return lastLSN;
+  }
+
+  /*
+   * Restore the versions of the running transaction from its log records
+   * if it has modified the blocks without keeping their versions.
+   * Called by a snapshot that is beginning.
+   */
+  public static void restoreVersions(LogMgr lm, long txnum) {
+    RecoveryMgr rm = activeTxs(lm).get(txnum);
+    if (rm != null)
+      rm.restoreVersions();
+  }
+
+  /*
+   * Follow the undo chain as the rollback does, and keep the old bytes
+   * of the updates that are not undone yet, from the oldest to the newest.
+   */
+  private synchronized void restoreVersions() {
+    if (!unversioned || lastLSN < 0)
+      return;
+    LogReader reader = lm.reader();
+    Page p = reader.page();
+    List<UpdateRecord> updates = new ArrayList<>();
+    long lsn = lastLSN;
+    while (lsn >= 0) {
+      int pos = reader.read(lsn);
+      if (LogDecoder.op(p, pos) == LogRecord.START)
+        break;
+      UpdateRecord urec = (UpdateRecord) LogRecord.createLogRecord(p, pos);
+      if (urec.isCompensation()) {
+        lsn = urec.undoNextLSN();
+      } else {
+        updates.add(urec);
+        lsn = urec.prevLSN();
+      }
+    }
+    for (int i = updates.size() - 1; i >= 0; i--) {
+      UpdateRecord urec = updates.get(i);
+      versionStore.restoreVersion(txnum, urec.block(), urec.offset(), urec.oldBytes(), urec.newBytes(), urec.kind());
+    }
+    unversioned = false;
+    versionStore.restored(txnum);
+    System.out.println("[RecoveryMgr] restored the versions of transaction " + txnum);
+  }
+
+  /*
+   * Truncate the file and log it. The log record is flushed first,
+   * so that the recovery doesn't redo the updates of the removed blocks
+   * that come before it in the log.
+   */
+  public void truncate(String filename, int nblocks) {
+    long lsn = TruncateRecord.writeToLog(lm, txnum, filename, nblocks);
+    lm.flush(lsn);
+    bm.truncate(filename, nblocks);
   }
 
   /*
-   * iterate through the log records from new to old
-   * if it finds log records in the transaction, it calls undo of the log record
-   * until the start record of the transaction
+   * Write a fuzzy checkpoint.
+   * 1. write the begin checkpoint record
+   * 2. write the dirty buffers so that less pages need to be redone
+   * 3. write the active transactions and the dirty pages
+   * The log segments that are older than the redo point of the dirty pages
+   * and the start of the active transactions are not needed any more.
+   */
+  public static synchronized void checkpoint(LogMgr lm, BufferMgr bm) {
+    long beginLSN = BeginCheckpointRecord.writeToLog(lm);
+    bm.flushDirty();
+    Map<BlockId, Long> dirtyPages = bm.dirtyPages();
+    Map<Long, Long> txs = new HashMap<>();
+    long truncateLSN = beginLSN;
+    for (RecoveryMgr rm : activeTxs(lm).values()) {
+      synchronized (rm) {
+        if (rm.lastLSN >= 0) {
+          txs.put(rm.txnum, rm.lastLSN);
+          truncateLSN = Math.min(truncateLSN, rm.firstLSN);
+        }
+      }
+    }
+    for (long recLSN : dirtyPages.values())
+      truncateLSN = Math.min(truncateLSN, recLSN);
+    long lsn = CheckpointRecord.writeToLog(lm, beginLSN, txs, dirtyPages);
+    lm.flush(lsn);
+    System.out.println("[RecoveryMgr] checkpoint: " + txs.size() + " active transactions, " + dirtyPages.size()
+        + " dirty pages");
+    lm.truncate(truncateLSN);
+  }
+
+  /*
+   * Follow the undo chain of the transaction from its latest log record.
+   * Each update record points to the previous record of the transaction,
+   * so the records of the other transactions are never read.
+   * The chain ends at the start record of the transaction.
    */
   private void doRollback() {
-    Iterator<byte[]> iter = lm.iterator();
-    while (iter.hasNext()) {
-      byte[] bytes = iter.next();
-      LogRecord rec = LogRecord.createLogRecord(bytes);
-      if (rec.txNumber() == txnum) {
-        if (rec.op() == LogRecord.START)
-          return;
-        rec.undo(tx);
+    LogReader reader = lm.reader();
+    Page p = reader.page();
+    long lsn = lastLSN;
+    while (lsn >= 0) {
+      int pos = reader.read(lsn);
+      if (LogDecoder.op(p, pos) == LogRecord.START)
+        return;
+      UpdateRecord urec = (UpdateRecord) LogRecord.createLogRecord(p, pos);
+      if (urec.isCompensation()) {
+        lsn = urec.undoNextLSN();
+      } else {
+        compensate(urec);
+        lsn = urec.prevLSN();
+      }
+    }
+  }
+
+  /*
+   * Undo the update of the rollback. The block may have room again,
+   * such as a block an insert of the transaction has marked as full,
+   * so it's marked free in the free space map of its file.
+   */
+  private synchronized void compensate(UpdateRecord rec) {
+    lastLSN = undo(rec, lastLSN);
+    BlockId blk = rec.block();
+    tx.freeSpaceMap(blk.fileName()).markFree(blk.number());
+  }
+
+  /*
+   * Undo the update by writing its compensation record
+   * and restoring the old value in the buffer.
+   * Return the LSN of the compensation record.
+   * The value is computed and logged under the monitor of the buffer,
+   * so that an XOR or an ADD update of another transaction comes
+   * either before it or after it both in the page and in the log.
+   */
+  private long undo(UpdateRecord rec, long prevLSN) {
+    Buffer buff = bm.pin(rec.block());
+    buff.setRecLSN(lm.latestLSN());
+    long lsn;
+    synchronized (buff) {
+      byte[] undone = rec.undoBytes(buff.contents());
+      lsn = rec.writeCompensationToLog(lm, prevLSN, undone);
+      long stamp = buff.latch().lockExclusive();
+      try {
+        buff.contents().setRawBytes(rec.offset(), undone);
+      } finally {
+        buff.latch().unlockExclusive(stamp);
       }
     }
+    buff.setModified(rec.txNumber(), lsn);
+    bm.unpin(buff);
+    return lsn;
   }
 
   /*
-   * it reads log records until it hits a quiescent checkpoint or reaches the end of the log
-   * it undoes uncommited update records
+   * Analysis, redo and undo passes.
+   * The log records from the start record of the recovering transaction
+   * belong to this run, so the passes stop there.
    */
   private void doRecover() {
-    Collection<Integer> finishedTxs = new ArrayList<>();
-    Iterator<byte[]> iter = lm.iterator();
+    Map<Long, Long> txs = new HashMap<>();
+    Map<BlockId, Long> dirtyPages = new HashMap<>();
+    long beginLSN = readCheckpoint(txs, dirtyPages);
+    analyze(beginLSN, txs, dirtyPages);
+    System.out.println("[RecoveryMgr] analysis from " + beginLSN + ": " + txs.size() + " active transactions, "
+        + dirtyPages.size() + " dirty pages");
+    redo(dirtyPages);
+    for (Map.Entry<Long, Long> e : txs.entrySet())
+      undo(e.getKey(), e.getValue());
+  }
+
+  /*
+   * Read the latest complete checkpoint from the end of the log
+   * and return the LSN of its begin checkpoint record,
+   * or 0 to analyze the whole log if there is no checkpoint.
+   * The records of the checkpoint are between the end of the log
+   * and its begin checkpoint record, so the reading stops there.
+   */
+  private long readCheckpoint(Map<Long, Long> txs, Map<BlockId, Long> dirtyPages) {
+    long beginLSN = -1;
+    LogIterator iter = lm.iterator();
+    while (iter.hasNext()) {
+      int pos = iter.advance();
+      if (beginLSN >= 0 && iter.lsn() <= beginLSN)
+        break;
+      if (LogDecoder.op(iter.page(), pos) != LogRecord.CHECKPOINT)
+        continue;
+      CheckpointRecord ckpt = (CheckpointRecord) LogRecord.createLogRecord(iter.page(), pos);
+      if (beginLSN < 0 && ckpt.isLast())
+        beginLSN = ckpt.beginLSN();
+      if (beginLSN >= 0 && ckpt.beginLSN() == beginLSN) {
+        txs.putAll(ckpt.activeTxs());
+        dirtyPages.putAll(ckpt.dirtyPages());
+      }
+    }
+    return Math.max(beginLSN, 0);
+  }
+
+  /*
+   * Read the log forward from the checkpoint to update
+   * the active transactions and the dirty pages.
+   */
+  private void analyze(long beginLSN, Map<Long, Long> txs, Map<BlockId, Long> dirtyPages) {
+    ForwardLogIterator iter = lm.forwardIterator(beginLSN);
     while (iter.hasNext()) {
-      byte[] bytes = iter.next();
-      LogRecord rec = LogRecord.createLogRecord(bytes);
-      if (rec.op() == LogRecord.CHECKPOINT)
+      int pos = iter.advance();
+      long lsn = iter.lsn();
+      if (lsn >= firstLSN)
         return;
-      if (rec.op() == LogRecord.COMMIT || rec.op() == LogRecord.ROLLBACK)
-        finishedTxs.add(rec.txNumber());
-      else if (!finishedTxs.contains(rec.txNumber()))
-        rec.undo(tx);
+      Page p = iter.page();
+      switch (LogDecoder.op(p, pos)) {
+        case LogRecord.START:
+          txs.put(LogDecoder.txNumber(p, pos), lsn);
+          break;
+        case LogRecord.COMMIT:
+        case LogRecord.ROLLBACK:
+          txs.remove(LogDecoder.txNumber(p, pos));
+          break;
+        case LogRecord.DIFF:
+          UpdateRecord rec = (UpdateRecord) LogRecord.createLogRecord(p, pos);
+          txs.put(rec.txNumber(), lsn);
+          dirtyPages.putIfAbsent(rec.block(), lsn);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /*
+   * Repeat the history: apply the updates to the dirty pages
+   * from the smallest LSN of the dirty page table.
+   * The updates write physical values, so applying an update that
+   * is already on the disk does no harm.
+   * The log is read by this thread and the updates are applied
+   * by the redo workers in parallel for different blocks.
+   * A truncation waits for the updates before it to be applied
+   * and is repeated before the updates after it.
+   */
+  private void redo(Map<BlockId, Long> dirtyPages) {
+    if (dirtyPages.isEmpty())
+      return;
+    long redoLSN = Long.MAX_VALUE;
+    for (long recLSN : dirtyPages.values())
+      redoLSN = Math.min(redoLSN, recLSN);
+    long start = System.currentTimeMillis();
+    int scanned = 0;
+    ParallelRedo workers = new ParallelRedo(bm);
+    ForwardLogIterator iter = lm.forwardIterator(redoLSN);
+    while (iter.hasNext()) {
+      int pos = iter.advance();
+      long lsn = iter.lsn();
+      if (lsn >= firstLSN)
+        break;
+      if (++scanned % REDO_PROGRESS_INTERVAL == 0)
+        System.out.println("[RecoveryMgr] redo progress: " + scanned + " records, lsn " + lsn + " of " + firstLSN);
+      int op = LogDecoder.op(iter.page(), pos);
+      if (op == LogRecord.TRUNCATE) {
+        TruncateRecord trec = (TruncateRecord) LogRecord.createLogRecord(iter.page(), pos);
+        workers.barrier();
+        bm.truncate(trec.fileName(), trec.blocks());
+        continue;
+      }
+      if (!isUpdate(op))
+        continue;
+      UpdateRecord urec = (UpdateRecord) LogRecord.createLogRecord(iter.page(), pos);
+      Long recLSN = dirtyPages.get(urec.block());
+      if (recLSN == null || lsn < recLSN)
+        continue;
+      workers.apply(urec, lsn);
+    }
+    int count = workers.finish();
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    System.out.println("[RecoveryMgr] redo from " + redoLSN + ": " + count + " updates on " + workers.pages()
+        + " pages by " + workers.workerCount() + " workers in " + elapsed + " ms (" + (scanned * 1000L / elapsed)
+        + " records/s)");
+  }
+
+  private static Map<Long, RecoveryMgr> activeTxs(LogMgr lm) {
+    return activeTxs.computeIfAbsent(lm, k -> new ConcurrentHashMap<>());
+  }
+
+  private static boolean isUpdate(int op) {
+    return op == LogRecord.DIFF;
+  }
+
+  /*
+   * Roll back a transaction that was active at the crash
+   * and write its rollback record.
+   */
+  private void undo(long txnum, long lastLSN) {
+    LogReader reader = lm.reader();
+    Page p = reader.page();
+    long lsn = lastLSN;
+    while (lsn >= 0) {
+      int pos = reader.read(lsn);
+      if (LogDecoder.op(p, pos) == LogRecord.START)
+        break;
+      UpdateRecord urec = (UpdateRecord) LogRecord.createLogRecord(p, pos);
+      if (urec.isCompensation()) {
+        lsn = urec.undoNextLSN();
+      } else {
+        lastLSN = undo(urec, lastLSN);
+        lsn = urec.prevLSN();
+      }
     }
+    RollbackRecord.writeToLog(lm, txnum);
+    System.out.println("[RecoveryMgr] rolled back transaction " + txnum);
   }
 }
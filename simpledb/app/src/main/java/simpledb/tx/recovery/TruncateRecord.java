@@ -0,0 +1,51 @@
+package simpledb.tx.recovery;
+
+import simpledb.log.LogMgr;
+
+/*
+ * The truncation of a file to a number of blocks.
+ * It's not undone, as only empty blocks are removed,
+ * so it's not in the undo chain of its transaction.
+ * The redo repeats it in the order of the log, so that the updates
+ * of the removed blocks before it don't come back.
+ */
+public class TruncateRecord implements LogRecord {
+  private long txnum;
+  private String filename;
+  private int nblocks;
+
+  TruncateRecord(LogDecoder d) {
+    txnum = d.readVarLong();
+    filename = d.readString();
+    nblocks = d.readVarInt();
+  }
+
+  public int op() {
+    return TRUNCATE;
+  }
+
+  public long txNumber() {
+    return txnum;
+  }
+
+  public long prevLSN() {
+    return -1;
+  }
+
+  public String fileName() {
+    return filename;
+  }
+
+  public int blocks() {
+    return nblocks;
+  }
+
+  public String toString() {
+    return "<TRUNCATE " + txnum + " " + filename + " " + nblocks + ">";
+  }
+
+  public static long writeToLog(LogMgr lm, long txnum, String filename, int nblocks) {
+    byte[] rec = new LogEncoder(TRUNCATE).writeVarLong(txnum).writeString(filename).writeVarInt(nblocks).toBytes();
+    return lm.append(rec);
+  }
+}
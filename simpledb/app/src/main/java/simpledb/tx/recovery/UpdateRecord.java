@@ -0,0 +1,66 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.BlockId;
+import simpledb.file.Page;
+import simpledb.file.PageUpdate;
+import simpledb.log.LogMgr;
+
+/*
+ * A log record of a modification of a block.
+ * It has both the old value (to undo) and the new value (to redo).
+ *
+ * A compensation log record (CLR) is written when an update is undone.
+ * It's redone like the other updates but never undone; its undoNextLSN
+ * points to the next record of the transaction that still needs to be undone.
+ */
+public interface UpdateRecord extends LogRecord {
+
+  BlockId block();
+
+  int offset();
+
+  /*
+   * Return the old value, or null for a compensation log record.
+   */
+  byte[] oldBytes();
+
+  byte[] newBytes();
+
+  /*
+   * Return how the update is undone: by writing the old value back,
+   * or from the current value of the page.
+   */
+  PageUpdate kind();
+
+  /*
+   * Return the LSN of the next record to undo if this is a
+   * compensation log record, or -1 otherwise.
+   */
+  long undoNextLSN();
+
+  default boolean isCompensation() {
+    return undoNextLSN() >= 0;
+  }
+
+  /*
+   * Write the new value to the page.
+   */
+  void redo(Page p);
+
+  /*
+   * Return the value that undoes the update, given the current page.
+   */
+  byte[] undoBytes(Page p);
+
+  /*
+   * Write the value that undoes the update to the page.
+   */
+  void undo(Page p);
+
+  /*
+   * Write the compensation log record that undoes this update.
+   * Its new value is the one that undoes the update, and the undoNextLSN
+   * is the previous record of this update.
+   */
+  long writeCompensationToLog(LogMgr lm, long prevLSN, byte[] undone);
+}
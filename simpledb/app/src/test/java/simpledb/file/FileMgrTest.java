@@ -0,0 +1,71 @@
+package simpledb.file;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileMgrTest {
+  private static final int BLOCK_SIZE = 400;
+
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, BLOCK_SIZE);
+  }
+
+  /*
+   * The cached size follows the appends, the writes past the end
+   * and the truncations, and agrees with the size of the file on disk.
+   */
+  @Test
+  public void testSizeCache() {
+    assertEquals(0, fm.length("size.tbl"));
+    for (int i = 0; i < 3; i++)
+      fm.append("size.tbl");
+    assertSize("size.tbl", 3);
+
+    fm.write(new BlockId("size.tbl", 5), new Page(BLOCK_SIZE)); // past the end, like a redo
+    assertSize("size.tbl", 6);
+    fm.write(new BlockId("size.tbl", 1), new Page(BLOCK_SIZE));
+    assertSize("size.tbl", 6);
+
+    fm.truncate("size.tbl", 2);
+    assertSize("size.tbl", 2);
+    assertEquals(2, fm.append("size.tbl").number());
+    assertSize("size.tbl", 3);
+    assertEquals(3, new FileMgr(dbDirectory, BLOCK_SIZE).length("size.tbl")); // read from the file
+  }
+
+  /*
+   * A renamed file has the size of the old file under its new name,
+   * and the old name has no blocks; a deleted file has no blocks either.
+   */
+  @Test
+  public void testSizeAfterRenameAndDelete() {
+    for (int i = 0; i < 4; i++)
+      fm.append("from.tbl");
+    fm.append("to.tbl");
+    assertEquals(1, fm.length("to.tbl"));
+
+    fm.rename("from.tbl", "to.tbl");
+    assertSize("to.tbl", 4);
+    assertEquals(0, fm.length("from.tbl"));
+
+    fm.delete("to.tbl");
+    assertEquals(0, fm.length("to.tbl"));
+    assertEquals(0, fm.append("to.tbl").number());
+  }
+
+  private void assertSize(String filename, int nblocks) {
+    assertEquals(nblocks, fm.length(filename));
+    assertEquals((long) nblocks * BLOCK_SIZE, new File(dbDirectory, filename).length());
+  }
+}
@@ -0,0 +1,65 @@
+package simpledb.file;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class PageLatchTest {
+  /*
+   * A read waits while a write holds the latch,
+   * and reads the written value after it.
+   */
+  @Test
+  public void testReadWaitsForWrite() throws InterruptedException {
+    PageLatch latch = new PageLatch();
+    Page p = new Page(400);
+    long stamp = latch.lockExclusive();
+    p.setInt(0, 1);
+    AtomicInteger read = new AtomicInteger(-1);
+    Thread reader = new Thread(() -> read.set(latch.getInt(p, 0)));
+    reader.start();
+    while (reader.getState() != Thread.State.WAITING)
+      Thread.sleep(10);
+    p.setInt(0, 2);
+    latch.unlockExclusive(stamp);
+    reader.join();
+    assertEquals(2, read.get());
+  }
+
+  /*
+   * The optimistic reads never return a value in the middle of a write:
+   * the two integers written together are read together,
+   * and a string is one of the strings written.
+   */
+  @Test
+  public void testOptimisticReads() throws InterruptedException {
+    PageLatch latch = new PageLatch();
+    Page p = new Page(400);
+    Set<String> strings = Set.of("", "a", "abcdefghijklmnopqrstuvwxyz");
+    p.setString(100, "");
+    AtomicBoolean done = new AtomicBoolean(false);
+    Thread writer = new Thread(() -> {
+      String[] vals = strings.toArray(new String[0]);
+      for (int i = 0; i < 100000; i++) {
+        long stamp = latch.lockExclusive();
+        p.setInt(0, i);
+        p.setInt(4, i);
+        p.setString(100, vals[i % vals.length]);
+        latch.unlockExclusive(stamp);
+      }
+      done.set(true);
+    });
+    writer.start();
+    do {
+      Page ints = new Page(latch.getRawBytes(p, 0, 8));
+      assertEquals(ints.getInt(0), ints.getInt(4));
+      assertTrue(strings.contains(latch.getString(p, 100)));
+    } while (!done.get());
+    writer.join();
+  }
+}
@@ -0,0 +1,175 @@
+package simpledb.index.planner;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.index.Index;
+import simpledb.log.LogMgr;
+import simpledb.metadata.MetadataMgr;
+import simpledb.plan.BasicQueryPlanner;
+import simpledb.plan.Planner;
+import simpledb.query.Constant;
+import simpledb.query.Scan;
+import simpledb.record.TableScan;
+import simpledb.tx.Transaction;
+
+public class IndexUpdatePlannerTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+  private LogMgr lm;
+  private BufferMgr bm;
+  private MetadataMgr mdm;
+  private Planner planner;
+
+  @BeforeEach
+  public void setUp() {
+    open(true);
+  }
+
+  /*
+   * SQL: copy tbl1 from 'tbl1.csv'
+   * The rows loaded by a COPY that rolls back are removed from the table
+   * and from its index.
+   */
+  @Test
+  public void testCopyRollback() throws IOException {
+    Transaction tx = new Transaction(fm, lm, bm);
+    planner.executeUpdate("create table tbl1 (fld1 int, fld2 varchar(10))", tx);
+    planner.executeUpdate("create index idx1 on tbl1 (fld1)", tx);
+    tx.commit();
+    String copy = copyCommand();
+
+    tx = new Transaction(fm, lm, bm);
+    assertEquals(500, planner.executeUpdate(copy, tx));
+    tx.commit();
+    assertEquals(500, count("select fld1 from tbl1"));
+    assertEquals(List.of("v234"), lookup(234));
+
+    tx = new Transaction(fm, lm, bm);
+    assertEquals(500, planner.executeUpdate(copy, tx));
+    tx.rollback();
+    assertEquals(500, count("select fld1 from tbl1"));
+    assertEquals(List.of("v234"), lookup(234));
+
+    tx = new Transaction(fm, lm, bm);
+    assertEquals(500, planner.executeUpdate(copy, tx));
+    tx.commit();
+    assertEquals(1000, count("select fld1 from tbl1"));
+    assertEquals(List.of("v234", "v234"), lookup(234));
+  }
+
+  /*
+   * The loaded blocks are written at the commit instead of being logged,
+   * so the rows are there after a crash without their pages in the log.
+   */
+  @Test
+  public void testCopyRecovery() throws IOException {
+    Transaction tx = new Transaction(fm, lm, bm);
+    planner.executeUpdate("create table tbl1 (fld1 int, fld2 varchar(10))", tx);
+    planner.executeUpdate("create index idx1 on tbl1 (fld1)", tx);
+    tx.commit();
+    tx = new Transaction(fm, lm, bm);
+    assertEquals(500, planner.executeUpdate(copyCommand(), tx));
+    tx.commit();
+
+    open(false); // crash without writing the buffers
+    assertEquals(500, count("select fld1 from tbl1"));
+    assertEquals(List.of("v234"), lookup(234));
+  }
+
+  /*
+   * A string longer than its field stops the COPY with the line number,
+   * and the rollback removes the rows loaded before it.
+   */
+  @Test
+  public void testCopyTooLong() throws IOException {
+    Transaction tx = new Transaction(fm, lm, bm);
+    planner.executeUpdate("create table tbl1 (fld1 int, fld2 varchar(10))", tx);
+    tx.commit();
+    File csv = new File(dbDirectory, "long.csv");
+    try (PrintWriter w = new PrintWriter(csv)) {
+      w.println("1,short");
+      w.println("2,\"longer than ten\"");
+    }
+
+    Transaction tx2 = new Transaction(fm, lm, bm);
+    RuntimeException e = assertThrows(RuntimeException.class,
+        () -> planner.executeUpdate("copy tbl1 from '" + csv.getPath() + "'", tx2));
+    assertEquals("cannot copy line 2 of " + csv.getPath() + ": longer than ten is longer than 10", e.getMessage());
+    tx2.rollback();
+    assertEquals(0, count("select fld1 from tbl1"));
+  }
+
+  /*
+   * Open the database, recovering it if it exists.
+   */
+  private void open(boolean isnew) {
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "simpledb.log");
+    bm = new BufferMgr(fm, lm, 64);
+    Transaction tx = new Transaction(fm, lm, bm);
+    if (!isnew)
+      tx.recover();
+    mdm = new MetadataMgr(isnew, tx);
+    planner = new Planner(new BasicQueryPlanner(mdm), new IndexUpdatePlanner(mdm));
+    tx.commit();
+  }
+
+  /*
+   * Write 500 rows of (i, 'vi') to a CSV file and return the COPY command.
+   */
+  private String copyCommand() throws IOException {
+    File csv = new File(dbDirectory, "tbl1.csv");
+    try (PrintWriter w = new PrintWriter(csv)) {
+      for (int i = 0; i < 500; i++)
+        w.println(i + ",\"v" + i + "\"");
+    }
+    return "copy tbl1 from '" + csv.getPath() + "'";
+  }
+
+  private int count(String qry) {
+    Transaction tx = new Transaction(fm, lm, bm);
+    Scan s = planner.createQueryPlan(qry, tx).open();
+    int count = 0;
+    while (s.next())
+      count++;
+    s.close();
+    tx.commit();
+    return count;
+  }
+
+  /*
+   * Find the records of the key through the index of fld1
+   * and return their fld2 values.
+   */
+  private List<String> lookup(int key) {
+    Transaction tx = new Transaction(fm, lm, bm);
+    TableScan ts = new TableScan(tx, "tbl1", mdm.getLayout("tbl1", tx));
+    Index idx = mdm.getIndexInfo("tbl1", tx).get("fld1").open();
+    List<String> vals = new ArrayList<>();
+    idx.beforeFirst(new Constant(key));
+    while (idx.next()) {
+      ts.moveToRid(idx.getDataRid());
+      assertEquals(key, ts.getInt("fld1"));
+      vals.add(ts.getString("fld2"));
+    }
+    idx.close();
+    ts.close();
+    tx.commit();
+    return vals;
+  }
+}
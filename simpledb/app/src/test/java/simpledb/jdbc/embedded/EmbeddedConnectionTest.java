@@ -0,0 +1,53 @@
+package simpledb.jdbc.embedded;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.server.SimpleDB;
+
+public class EmbeddedConnectionTest {
+  @TempDir
+  File dbDirectory;
+
+  /*
+   * A connection switched to read-only runs its queries in read-only
+   * transactions, which write nothing to the log, and rejects the updates.
+   */
+  @Test
+  public void testReadOnly() throws SQLException {
+    SimpleDB db = new SimpleDB(new File(dbDirectory, "db").getPath());
+    EmbeddedConnection conn = new EmbeddedConnection(db);
+    Statement stmt = conn.createStatement();
+    stmt.executeUpdate("create table T (A int)");
+    stmt.executeUpdate("insert into T (A) values (1)");
+
+    conn.setReadOnly(true);
+    assertTrue(conn.isReadOnly());
+    long lsn = db.logMgr().latestLSN();
+    ResultSet rs = stmt.executeQuery("select A from T");
+    assertTrue(rs.next());
+    assertEquals(1, rs.getInt("A"));
+    assertFalse(rs.next());
+    assertThrows(SQLException.class, () -> stmt.executeUpdate("insert into T (A) values (2)"));
+    assertEquals(lsn, db.logMgr().latestLSN());
+
+    conn.setReadOnly(false);
+    stmt.executeUpdate("insert into T (A) values (2)");
+    rs = stmt.executeQuery("select A from T");
+    int count = 0;
+    while (rs.next())
+      count++;
+    assertEquals(2, count);
+    conn.close();
+  }
+}
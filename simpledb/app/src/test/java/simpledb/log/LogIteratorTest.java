@@ -0,0 +1,120 @@
+package simpledb.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+public class LogIteratorTest {
+  private static final int RECORD_SIZE = 40; // 8 records in a block
+
+  @TempDir
+  File dbDirectory;
+
+  private CountingFileMgr fm;
+
+  /*
+   * Count the reads of consecutive blocks done by the read-ahead.
+   */
+  static class CountingFileMgr extends FileMgr {
+    int batches = 0;
+
+    CountingFileMgr(File dbDirectory, int blocksize) {
+      super(dbDirectory, blocksize);
+    }
+
+    @Override
+    public synchronized void read(BlockId blk, Page p, int nblocks) {
+      batches++;
+      super.read(blk, p, nblocks);
+    }
+  }
+
+  @BeforeEach
+  public void setUp() {
+    fm = new CountingFileMgr(dbDirectory, 400);
+  }
+
+  /*
+   * The 25 blocks are read backwards in batches of READ_AHEAD_BLOCKS blocks.
+   */
+  @Test
+  public void testBackwardReadAhead() {
+    LogMgr lm = new LogMgr(fm, "test.log");
+    long[] lsns = append(lm, 200);
+    fm.batches = 0;
+    LogIterator iter = lm.iterator();
+    for (int i = 199; i >= 0; i--) {
+      int pos = iter.advance();
+      assertEquals(i, iter.page().getInt(pos));
+      assertEquals(lsns[i], iter.lsn());
+    }
+    assertFalse(iter.hasNext());
+    assertEquals((25 + LogMgr.READ_AHEAD_BLOCKS - 1) / LogMgr.READ_AHEAD_BLOCKS, fm.batches);
+  }
+
+  /*
+   * The forward iterator starts from the record at the LSN,
+   * and its batches never cross the end of a segment.
+   */
+  @Test
+  public void testForwardAcrossSegments() {
+    LogMgr lm = new LogMgr(fm, "test.log", 4);
+    long[] lsns = append(lm, 100); // 13 blocks in 4 segments
+    fm.batches = 0;
+    ForwardLogIterator iter = lm.forwardIterator(lsns[50]);
+    for (int i = 50; i < 100; i++) {
+      int pos = iter.advance();
+      assertEquals(i, iter.page().getInt(pos));
+      assertEquals(lsns[i], iter.lsn());
+    }
+    assertFalse(iter.hasNext());
+    assertEquals(3, fm.batches); // blocks 6-7, 8-11 and 12
+  }
+
+  /*
+   * The reader finds the records at their LSNs from new to old,
+   * including the records of the current block that is not flushed.
+   */
+  @Test
+  public void testReader() {
+    LogMgr lm = new LogMgr(fm, "test.log", 4);
+    long[] lsns = append(lm, 100);
+    lm.flush(lsns[95]);
+    lsns = appendMore(lm, lsns, 3); // in the current block, not on disk
+    LogReader reader = lm.reader();
+    fm.batches = 0;
+    for (int i = lsns.length - 1; i >= 0; i--) {
+      int pos = reader.read(lsns[i]);
+      assertEquals(i, reader.page().getInt(pos));
+      assertEquals(i, new Page(lm.read(lsns[i])).getInt(0));
+    }
+    assertEquals(3, fm.batches); // one batch for each segment on disk
+  }
+
+  private long[] append(LogMgr lm, int count) {
+    return appendMore(lm, new long[0], count);
+  }
+
+  /*
+   * Append the records of the next values and return the LSNs of all the records.
+   */
+  private long[] appendMore(LogMgr lm, long[] lsns, int count) {
+    long[] result = Arrays.copyOf(lsns, lsns.length + count);
+    for (int i = lsns.length; i < result.length; i++) {
+      byte[] b = new byte[RECORD_SIZE];
+      new Page(b).setInt(0, i);
+      result[i] = lm.append(b);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,144 @@
+package simpledb.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+public class LogMgrTest {
+  private static final int SEGMENT_BLOCKS = 4;
+  private static final int RECORD_SIZE = 40; // 8 records in a block, 32 in a segment
+
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, 400);
+  }
+
+  /*
+   * The segments before a checkpoint are kept as spares up to two
+   * and the others are removed. The next segments are the recycled spares,
+   * so the number of the log files stays the same.
+   */
+  @Test
+  public void testRecycleSegments() {
+    LogMgr lm = new LogMgr(fm, "test.log", SEGMENT_BLOCKS);
+    long lsn = append(lm, 0, 200);
+    assertEquals(7, lm.segmentCount());
+
+    lm.truncate(lsn);
+    assertEquals(1, lm.segmentCount());
+    assertEquals(List.of("test.log.6"), fm.filenames("test.log.6"));
+    assertEquals(2, fm.filenames("test.log.spare.").size());
+    assertEquals(3, fm.filenames("test.log.").size());
+    assertEquals((1 + 2 * SEGMENT_BLOCKS) * fm.blockSize(), lm.diskUsage());
+
+    append(lm, 200, 80); // two more segments
+    assertEquals(3, lm.segmentCount());
+    assertEquals(0, fm.filenames("test.log.spare.").size());
+    assertEquals(3, fm.filenames("test.log.").size());
+    assertRecords(lm, 279, 192);
+  }
+
+  /*
+   * A recycled segment still has the blocks of its old segment after
+   * the blocks written so far. They have the old segment number in the header,
+   * so the log restarts from the last block written to the segment.
+   */
+  @Test
+  public void testRestartInRecycledSegment() {
+    LogMgr lm = new LogMgr(fm, "test.log", SEGMENT_BLOCKS);
+    long lsn = append(lm, 0, 100);
+    lm.truncate(lsn);
+    lsn = append(lm, 100, 30); // the next segment is a spare with 4 old blocks
+    lm.flush(lsn);
+
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "test.log", SEGMENT_BLOCKS);
+    assertEquals(2, lm.segmentCount());
+    assertEquals(lsn, lm.latestLSN());
+    assertRecords(lm, 129, 96);
+    assertTrue(append(lm, 130, 1) > lsn);
+    assertRecords(lm, 130, 96);
+  }
+
+  /*
+   * The files that start with the name of the log but are not
+   * its segments or spares are left alone.
+   */
+  @Test
+  public void testOtherFiles() throws IOException {
+    assertTrue(new File(dbDirectory, "test.log.bak").createNewFile());
+    assertTrue(new File(dbDirectory, "test.log.spare.old").createNewFile());
+    LogMgr lm = new LogMgr(fm, "test.log", SEGMENT_BLOCKS);
+    append(lm, 0, 10);
+    assertEquals(1, lm.segmentCount());
+    assertRecords(lm, 9, 0);
+    assertTrue(new File(dbDirectory, "test.log.bak").exists());
+  }
+
+  /*
+   * Waiting for a record that was never asked to be flushed later
+   * returns once the flusher writes it, as it does without the flusher.
+   */
+  @Test
+  public void testWaitForDurable() throws InterruptedException {
+    LogMgr lm = new LogMgr(fm, "test.log", SEGMENT_BLOCKS);
+    long lsn = append(lm, 0, 3);
+    assertTrue(lm.durableLSN() < lsn);
+    lm.waitForDurable(lsn);
+    assertTrue(lm.durableLSN() >= lsn);
+
+    lm.startFlusher(10);
+    long lsn2 = append(lm, 3, 3);
+    assertTrue(lm.durableLSN() < lsn2);
+    Thread waiter = new Thread(() -> lm.waitForDurable(lsn2));
+    waiter.start();
+    waiter.join(5000);
+    assertFalse(waiter.isAlive());
+    assertTrue(lm.durableLSN() >= lsn2);
+  }
+
+  /*
+   * Append the records of the values from the given one,
+   * and return the LSN of the last one.
+   */
+  private long append(LogMgr lm, int from, int count) {
+    long lsn = -1;
+    for (int i = from; i < from + count; i++) {
+      byte[] b = new byte[RECORD_SIZE];
+      new Page(b).setInt(0, i);
+      lsn = lm.append(b);
+    }
+    return lsn;
+  }
+
+  /*
+   * Check that the log has the records of the values
+   * from the newest one down to the oldest one.
+   */
+  private void assertRecords(LogMgr lm, int newest, int oldest) {
+    Iterator<byte[]> iter = lm.iterator();
+    int expected = newest;
+    while (iter.hasNext()) {
+      assertEquals(expected, new Page(iter.next()).getInt(0));
+      expected--;
+    }
+    assertEquals(oldest - 1, expected);
+  }
+}
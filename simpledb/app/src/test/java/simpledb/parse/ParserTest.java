@@ -4,6 +4,7 @@ import static java.sql.Types.INTEGER;
 import static java.sql.Types.VARCHAR;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Arrays;
@@ -14,6 +15,7 @@ import simpledb.query.Constant;
 import simpledb.query.Expression;
 import simpledb.query.Predicate;
 import simpledb.query.Term;
+import simpledb.record.RecordFormat;
 
 public class ParserTest {
   @Test
@@ -135,6 +137,33 @@ public class ParserTest {
     assertEquals(0, createTableData.newSchema().length("a"));
     assertEquals(VARCHAR, createTableData.newSchema().type("b"));
     assertEquals(20, createTableData.newSchema().length("b"));
+    assertNull(createTableData.format());
+  }
+
+  @Test
+  public void testParseCreateTableUsingFormat() {
+    String s = "create table tbl (a int, b varchar(20)) using pax";
+    Parser p = new Parser(s);
+    CreateTableData createTableData = (CreateTableData) p.updateCmd();
+    assertEquals("tbl", createTableData.tableName());
+    assertEquals(RecordFormat.PAX, createTableData.format());
+  }
+
+  @Test
+  public void testParseCopy() {
+    String s = "copy tbl from '/tmp/tbl.csv'";
+    Parser p = new Parser(s);
+    CopyData copyData = (CopyData) p.updateCmd();
+    assertEquals("tbl", copyData.tableName());
+    assertEquals("/tmp/tbl.csv", copyData.fileName());
+  }
+
+  @Test
+  public void testParseVacuum() {
+    String s = "vacuum tbl";
+    Parser p = new Parser(s);
+    VacuumData vacuumData = (VacuumData) p.updateCmd();
+    assertEquals("tbl", vacuumData.tableName());
   }
 
   @Test
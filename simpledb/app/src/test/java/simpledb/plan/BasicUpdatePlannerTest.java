@@ -12,6 +12,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import simpledb.file.BlockId;
+import simpledb.file.FreeSpaceMap;
 import simpledb.metadata.MetadataMgr;
 import simpledb.metadata.StatInfo;
 import simpledb.parse.CreateIndexData;
@@ -44,6 +45,9 @@ public class BasicUpdatePlannerTest {
    */
   @Test
   public void testDeleteData() {
+    FreeSpaceMap fsm = new FreeSpaceMap();
+    fsm.markFull(0);
+    fsm.markFull(1);
     int numBlocks = 2;
     int numRecs = 6;
     int blockSize = 32; // 4 slots per block
@@ -58,6 +62,7 @@ public class BasicUpdatePlannerTest {
     when(mdm.getStatInfo("tbl1", layout, tx)).thenReturn(si);
     when(tx.size("tbl1.tbl")).thenReturn(numBlocks); // 2 blocks in tbl1.tbl
     when(tx.blockSize()).thenReturn(blockSize);
+    when(tx.freeSpaceMap("tbl1.tbl")).thenReturn(fsm);
 
     // flag and value for each record
     when(tx.getInt(new BlockId("tbl1.tbl", 0), 0)).thenReturn(RecordPage.USED); // flag for record 0
@@ -84,6 +89,10 @@ public class BasicUpdatePlannerTest {
     verify(tx).setInt(new BlockId("tbl1.tbl", 0), 0, RecordPage.EMPTY, true);
     verify(tx).setInt(new BlockId("tbl1.tbl", 0), 8, RecordPage.EMPTY, true);
     verify(tx).setInt(new BlockId("tbl1.tbl", 1), 0, RecordPage.EMPTY, true);
+    // both blocks have room again
+    assertEquals(0, fsm.firstFree(numBlocks));
+    fsm.markFull(0);
+    assertEquals(1, fsm.firstFree(numBlocks));
   }
 
   /*
@@ -0,0 +1,155 @@
+package simpledb.plan;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.index.Index;
+import simpledb.index.planner.IndexUpdatePlanner;
+import simpledb.log.LogMgr;
+import simpledb.metadata.MetadataMgr;
+import simpledb.query.Constant;
+import simpledb.record.TableScan;
+import simpledb.tx.Transaction;
+
+public class VacuumTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+  private LogMgr lm;
+  private BufferMgr bm;
+  private MetadataMgr mdm;
+  private Planner planner;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "simpledb.log");
+    bm = new BufferMgr(fm, lm, 64);
+    Transaction tx = new Transaction(fm, lm, bm);
+    mdm = new MetadataMgr(true, tx);
+    planner = new Planner(new BasicQueryPlanner(mdm), new IndexUpdatePlanner(mdm),
+        new Vacuum(mdm, () -> new Transaction(fm, lm, bm)));
+    tx.commit();
+  }
+
+  @Test
+  public void testVacuum() {
+    vacuumAndLookup("tbl1", "");
+  }
+
+  @Test
+  public void testVacuumBitmap() {
+    vacuumAndLookup("tbl4", " using bitmap");
+  }
+
+  @Test
+  public void testVacuumSlotted() {
+    vacuumAndLookup("tbl2", " using slotted");
+  }
+
+  @Test
+  public void testVacuumPax() {
+    vacuumAndLookup("tbl3", " using pax");
+  }
+
+  /*
+   * A transaction that has read the size of the table, such as an open scan,
+   * keeps the vacuum from truncating the file without making it wait.
+   * The records are moved, the emptied blocks are marked free again,
+   * and the next vacuum truncates them once the transaction commits.
+   */
+  @Test
+  public void testVacuumWithReader() {
+    int size = insertAndDelete("tbl5", "");
+    Transaction reader = new Transaction(fm, lm, bm);
+    assertEquals(size, reader.size("tbl5.tbl"));
+
+    Transaction tx = new Transaction(fm, lm, bm);
+    assertEquals(0, planner.executeUpdate("vacuum tbl5", tx));
+    tx.commit();
+    assertEquals(size - 1, fm.freeSpaceMap("tbl5.tbl").nextFree(size - 1, size)); // the emptied last block
+    reader.commit();
+
+    tx = new Transaction(fm, lm, bm);
+    assertTrue(planner.executeUpdate("vacuum tbl5", tx) > 0);
+    tx.commit();
+  }
+
+  /*
+   * SQL: vacuum tbl1
+   * Two thirds of the rows are deleted, with their index records,
+   * and the table is compacted.
+   * The file gets shorter, and the index finds every remaining row
+   * at the slot it was moved to.
+   */
+  private void vacuumAndLookup(String tblname, String using) {
+    int size = insertAndDelete(tblname, using);
+
+    Transaction tx = new Transaction(fm, lm, bm);
+    int reclaimed = planner.executeUpdate("vacuum " + tblname, tx);
+    tx.commit();
+    assertTrue(reclaimed > 0);
+
+    tx = new Transaction(fm, lm, bm);
+    assertEquals(size - reclaimed, tx.size(tblname + ".tbl"));
+    TableScan ts = new TableScan(tx, tblname, mdm.getLayout(tblname, tx));
+    Index idx = mdm.getIndexInfo(tblname, tx).get("fld1").open();
+    for (int i = 0; i < 300; i++) {
+      idx.beforeFirst(new Constant(i));
+      int found = 0;
+      while (idx.next()) {
+        ts.moveToRid(idx.getDataRid());
+        assertEquals(i, ts.getInt("fld1"));
+        assertEquals("keep", ts.getString("fld2"));
+        found++;
+      }
+      assertEquals((i % 3 == 0) ? 1 : 0, found, "rows of " + i);
+    }
+    idx.close();
+    int count = 0;
+    ts.beforeFirst();
+    while (ts.next())
+      count++;
+    ts.close();
+    assertEquals(100, count);
+    tx.commit();
+  }
+
+  /*
+   * Create the table with an index, insert 300 rows and delete two thirds
+   * of them with their index records. Return the number of the blocks.
+   */
+  private int insertAndDelete(String tblname, String using) {
+    Transaction tx = new Transaction(fm, lm, bm);
+    planner.executeUpdate("create table " + tblname + " (fld1 int, fld2 varchar(10))" + using, tx);
+    planner.executeUpdate("create index " + tblname + "idx on " + tblname + " (fld1)", tx);
+    for (int i = 0; i < 300; i++) {
+      String fld2 = (i % 3 == 0) ? "keep" : "drop";
+      planner.executeUpdate("insert into " + tblname + " (fld1, fld2) values (" + i + ", '" + fld2 + "')", tx);
+    }
+    tx.commit();
+    tx = new Transaction(fm, lm, bm);
+    TableScan ts = new TableScan(tx, tblname, mdm.getLayout(tblname, tx));
+    Index idx = mdm.getIndexInfo(tblname, tx).get("fld1").open();
+    while (ts.next()) {
+      if (ts.getString("fld2").equals("drop")) {
+        idx.delete(ts.getVal("fld1"), ts.getRid());
+        ts.delete();
+      }
+    }
+    idx.close();
+    ts.close();
+    int size = tx.size(tblname + ".tbl");
+    tx.commit();
+    return size;
+  }
+}
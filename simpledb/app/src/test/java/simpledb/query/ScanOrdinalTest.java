@@ -0,0 +1,106 @@
+package simpledb.query;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.record.Layout;
+import simpledb.record.Schema;
+import simpledb.record.TableScan;
+import simpledb.tx.Transaction;
+
+public class ScanOrdinalTest {
+  @TempDir
+  File dbDirectory;
+
+  private Transaction tx;
+  private Layout left;
+  private Layout right;
+
+  @BeforeEach
+  public void setUp() {
+    FileMgr fm = new FileMgr(dbDirectory, 400);
+    LogMgr lm = new LogMgr(fm, "simpledb.log");
+    BufferMgr bm = new BufferMgr(fm, lm, 8);
+    tx = new Transaction(fm, lm, bm);
+
+    Schema sch1 = new Schema();
+    sch1.addIntField("A");
+    sch1.addStringField("B", 10);
+    left = new Layout(sch1);
+    TableScan s1 = new TableScan(tx, "lhs", left);
+    for (int i = 0; i < 3; i++) {
+      s1.insert();
+      s1.setInt("A", i);
+      s1.setString("B", "b" + i);
+    }
+    s1.close();
+
+    Schema sch2 = new Schema();
+    sch2.addIntField("C");
+    right = new Layout(sch2);
+    TableScan s2 = new TableScan(tx, "rhs", right);
+    for (int i = 1; i < 3; i++) {
+      s2.insert();
+      s2.setInt("C", i);
+    }
+    s2.close();
+  }
+
+  /*
+   * The fields of both sides of a product have their own ordinals,
+   * which give the same values as the names.
+   */
+  @Test
+  public void testProduct() {
+    Scan s = new ProductScan(new TableScan(tx, "lhs", left), new TableScan(tx, "rhs", right));
+    int a = s.ordinal("A");
+    int b = s.ordinal("B");
+    int c = s.ordinal("C");
+    assertNotEquals(a, c);
+    assertNotEquals(b, c);
+    int count = 0;
+    while (s.next()) {
+      assertEquals(s.getInt("A"), s.getInt(a));
+      assertEquals(s.getString("B"), s.getString(b));
+      assertEquals(s.getVal("C"), s.getVal(c));
+      count++;
+    }
+    assertEquals(6, count);
+    s.close();
+    tx.commit();
+  }
+
+  /*
+   * A select binds its predicate to the ordinals of the product,
+   * and a project passes them through for its fields only.
+   */
+  @Test
+  public void testSelectProject() {
+    Scan product = new ProductScan(new TableScan(tx, "lhs", left), new TableScan(tx, "rhs", right));
+    Predicate pred = new Predicate(new Term(new Expression("A"), new Expression("C")));
+    Scan s = new ProjectScan(new SelectScan(product, pred), List.of("B", "C"));
+    assertEquals(-1, s.ordinal("A"));
+    int b = s.ordinal("B");
+    int c = s.ordinal("C");
+    assertEquals(product.ordinal("B"), b);
+    int count = 0;
+    while (s.next()) {
+      assertEquals("b" + s.getInt(c), s.getString(b));
+      assertEquals(s.getString("B"), s.getString(b));
+      count++;
+    }
+    assertEquals(2, count);
+    s.close();
+    tx.commit();
+  }
+}
@@ -0,0 +1,350 @@
+package simpledb.record;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.FileMgr;
+import simpledb.file.FreeSpaceMap;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+public class RecordTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+  private LogMgr lm;
+  private BufferMgr bm;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "simpledb.log");
+    bm = new BufferMgr(fm, lm, 8);
+  }
+
+  @Test
+  public void testBitmap() {
+    insertDeleteScan("bitmap", RecordFormat.BITMAP);
+  }
+
+  @Test
+  public void testPax() {
+    insertDeleteScan("pax", RecordFormat.PAX);
+  }
+
+  @Test
+  public void testSlotted() {
+    insertDeleteScan("slotted", RecordFormat.SLOTTED);
+  }
+
+  @Test
+  public void testRolledBackDelete() throws Exception {
+    deleteScanRollback("flagdel", RecordFormat.FLAG);
+  }
+
+  @Test
+  public void testRolledBackDeleteBitmap() throws Exception {
+    deleteScanRollback("bitmapdel", RecordFormat.BITMAP);
+  }
+
+  /*
+   * Two transactions insert into the same block of the BITMAP format
+   * without waiting for each other, as only their slots are locked.
+   * A snapshot sees the committed insert without the other one,
+   * and the rollback of the other one keeps the committed record.
+   */
+  @Test
+  public void testConcurrentInsertsBitmap() throws Exception {
+    Schema sch = new Schema();
+    sch.addIntField("A");
+    Layout layout = new Layout(sch, RecordFormat.BITMAP);
+    Transaction tx = new Transaction(fm, lm, bm);
+    TableScan scan = new TableScan(tx, "bitmapins", layout);
+    for (int i = 0; i < 2; i++) {
+      scan.insert();
+      scan.setInt("A", i);
+    }
+    scan.close();
+    tx.commit();
+
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    TableScan scan1 = new TableScan(tx1, "bitmapins", layout);
+    scan1.insert();
+    scan1.setInt("A", 100);
+    Thread writer = new Thread(() -> {
+      Transaction tx2 = new Transaction(fm, lm, bm);
+      TableScan scan2 = new TableScan(tx2, "bitmapins", layout);
+      scan2.insert();
+      scan2.setInt("A", 200);
+      scan2.close();
+      tx2.commit();
+    });
+    writer.start();
+    writer.join(5000);
+    assertFalse(writer.isAlive());
+
+    Transaction snapshot = new Transaction(fm, lm, bm, true);
+    assertEquals(List.of(0, 1, 200), values(snapshot, "bitmapins", layout));
+    snapshot.commit();
+    scan1.close();
+    tx1.rollback();
+
+    tx = new Transaction(fm, lm, bm);
+    assertEquals(List.of(0, 1, 200), values(tx, "bitmapins", layout));
+    tx.commit();
+  }
+
+  /*
+   * A record is deleted by a transaction that is not committed yet.
+   * A scan of another transaction waits for the emptied slot instead of
+   * skipping it, so it finds the record once the delete is rolled back.
+   */
+  private void deleteScanRollback(String tblname, RecordFormat format) throws Exception {
+    Schema sch = new Schema();
+    sch.addIntField("A");
+    Layout layout = new Layout(sch, format);
+    Transaction tx = new Transaction(fm, lm, bm);
+    TableScan scan = new TableScan(tx, tblname, layout);
+    for (int i = 0; i < 20; i++) {
+      scan.insert();
+      scan.setInt("A", i);
+    }
+    scan.close();
+    tx.commit();
+
+    Transaction deleter = new Transaction(fm, lm, bm);
+    scan = new TableScan(deleter, tblname, layout);
+    while (scan.next())
+      if (scan.getInt("A") == 5)
+        scan.delete();
+    scan.close();
+
+    AtomicInteger count = new AtomicInteger();
+    Thread reader = new Thread(() -> {
+      Transaction tx2 = new Transaction(fm, lm, bm);
+      TableScan s = new TableScan(tx2, tblname, layout);
+      while (s.next())
+        count.incrementAndGet();
+      s.close();
+      tx2.commit();
+    });
+    reader.start();
+    while (reader.isAlive() && reader.getState() != Thread.State.WAITING)
+      Thread.sleep(10);
+    deleter.rollback();
+    reader.join();
+    assertEquals(20, count.get());
+  }
+
+  /*
+   * An insert that finds no room in a block marks it full in the free
+   * space map, a delete and a rolled back insert mark their block free,
+   * and the next insert goes straight to the first block with room.
+   */
+  @Test
+  public void testFreeSpaceMap() {
+    Schema sch = new Schema();
+    sch.addIntField("A");
+    Layout layout = new Layout(sch);
+    Transaction tx = new Transaction(fm, lm, bm);
+    TableScan scan = new TableScan(tx, "fsm", layout);
+    for (int i = 0; i < 190; i++) { // 50 records in a block
+      scan.insert();
+      scan.setInt("A", i);
+    }
+    int size = tx.size("fsm.tbl");
+    assertTrue(size > 3);
+    FreeSpaceMap fsm = tx.freeSpaceMap("fsm.tbl");
+    assertEquals(size - 1, fsm.firstFree(size)); // only the last block has room
+
+    scan.beforeFirst();
+    while (scan.next())
+      if (scan.getRid().blockNumber() == 2) {
+        scan.delete();
+        break;
+      }
+    assertEquals(2, fsm.firstFree(size));
+    scan.insert();
+    scan.setInt("A", -1);
+    assertEquals(2, scan.getRid().blockNumber());
+    scan.insert();
+    scan.setInt("A", -2);
+    assertEquals(size - 1, scan.getRid().blockNumber()); // block 2 is full again
+    assertEquals(size - 1, fsm.firstFree(size));
+    scan.close();
+    tx.commit();
+
+    tx = new Transaction(fm, lm, bm);
+    scan = new TableScan(tx, "fsm", layout);
+    while (tx.size("fsm.tbl") == size) {
+      scan.insert();
+      scan.setInt("A", 0);
+    }
+    assertEquals(size, fsm.firstFree(size + 1)); // the last block was filled
+    scan.close();
+    tx.rollback();
+    assertEquals(size - 1, fsm.firstFree(tx.size("fsm.tbl")));
+  }
+
+  /*
+   * A record that grows out of its full block is forwarded to another block.
+   * Its RID stays the same, the scan returns it once, and deleting it
+   * through its RID removes the moved record too.
+   */
+  @Test
+  public void testSlottedForwarding() {
+    Schema sch = new Schema();
+    sch.addIntField("A");
+    sch.addStringField("B", 300);
+    Layout layout = new Layout(sch, RecordFormat.SLOTTED);
+
+    Transaction tx = new Transaction(fm, lm, bm);
+    TableScan scan = new TableScan(tx, "forward", layout);
+    for (int i = 0; i < 40; i++) {
+      scan.insert();
+      scan.setInt("A", i);
+      scan.setString("B", "rec" + i);
+    }
+    scan.beforeFirst();
+    scan.next();
+    RID rid = scan.getRid();
+    int a = scan.getInt("A");
+    int size = tx.size("forward.tbl");
+    scan.setString("B", "x".repeat(300));
+    assertEquals(size + 1, tx.size("forward.tbl")); // the record doesn't fit in its block
+    scan.close();
+    tx.commit();
+
+    tx = new Transaction(fm, lm, bm);
+    scan = new TableScan(tx, "forward", layout);
+    scan.moveToRid(rid);
+    assertEquals(a, scan.getInt("A"));
+    assertEquals("x".repeat(300), scan.getString("B"));
+    scan.beforeFirst();
+    int count = 0;
+    while (scan.next()) {
+      if (scan.getInt("A") == a) {
+        assertEquals(rid, scan.getRid());
+        assertEquals("x".repeat(300), scan.getString("B"));
+      } else {
+        assertEquals("rec" + scan.getInt("A"), scan.getString("B"));
+      }
+      count++;
+    }
+    assertEquals(40, count);
+    scan.moveToRid(rid);
+    scan.delete();
+    scan.close();
+    tx.commit();
+
+    tx = new Transaction(fm, lm, bm);
+    scan = new TableScan(tx, "forward", layout);
+    count = 0;
+    while (scan.next()) {
+      assertNotEquals(a, scan.getInt("A"));
+      count++;
+    }
+    assertEquals(39, count);
+    scan.close();
+    tx.commit();
+  }
+
+  /*
+   * Return the values of the field A of the table, sorted.
+   */
+  private List<Integer> values(Transaction tx, String tblname, Layout layout) {
+    List<Integer> vals = new ArrayList<>();
+    TableScan scan = new TableScan(tx, tblname, layout);
+    while (scan.next())
+      vals.add(scan.getInt("A"));
+    scan.close();
+    Collections.sort(vals);
+    return vals;
+  }
+
+  /*
+   * Insert records into a table, delete two thirds of them and scan the rest.
+   * The inserts after the deletes reuse the freed slots, and the rolled back
+   * delete and insert leave the records as they were.
+   */
+  private void insertDeleteScan(String tblname, RecordFormat format) {
+    Schema sch = new Schema();
+    sch.addIntField("A");
+    sch.addStringField("B", 20);
+    Layout layout = new Layout(sch, format);
+    assertEquals(format, layout.format());
+
+    Transaction tx = new Transaction(fm, lm, bm);
+    TableScan scan = new TableScan(tx, tblname, layout);
+    for (int i = 0; i < 100; i++) {
+      scan.insert();
+      scan.setInt("A", i);
+      scan.setString("B", "rec" + i);
+    }
+    scan.close();
+    tx.commit();
+
+    tx = new Transaction(fm, lm, bm);
+    scan = new TableScan(tx, tblname, layout);
+    int count = 0;
+    while (scan.next()) {
+      int a = scan.getInt("A");
+      assertEquals("rec" + a, scan.getString("B"));
+      if (a % 3 != 0)
+        scan.delete();
+      count++;
+    }
+    scan.close();
+    assertEquals(100, count);
+    int size = tx.size(tblname + ".tbl");
+    tx.commit();
+
+    tx = new Transaction(fm, lm, bm);
+    scan = new TableScan(tx, tblname, layout);
+    for (int i = 0; i < 50; i++) {
+      scan.insert();
+      scan.setInt("A", 3000 + 3 * i);
+      scan.setString("B", "rec" + (3000 + 3 * i));
+    }
+    scan.close();
+    assertEquals(size, tx.size(tblname + ".tbl")); // the freed slots are used again
+    tx.commit();
+
+    tx = new Transaction(fm, lm, bm);
+    scan = new TableScan(tx, tblname, layout);
+    scan.next();
+    scan.delete();
+    scan.insert();
+    scan.setInt("A", 1);
+    scan.setString("B", "rolled back");
+    scan.close();
+    tx.rollback();
+
+    tx = new Transaction(fm, lm, bm);
+    scan = new TableScan(tx, tblname, layout);
+    count = 0;
+    while (scan.next()) {
+      int a = scan.getInt("A");
+      assertEquals(0, a % 3);
+      assertEquals("rec" + a, scan.getString("B"));
+      count++;
+    }
+    scan.close();
+    assertEquals(34 + 50, count);
+    tx.commit();
+  }
+}
@@ -0,0 +1,139 @@
+package simpledb.tx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.log.LogMgr;
+import simpledb.tx.concurrency.ConcurrencyMgr;
+
+public class PageHandleTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+  private LogMgr lm;
+  private BufferMgr bm;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "simpledb.log");
+    bm = new BufferMgr(fm, lm, 8);
+  }
+
+  /*
+   * The block is locked in S at the first read and in X at the first write,
+   * and the writes are logged, so a rollback undoes them.
+   */
+  @Test
+  public void testBlockAccess() {
+    BlockId blk = newBlock("handle.tbl");
+    Transaction tx = new Transaction(fm, lm, bm);
+    tx.pin(blk);
+    PageHandle page = new PageHandle(tx, blk);
+    assertFalse(locked("[file handle.tbl, block 0]"));
+    assertEquals(0, page.getInt(0));
+    assertTrue(heldIn("[file handle.tbl, block 0]", "S"));
+    page.setInt(0, 7, true);
+    page.setString(20, "abc", true);
+    assertTrue(heldIn("[file handle.tbl, block 0]", "X"));
+    assertEquals(7, page.getInt(0));
+    assertEquals("abc", page.getString(20));
+    tx.rollback();
+
+    tx = new Transaction(fm, lm, bm);
+    tx.pin(blk);
+    page = new PageHandle(tx, blk);
+    assertEquals(0, page.getInt(0));
+    assertEquals("", page.getString(20));
+    tx.commit();
+  }
+
+  /*
+   * The record accessors lock the record and leave the intention lock
+   * on the block, so another transaction reads the other records.
+   */
+  @Test
+  public void testRecordAccess() {
+    BlockId blk = newBlock("record.tbl");
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    tx1.pin(blk);
+    PageHandle page1 = new PageHandle(tx1, blk);
+    page1.setRecordInt(0, 0, 5, true);
+    assertTrue(heldIn("[file record.tbl, block 0, slot 0]", "X"));
+    assertTrue(heldIn("[file record.tbl, block 0]", "IX"));
+
+    Transaction tx2 = new Transaction(fm, lm, bm);
+    tx2.pin(blk);
+    PageHandle page2 = new PageHandle(tx2, blk);
+    assertEquals(0, page2.getRecordInt(1, 100)); // not blocked by the record of tx1
+    assertEquals(5, page2.peekInt(0)); // the uncommitted write is read without a lock
+    tx1.commit();
+    assertTrue(heldIn("[file record.tbl, block 0, slot 1]", "S"));
+    tx2.commit();
+  }
+
+  /*
+   * A handle of a read-only transaction reads its snapshot,
+   * and a handle over an image reads and writes the page only.
+   */
+  @Test
+  public void testSnapshotAndImage() {
+    BlockId blk = newBlock("snapshot.tbl");
+    Transaction reader = new Transaction(fm, lm, bm, true);
+    reader.pin(blk);
+    PageHandle page = new PageHandle(reader, blk);
+    Transaction writer = new Transaction(fm, lm, bm);
+    writer.pin(blk);
+    writer.setInt(blk, 0, 9, true);
+    assertEquals(0, page.getInt(0));
+    assertEquals(0, page.peekInt(0));
+    writer.commit();
+    reader.commit();
+
+    Page image = new Page(fm.blockSize());
+    PageHandle imageHandle = new PageHandle(blk, image);
+    imageHandle.setRecordInt(0, 0, 3, true);
+    imageHandle.setString(20, "xyz", true);
+    assertEquals(3, image.getInt(0));
+    assertEquals("xyz", imageHandle.getRecordString(0, 20));
+    assertFalse(locked("[file snapshot.tbl, block 0, slot 0]"));
+  }
+
+  private BlockId newBlock(String filename) {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk = tx.append(filename);
+    tx.commit();
+    return blk;
+  }
+
+  /*
+   * Return true if the target is in the lock table dump.
+   */
+  private boolean locked(String target) {
+    return ConcurrencyMgr.dumpLocks().contains(target);
+  }
+
+  /*
+   * Return true if the target is held by one transaction in the mode.
+   */
+  private boolean heldIn(String target, String mode) {
+    Pattern p = Pattern.compile(Pattern.quote(target) + ": held by \\{\\d+=" + mode + "\\}.*");
+    for (String line : ConcurrencyMgr.dumpLocks().split("\n"))
+      if (p.matcher(line).matches())
+        return true;
+    return false;
+  }
+}
@@ -0,0 +1,84 @@
+package simpledb.tx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.concurrency.ConcurrencyMgr;
+
+public class TransactionTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+  private LogMgr lm;
+  private BufferMgr bm;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "simpledb.log");
+    bm = new BufferMgr(fm, lm, 8);
+  }
+
+  /*
+   * A read-only transaction writes no log records and takes no locks,
+   * so it reads a block a writer holds, and the writer isn't blocked by it.
+   */
+  @Test
+  public void testReadOnlyWithoutLogAndLocks() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk = tx.append("readonly.tbl");
+    tx.pin(blk);
+    tx.setInt(blk, 0, 7, true);
+    tx.commit();
+
+    Transaction reader = new Transaction(fm, lm, bm, true);
+    assertTrue(reader.isReadOnly());
+    reader.pin(blk);
+    assertEquals(7, reader.getInt(blk, 0));
+    assertFalse(ConcurrencyMgr.dumpLocks().contains("readonly.tbl"));
+
+    Transaction writer = new Transaction(fm, lm, bm);
+    writer.pin(blk);
+    writer.setInt(blk, 0, 8, true); // not blocked by the reader
+    assertEquals(7, reader.getInt(blk, 0));
+    writer.commit();
+
+    long lsn = lm.latestLSN();
+    reader.commit();
+    assertEquals(lsn, lm.latestLSN()); // no commit record
+    assertEquals(-1, reader.commitLSN());
+    assertEquals(8, bm.available()); // the buffers are unpinned
+  }
+
+  /*
+   * The writes, the appends and the recovery are rejected.
+   */
+  @Test
+  public void testReadOnlyRejectsWrites() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk = tx.append("rejected.tbl");
+    tx.commit();
+
+    Transaction reader = new Transaction(fm, lm, bm, true);
+    reader.pin(blk);
+    assertThrows(RuntimeException.class, () -> reader.setInt(blk, 0, 1, true));
+    assertThrows(RuntimeException.class, () -> reader.setString(blk, 0, "a", true));
+    assertThrows(RuntimeException.class, () -> reader.append("rejected.tbl"));
+    assertThrows(RuntimeException.class, () -> reader.recover());
+    assertEquals(0, reader.getInt(blk, 0));
+    reader.rollback();
+  }
+}
@@ -0,0 +1,97 @@
+package simpledb.tx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+
+public class TxNumAllocatorTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, 400);
+  }
+
+  /*
+   * The high-water mark is written a batch ahead,
+   * and again only when the numbers pass it.
+   */
+  @Test
+  public void testReserveBatch() {
+    TxNumAllocator txnums = new TxNumAllocator(fm);
+    assertEquals(0, mark());
+    assertEquals(1, txnums.next());
+    assertEquals(1 + TxNumAllocator.RESERVE_BATCH, mark());
+    for (int i = 2; i <= 1 + TxNumAllocator.RESERVE_BATCH; i++)
+      assertEquals(i, txnums.next());
+    assertEquals(1 + TxNumAllocator.RESERVE_BATCH, mark());
+    assertEquals(2 + TxNumAllocator.RESERVE_BATCH, txnums.next());
+    assertEquals(2 + 2 * TxNumAllocator.RESERVE_BATCH, mark());
+  }
+
+  /*
+   * After a restart the numbers continue from the mark,
+   * so the numbers used before are never handed out again.
+   */
+  @Test
+  public void testRestart() {
+    TxNumAllocator txnums = new TxNumAllocator(fm);
+    long last = 0;
+    for (int i = 0; i < 5; i++)
+      last = txnums.next();
+
+    fm = new FileMgr(dbDirectory, 400);
+    txnums = new TxNumAllocator(fm);
+    long next = txnums.next();
+    assertTrue(next > last);
+    assertEquals(mark() - TxNumAllocator.RESERVE_BATCH, next);
+  }
+
+  /*
+   * The threads allocating at the same time get different numbers.
+   */
+  @Test
+  public void testConcurrentNext() throws InterruptedException {
+    TxNumAllocator txnums = new TxNumAllocator(fm);
+    Set<Long> numbers = new HashSet<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        List<Long> mine = new ArrayList<>();
+        for (int i = 0; i < 2000; i++)
+          mine.add(txnums.next());
+        synchronized (numbers) {
+          numbers.addAll(mine);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(8000, numbers.size());
+    assertTrue(mark() >= 8000);
+  }
+
+  private long mark() {
+    Page p = new Page(fm.blockSize());
+    fm.read(new BlockId(TxNumAllocator.CONTROL_FILE, 0), p);
+    return p.getLong(0);
+  }
+}
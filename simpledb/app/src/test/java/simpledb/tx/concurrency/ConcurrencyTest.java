@@ -0,0 +1,310 @@
+package simpledb.tx.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+import simpledb.tx.TxNumAllocator;
+
+public class ConcurrencyTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+  private LogMgr lm;
+  private BufferMgr bm;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "simpledb.log");
+    bm = new BufferMgr(fm, lm, 8);
+  }
+
+  /*
+   * Shared locks are granted together, and an exclusive lock waits
+   * until all of them are released.
+   */
+  @Test
+  public void testLockConflict() throws Exception {
+    LockTable locktbl = new LockTable();
+    LockTarget table = LockTarget.table("conflict.tbl");
+    LockTarget block = LockTarget.block(new BlockId("conflict.tbl", 0));
+    locktbl.lock(table, 1, LockMode.IX);
+    locktbl.lock(table, 2, LockMode.IX); // intention locks are compatible
+    locktbl.lock(block, 1, LockMode.S);
+    locktbl.lock(block, 2, LockMode.S);
+
+    AtomicBoolean granted = new AtomicBoolean(false);
+    Thread writer = new Thread(() -> {
+      locktbl.lock(block, 3, LockMode.X);
+      granted.set(true);
+    });
+    writer.start();
+    awaitWaiting(writer);
+    locktbl.unlock(block, 1);
+    assertFalse(granted.get()); // transaction 2 still holds S
+    locktbl.unlock(block, 2);
+    writer.join();
+    assertTrue(granted.get());
+  }
+
+  /*
+   * Two transactions wait for each other's block.
+   * The youngest transaction in the cycle is aborted, whether it's the one
+   * that closes the cycle or the one that was already waiting,
+   * and the other gets its lock once the victim releases its locks.
+   */
+  @Test
+  public void testDeadlockVictim() throws Exception {
+    LockTable locktbl = new LockTable();
+    LockTarget blk0 = LockTarget.block(new BlockId("deadlock.tbl", 0));
+    LockTarget blk1 = LockTarget.block(new BlockId("deadlock.tbl", 1));
+
+    // the younger transaction closes the cycle
+    locktbl.lock(blk0, 1, LockMode.X);
+    locktbl.lock(blk1, 2, LockMode.X);
+    AtomicBoolean granted = new AtomicBoolean(false);
+    Thread older = new Thread(() -> {
+      locktbl.lock(blk1, 1, LockMode.X);
+      granted.set(true);
+    });
+    older.start();
+    awaitWaiting(older);
+    assertThrows(LockAbortException.class, () -> locktbl.lock(blk0, 2, LockMode.X));
+    locktbl.unlock(blk1, 2);
+    older.join();
+    assertTrue(granted.get());
+    locktbl.unlock(blk0, 1);
+    locktbl.unlock(blk1, 1);
+
+    // the older transaction closes the cycle
+    locktbl.lock(blk0, 3, LockMode.X);
+    locktbl.lock(blk1, 4, LockMode.X);
+    AtomicBoolean aborted = new AtomicBoolean(false);
+    Thread younger = new Thread(() -> {
+      try {
+        locktbl.lock(blk0, 4, LockMode.X);
+      } catch (LockAbortException e) {
+        aborted.set(true);
+        locktbl.unlock(blk1, 4);
+      }
+    });
+    younger.start();
+    awaitWaiting(younger);
+    locktbl.lock(blk1, 3, LockMode.X);
+    younger.join();
+    assertTrue(aborted.get());
+  }
+
+  /*
+   * A block access of a transaction holding a record of the block
+   * upgrades its intention lock, and waits for the other transactions
+   * holding records in the block.
+   */
+  @Test
+  public void testIntentionUpgrade() throws Exception {
+    BlockId blk = new BlockId("upgrade.tbl", 0);
+    ConcurrencyMgr cm1 = new ConcurrencyMgr(1_000_001);
+    ConcurrencyMgr cm2 = new ConcurrencyMgr(1_000_002);
+    cm1.xLockRecord(blk, 0);
+    cm2.sLockRecord(blk, 1); // IS and IX on the block are compatible
+
+    AtomicBoolean granted = new AtomicBoolean(false);
+    Thread writer = new Thread(() -> {
+      cm1.xLock(blk);
+      granted.set(true);
+    });
+    writer.start();
+    awaitWaiting(writer);
+    assertTrue(ConcurrencyMgr.dumpLocks().contains("1000001=X"));
+    cm2.release();
+    writer.join();
+    assertTrue(granted.get());
+    cm1.release();
+  }
+
+  /*
+   * A transaction locking many blocks of a table locks the whole table instead,
+   * so the writers of the other blocks of the table wait for it.
+   */
+  @Test
+  public void testTableEscalation() throws Exception {
+    ConcurrencyMgr cm1 = new ConcurrencyMgr(1_000_003);
+    ConcurrencyMgr cm2 = new ConcurrencyMgr(1_000_004);
+    for (int i = 0; i <= ConcurrencyMgr.TABLE_ESCALATION_THRESHOLD; i++)
+      cm1.sLock(new BlockId("escalate.tbl", i));
+    String dump = ConcurrencyMgr.dumpLocks();
+    assertTrue(dump.contains("[table escalate.tbl]: held by {1000003=S}"));
+    assertFalse(dump.contains("[file escalate.tbl, block 0]"));
+
+    AtomicBoolean granted = new AtomicBoolean(false);
+    Thread writer = new Thread(() -> {
+      cm2.xLock(new BlockId("escalate.tbl", 1000));
+      granted.set(true);
+    });
+    writer.start();
+    awaitWaiting(writer);
+    cm1.release();
+    writer.join();
+    assertTrue(granted.get());
+    cm2.release();
+  }
+
+  /*
+   * A read-only transaction sees the state committed before it started,
+   * without waiting for the writers of the block.
+   * A writer that started before any snapshot keeps no versions,
+   * and they are restored from its log records when a snapshot begins.
+   */
+  @Test
+  public void testSnapshotVisibility() {
+    VersionStore versions = new VersionStore();
+    TxNumAllocator txnums = new TxNumAllocator(fm);
+    Transaction tx = new Transaction(fm, lm, bm, versions, txnums, false);
+    BlockId blk = tx.append("snapshot");
+    tx.pin(blk);
+    tx.setInt(blk, 0, 1, true);
+    tx.commit();
+
+    Transaction reader1 = new Transaction(fm, lm, bm, versions, txnums, true);
+    Transaction writer1 = new Transaction(fm, lm, bm, versions, txnums, false);
+    writer1.pin(blk);
+    writer1.setInt(blk, 0, 2, true);
+    reader1.pin(blk);
+    assertEquals(1, reader1.getInt(blk, 0)); // not blocked by the uncommitted write
+    writer1.commit();
+    assertEquals(1, reader1.getInt(blk, 0)); // committed after the snapshot
+    Transaction reader2 = new Transaction(fm, lm, bm, versions, txnums, true);
+    reader2.pin(blk);
+    assertEquals(2, reader2.getInt(blk, 0));
+    reader1.commit();
+    reader2.commit();
+
+    // no snapshot is active while the writer modifies the block
+    Transaction writer2 = new Transaction(fm, lm, bm, versions, txnums, false);
+    writer2.pin(blk);
+    writer2.setInt(blk, 0, 3, true);
+    writer2.setInt(blk, 4, 30, true);
+    Transaction reader3 = new Transaction(fm, lm, bm, versions, txnums, true);
+    reader3.pin(blk);
+    assertEquals(2, reader3.getInt(blk, 0));
+    assertEquals(0, reader3.getInt(blk, 4));
+    writer2.commit();
+    assertEquals(2, reader3.getInt(blk, 0));
+    Transaction reader4 = new Transaction(fm, lm, bm, versions, txnums, true);
+    reader4.pin(blk);
+    assertEquals(3, reader4.getInt(blk, 0));
+    assertEquals(30, reader4.getInt(blk, 4));
+    reader3.commit();
+    reader4.commit();
+    assertFalse(versions.hasVersions(blk)); // no snapshot needs them any more
+  }
+
+  /*
+   * An optimistic transaction reads the snapshot and keeps its writes private
+   * until it's validated at the commit. The validation fails if a block it read
+   * has been modified by a transaction committed after its snapshot,
+   * and none of its writes are applied.
+   */
+  @Test
+  public void testOptimisticValidation() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk0 = tx.append("optimistic");
+    BlockId blk1 = tx.append("optimistic");
+    tx.pin(blk0);
+    tx.pin(blk1);
+    tx.setInt(blk0, 0, 1, true);
+    tx.setInt(blk1, 0, 1, true);
+    tx.commit();
+
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    tx1.setOptimistic(true);
+    tx1.pin(blk0);
+    tx1.pin(blk1);
+    tx1.setInt(blk1, 0, tx1.getInt(blk0, 0) + 10, true);
+    assertEquals(11, tx1.getInt(blk1, 0)); // reads its own write
+    Transaction tx2 = new Transaction(fm, lm, bm);
+    tx2.pin(blk0);
+    tx2.setInt(blk0, 0, 5, true); // not blocked by the optimistic reader
+    tx2.commit();
+    assertThrows(OptimisticAbortException.class, () -> tx1.commit());
+    assertEquals(1, readInt(blk1, 0));
+
+    // the retry sees the new value and nothing commits in between
+    Transaction tx3 = new Transaction(fm, lm, bm);
+    tx3.setOptimistic(true);
+    tx3.pin(blk0);
+    tx3.pin(blk1);
+    tx3.setInt(blk1, 0, tx3.getInt(blk0, 0) + 10, true);
+    tx3.commit();
+    assertEquals(15, readInt(blk1, 0));
+  }
+
+  /*
+   * The validation of an optimistic transaction fails on a block
+   * a locking transaction has written but not committed yet,
+   * and passes on a block a locking transaction only reads.
+   */
+  @Test
+  public void testOptimisticWithLocking() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk0 = tx.append("mixed");
+    BlockId blk1 = tx.append("mixed");
+    tx.pin(blk0);
+    tx.pin(blk1);
+    tx.setInt(blk0, 0, 1, true);
+    tx.setInt(blk1, 0, 1, true);
+    tx.commit();
+
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    tx1.setOptimistic(true);
+    tx1.pin(blk0);
+    tx1.pin(blk1);
+    tx1.setInt(blk1, 0, tx1.getInt(blk0, 0) + 10, true);
+    Transaction tx2 = new Transaction(fm, lm, bm);
+    tx2.pin(blk0);
+    tx2.setInt(blk0, 0, 5, true);
+    assertThrows(OptimisticAbortException.class, () -> tx1.commit()); // without waiting for tx2
+    tx2.commit();
+    assertEquals(1, readInt(blk1, 0));
+
+    Transaction tx3 = new Transaction(fm, lm, bm);
+    tx3.setOptimistic(true);
+    tx3.pin(blk0);
+    tx3.pin(blk1);
+    tx3.setInt(blk1, 0, tx3.getInt(blk0, 0) + 10, true);
+    Transaction tx4 = new Transaction(fm, lm, bm);
+    tx4.pin(blk0);
+    assertEquals(5, tx4.getInt(blk0, 0)); // a shared lock
+    tx3.commit();
+    tx4.commit();
+    assertEquals(15, readInt(blk1, 0));
+  }
+
+  private void awaitWaiting(Thread t) throws InterruptedException {
+    while (t.getState() != Thread.State.WAITING)
+      Thread.sleep(10);
+  }
+
+  private int readInt(BlockId blk, int offset) {
+    Transaction tx = new Transaction(fm, lm, bm, true);
+    tx.pin(blk);
+    int val = tx.getInt(blk, offset);
+    tx.commit();
+    return val;
+  }
+}
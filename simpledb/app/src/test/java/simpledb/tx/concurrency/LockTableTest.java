@@ -0,0 +1,144 @@
+package simpledb.tx.concurrency;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import simpledb.file.BlockId;
+
+public class LockTableTest {
+  private LockTable locks;
+  private LockTarget target;
+  private List<Long> granted;
+
+  @BeforeEach
+  public void setUp() {
+    locks = new LockTable();
+    target = LockTarget.block(new BlockId("lock.tbl", 0));
+    granted = Collections.synchronizedList(new ArrayList<>());
+  }
+
+  /*
+   * The requests are granted in the order they arrive.
+   * A shared request waits behind an earlier exclusive request
+   * even though it's compatible with the current holder.
+   */
+  @Test
+  public void testFifoOrder() throws InterruptedException {
+    locks.lock(target, 1, LockMode.X);
+    Thread t2 = lockLater(2, LockMode.S);
+    Thread t3 = lockLater(3, LockMode.X);
+    Thread t4 = lockLater(4, LockMode.S);
+
+    locks.unlock(target, 1);
+    t2.join();
+    awaitWaiting(t3);
+    awaitWaiting(t4);
+    assertEquals(List.of(2L), granted);
+
+    locks.unlock(target, 2);
+    t3.join();
+    awaitWaiting(t4);
+    assertEquals(List.of(2L, 3L), granted);
+
+    locks.unlock(target, 3);
+    t4.join();
+    assertEquals(List.of(2L, 3L, 4L), granted);
+  }
+
+  /*
+   * An upgrade is queued before the requests already waiting,
+   * so it's granted as soon as the other shared holder releases its lock.
+   */
+  @Test
+  public void testUpgradeFirst() throws InterruptedException {
+    locks.lock(target, 1, LockMode.S);
+    locks.lock(target, 2, LockMode.S);
+    Thread t3 = lockLater(3, LockMode.X);
+    Thread t1 = lockLater(1, LockMode.X);
+
+    locks.unlock(target, 2);
+    t1.join();
+    awaitWaiting(t3);
+    assertEquals(List.of(1L), granted);
+
+    locks.unlock(target, 1);
+    t3.join();
+    assertEquals(List.of(1L, 3L), granted);
+  }
+
+  /*
+   * The requests are counted per mode, with the ones that waited
+   * and the targets they waited for, and the deadlock victims are
+   * counted as aborted requests.
+   */
+  @Test
+  public void testStats() throws InterruptedException {
+    LockTarget other = LockTarget.block(new BlockId("lock.tbl", 1));
+    locks.lock(target, 2, LockMode.X);
+    locks.lock(other, 1, LockMode.S);
+    locks.lock(other, 2, LockMode.IS); // compatible, so it doesn't wait
+    Thread t1 = lockLater(1, LockMode.S);
+    assertThrows(LockAbortException.class, () -> locks.lock(other, 2, LockMode.X)); // the younger one in the cycle
+    locks.unlock(target, 2);
+    locks.unlock(other, 2);
+    t1.join();
+
+    LockStats stats = locks.stats();
+    assertEquals(1, stats.requests(LockMode.IS));
+    assertEquals(2, stats.requests(LockMode.S));
+    assertEquals(2, stats.requests(LockMode.X));
+    assertEquals(2, stats.waits());
+    assertEquals(1, stats.deadlockVictims());
+    assertEquals(1, stats.aborts());
+    assertEquals(2, stats.topContended(10).size());
+    assertTrue(stats.toString().startsWith("requests: IS=1 IX=0 S=2 SIX=0 X=2\nwaits: 2"));
+
+    stats.reset();
+    assertEquals(0, stats.waits());
+    assertEquals(0, stats.requests(LockMode.S));
+    assertEquals(0, stats.topContended(10).size());
+  }
+
+  /*
+   * The dump shows the holders and the waiting requests of each locked target.
+   */
+  @Test
+  public void testDump() throws InterruptedException {
+    assertEquals("", locks.dump());
+    locks.lock(target, 1, LockMode.X);
+    Thread t2 = lockLater(2, LockMode.S);
+    assertEquals("[file lock.tbl, block 0]: held by {1=X}, waiting [2=S]\n", locks.dump());
+    locks.unlock(target, 1);
+    t2.join();
+    assertEquals("[file lock.tbl, block 0]: held by {2=S}, waiting []\n", locks.dump());
+    locks.unlock(target, 2);
+    assertEquals("", locks.dump());
+  }
+
+  /*
+   * Lock the target in another thread, which records the transaction
+   * when the lock is granted. Return after the request is queued.
+   */
+  private Thread lockLater(long txnum, LockMode mode) throws InterruptedException {
+    Thread t = new Thread(() -> {
+      locks.lock(target, txnum, mode);
+      granted.add(txnum);
+    });
+    t.start();
+    awaitWaiting(t);
+    return t;
+  }
+
+  private void awaitWaiting(Thread t) throws InterruptedException {
+    while (t.getState() != Thread.State.WAITING)
+      Thread.sleep(10);
+  }
+}
@@ -0,0 +1,166 @@
+package simpledb.tx.recovery;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.file.PageUpdate;
+import simpledb.log.LogIterator;
+import simpledb.log.LogMgr;
+
+public class LogRecordTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+  private LogMgr lm;
+
+  @BeforeEach
+  public void setUp() {
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "simpledb.log");
+  }
+
+  /*
+   * The numbers are read back as they are written, with 7 bits per byte.
+   */
+  @Test
+  public void testVarints() {
+    long[] vals = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, 1L << 35, Long.MAX_VALUE };
+    LogEncoder e = new LogEncoder(LogRecord.DIFF);
+    for (long val : vals)
+      e.writeVarLong(val);
+    e.writeVarInt(-1).writeLSN(-1).writeLSN(12345).writeString("tbl.tbl");
+    assertEquals(1, LogEncoder.varLongSize(127));
+    assertEquals(2, LogEncoder.varLongSize(128));
+    assertEquals(3, LogEncoder.varLongSize(16384));
+    assertEquals(10, LogEncoder.varLongSize(-1L));
+
+    Page p = new Page(e.toBytes());
+    assertEquals(LogRecord.DIFF, LogDecoder.op(p, 0));
+    LogDecoder d = new LogDecoder(p, 1);
+    for (long val : vals)
+      assertEquals(val, d.readVarLong());
+    assertEquals(-1, d.readVarInt());
+    assertEquals(-1, d.readLSN());
+    assertEquals(12345, d.readLSN());
+    assertEquals("tbl.tbl", d.readString());
+  }
+
+  /*
+   * Only the bytes that change are logged.
+   */
+  @Test
+  public void testDiffRecord() {
+    BlockId blk = new BlockId("diff.tbl", 3);
+    byte[] oldbytes = DiffRecord.bytes("hello");
+    byte[] newbytes = DiffRecord.bytes("help!");
+    long lsn = DiffRecord.writeToLog(lm, 7, -1, -1, blk, 100, oldbytes, newbytes);
+
+    List<DiffRecord> recs = diffRecords();
+    assertEquals(1, recs.size());
+    DiffRecord rec = recs.get(0);
+    assertEquals(7, rec.txNumber());
+    assertEquals(blk, rec.block());
+    assertEquals(100 + Integer.BYTES + 3, rec.offset());
+    assertArrayEquals("lo".getBytes(), rec.oldBytes());
+    assertTrue(lsn > 0);
+
+    Page p = new Page(fm.blockSize());
+    p.setString(100, "hello");
+    rec.redo(p);
+    assertEquals("help!", p.getString(100));
+    rec.undo(p);
+    assertEquals("hello", p.getString(100));
+  }
+
+  /*
+   * An XOR and an ADD update are undone from the current bytes,
+   * so the updates made after them by other transactions stay.
+   */
+  @Test
+  public void testLogicalUndo() {
+    BlockId blk = new BlockId("logical.tbl", 0);
+    DiffRecord.writeToLog(lm, 7, -1, -1, blk, 0, DiffRecord.bytes(0b0001), DiffRecord.bytes(0b0011), PageUpdate.XOR);
+    DiffRecord.writeToLog(lm, 7, -1, -1, blk, 4, DiffRecord.bytes(5), DiffRecord.bytes(6), PageUpdate.ADD);
+    List<DiffRecord> recs = diffRecords();
+    assertEquals(PageUpdate.XOR, recs.get(0).kind());
+    assertEquals(PageUpdate.ADD, recs.get(1).kind());
+
+    Page p = new Page(fm.blockSize());
+    p.setInt(0, 0b1011); // another transaction has set the bit 3
+    p.setInt(4, 7); // and added 1
+    recs.get(0).undo(p);
+    recs.get(1).undo(p);
+    assertEquals(0b1001, p.getInt(0));
+    assertEquals(6, p.getInt(4));
+  }
+
+  /*
+   * A modification larger than a log block is split into records
+   * of consecutive byte ranges chained by their prevLSN.
+   * Redoing them in order and undoing them in the reverse order
+   * gives the new and the old bytes.
+   */
+  @Test
+  public void testSplitUpdate() {
+    BlockId blk = new BlockId("split.tbl", 0);
+    byte[] oldbytes = new byte[fm.blockSize()];
+    byte[] newbytes = new byte[fm.blockSize()];
+    for (int i = 0; i < fm.blockSize(); i++) {
+      oldbytes[i] = (byte) i;
+      newbytes[i] = (byte) (i + 1);
+    }
+    long prevLSN = StartRecord.writeToLog(lm, 9);
+    long lastLSN = DiffRecord.writeToLog(lm, 9, prevLSN, -1, blk, 0, oldbytes, newbytes);
+
+    List<DiffRecord> recs = diffRecords();
+    assertTrue(recs.size() > 2); // the old and the new bytes don't fit in one block
+    List<Long> lsns = new ArrayList<>();
+    LogIterator iter = lm.iterator();
+    while (iter.hasNext()) {
+      iter.advance();
+      lsns.add(0, iter.lsn());
+    }
+    assertEquals(lastLSN, (long) lsns.get(lsns.size() - 1));
+    Page p = new Page(oldbytes.clone());
+    int offset = 0;
+    for (int i = 0; i < recs.size(); i++) {
+      DiffRecord rec = recs.get(i);
+      assertEquals((long) lsns.get(i), rec.prevLSN()); // the start record or the previous part
+      assertEquals(offset, rec.offset());
+      offset += rec.oldBytes().length;
+      rec.redo(p);
+    }
+    assertEquals(fm.blockSize(), offset);
+    assertArrayEquals(newbytes, p.getRawBytes(0, fm.blockSize()));
+    for (int i = recs.size() - 1; i >= 0; i--)
+      recs.get(i).undo(p);
+    assertArrayEquals(oldbytes, p.getRawBytes(0, fm.blockSize()));
+  }
+
+  /*
+   * Return the update records of the log from the oldest.
+   */
+  private List<DiffRecord> diffRecords() {
+    List<DiffRecord> recs = new ArrayList<>();
+    LogIterator iter = lm.iterator();
+    while (iter.hasNext()) {
+      int pos = iter.advance();
+      if (LogDecoder.op(iter.page(), pos) == LogRecord.DIFF)
+        recs.add(0, (DiffRecord) LogRecord.createLogRecord(iter.page(), pos));
+    }
+    return recs;
+  }
+}
@@ -0,0 +1,339 @@
+package simpledb.tx.recovery;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simpledb.buffer.BufferMgr;
+import simpledb.file.BlockId;
+import simpledb.file.FileMgr;
+import simpledb.file.Page;
+import simpledb.log.LogIterator;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+public class RecoveryTest {
+  @TempDir
+  File dbDirectory;
+
+  private FileMgr fm;
+  private LogMgr lm;
+  private BufferMgr bm;
+
+  @BeforeEach
+  public void setUp() {
+    open();
+  }
+
+  /*
+   * Two transactions modify their own blocks in turn, and one of them rolls back.
+   * The rollback follows its own undo chain, so only its modifications are undone.
+   */
+  @Test
+  public void testRollback() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk0 = tx.append("rollback");
+    BlockId blk1 = tx.append("rollback");
+    tx.pin(blk1);
+    tx.setString(blk1, 300, "init", true);
+    tx.commit();
+
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    Transaction tx2 = new Transaction(fm, lm, bm);
+    tx1.pin(blk0);
+    tx2.pin(blk1);
+    for (int i = 0; i < 300; i++) {
+      tx1.setInt(blk0, 4 * (i % 50), i, true);
+      tx2.setInt(blk1, 4 * (i % 50), i + 1000, true);
+      tx2.setString(blk1, 300, "value" + i, true);
+    }
+    tx2.rollback();
+    assertEquals(299, tx1.getInt(blk0, 4 * 49)); // the other transaction keeps its modifications
+    tx1.commit();
+
+    Transaction tx3 = new Transaction(fm, lm, bm);
+    tx3.pin(blk0);
+    tx3.pin(blk1);
+    assertEquals(250, tx3.getInt(blk0, 0));
+    for (int i = 0; i < 50; i++)
+      assertEquals(0, tx3.getInt(blk1, 4 * i));
+    assertEquals("init", tx3.getString(blk1, 300));
+    tx3.commit();
+  }
+
+  /*
+   * A committed modification whose page was not written is redone,
+   * and an uncommitted one whose page was written is undone.
+   */
+  @Test
+  public void testRedoAndUndo() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk0 = tx.append("redo");
+    BlockId blk1 = tx.append("redo");
+    for (int i = 0; i < 8; i++)
+      tx.append("redo");
+    tx.pin(blk1);
+    tx.setString(blk1, 40, "init", true);
+    tx.commit();
+
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    tx1.pin(blk1);
+    tx1.setInt(blk1, 0, 222, true);
+    tx1.setString(blk1, 40, "uncommitted", true);
+    tx1.unpin(blk1);
+    // pin the other blocks so that the buffer of blk1 is written for them
+    Transaction tx2 = new Transaction(fm, lm, bm);
+    for (int i = 2; i < 10; i++)
+      tx2.pin(new BlockId("redo", i));
+    tx2.commit();
+    assertEquals(222, diskInt(blk1, 0));
+
+    Transaction tx3 = new Transaction(fm, lm, bm);
+    tx3.pin(blk0);
+    tx3.setInt(blk0, 0, 111, true);
+    tx3.setString(blk0, 40, "committed", true);
+    tx3.commit();
+    assertEquals(0, diskInt(blk0, 0)); // the commit only flushes the log
+
+    crash();
+    recover();
+    assertEquals(111, readInt(blk0, 0));
+    assertEquals("committed", readString(blk0, 40));
+    assertEquals(0, readInt(blk1, 0));
+    assertEquals("init", readString(blk1, 40));
+  }
+
+  /*
+   * The crash comes while an update is being undone: the compensation record
+   * of the last update is on the log, but not the rollback record.
+   * The recovery continues the undo from the record the compensation record
+   * points to, so no update is undone twice.
+   */
+  @Test
+  public void testCrashDuringUndo() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk = tx.append("undo");
+    tx.pin(blk);
+    tx.setInt(blk, 0, 10, true);
+    tx.setInt(blk, 4, 20, true);
+    tx.commit();
+
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    tx1.pin(blk);
+    tx1.setInt(blk, 0, 11, true);
+    tx1.setInt(blk, 4, 21, true);
+
+    // undo the last update as the rollback does, and write the page
+    LogIterator iter = lm.iterator();
+    int pos = iter.advance();
+    long lastLSN = iter.lsn();
+    UpdateRecord rec = (UpdateRecord) LogRecord.createLogRecord(iter.page(), pos);
+    assertEquals(blk, rec.block());
+    Page p = new Page(fm.blockSize());
+    fm.read(blk, p);
+    lm.flush(rec.writeCompensationToLog(lm, lastLSN, rec.undoBytes(p)));
+    rec.undo(p);
+    fm.write(blk, p);
+
+    crash();
+    recover();
+    assertEquals(10, readInt(blk, 0));
+    assertEquals(20, readInt(blk, 4));
+    assertEquals(2, compensations(rec.txNumber()));
+  }
+
+  /*
+   * A checkpoint is written while a transaction is running.
+   * The checkpoint writes the uncommitted modification, and the recovery
+   * undoes the modifications before and after the checkpoint
+   * and redoes the commit after it.
+   * Recovering again after the recovery gives the same state.
+   */
+  @Test
+  public void testCheckpointDuringTransaction() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk0 = tx.append("checkpoint");
+    BlockId blk1 = tx.append("checkpoint");
+    tx.commit();
+
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    tx1.pin(blk0);
+    tx1.setInt(blk0, 0, 10, true);
+    RecoveryMgr.checkpoint(lm, bm);
+    assertEquals(10, diskInt(blk0, 0));
+    tx1.setInt(blk0, 4, 20, true);
+    LogIterator iter = lm.iterator();
+    long txnum = LogDecoder.txNumber(iter.page(), iter.advance());
+
+    Transaction tx2 = new Transaction(fm, lm, bm);
+    tx2.pin(blk1);
+    tx2.setInt(blk1, 0, 30, true);
+    tx2.commit();
+
+    crash();
+    recover();
+    assertEquals(0, readInt(blk0, 0));
+    assertEquals(0, readInt(blk0, 4));
+    assertEquals(30, readInt(blk1, 0));
+
+    crash();
+    recover();
+    assertEquals(0, readInt(blk0, 0));
+    assertEquals(0, readInt(blk0, 4));
+    assertEquals(30, readInt(blk1, 0));
+    assertEquals(2, compensations(txnum)); // undone only once
+  }
+
+  /*
+   * Many committed transactions modify random blocks, and the pages are lost
+   * at the crash. The redo workers apply the updates of different blocks
+   * in parallel, and the truncation in the middle is repeated
+   * after the updates before it and before the updates after it.
+   */
+  @Test
+  public void testParallelRedo() {
+    int nblocks = 20;
+    int[][] expected = new int[nblocks][100];
+    Transaction tx = new Transaction(fm, lm, bm);
+    for (int i = 0; i < nblocks; i++)
+      tx.append("parallel");
+    tx.commit();
+
+    Random rand = new Random(1);
+    for (int k = 1; k <= 500; k++) {
+      if (k == 250) {
+        Transaction tx1 = new Transaction(fm, lm, bm);
+        assertTrue(tx1.truncate("parallel", 15));
+        for (int i = 15; i < nblocks; i++) {
+          tx1.append("parallel");
+          expected[i] = new int[100];
+        }
+        tx1.commit();
+      }
+      int blknum = rand.nextInt(nblocks);
+      int slot = rand.nextInt(100);
+      BlockId blk = new BlockId("parallel", blknum);
+      Transaction tx1 = new Transaction(fm, lm, bm);
+      tx1.pin(blk);
+      tx1.setInt(blk, 4 * slot, k, true);
+      tx1.commit();
+      expected[blknum][slot] = k;
+    }
+
+    crash();
+    recover();
+    Transaction tx2 = new Transaction(fm, lm, bm, true);
+    for (int i = 0; i < nblocks; i++) {
+      BlockId blk = new BlockId("parallel", i);
+      tx2.pin(blk);
+      for (int slot = 0; slot < 100; slot++)
+        assertEquals(expected[i][slot], tx2.getInt(blk, 4 * slot), "block " + i + " slot " + slot);
+      tx2.unpin(blk);
+    }
+    tx2.commit();
+  }
+
+  /*
+   * An async commit returns before its commit record is on disk,
+   * so it's lost at a crash until the flusher writes the record.
+   */
+  @Test
+  public void testAsyncCommit() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    BlockId blk = tx.append("async.tbl");
+    tx.pin(blk);
+    tx.setInt(blk, 0, 1, true);
+    tx.commit();
+
+    Transaction tx1 = new Transaction(fm, lm, bm);
+    tx1.setAsyncCommit(true);
+    tx1.pin(blk);
+    tx1.setInt(blk, 0, 2, true);
+    tx1.commit();
+    assertTrue(lm.durableLSN() < tx1.commitLSN());
+    crash();
+    recover();
+    assertEquals(1, readInt(blk, 0));
+
+    Transaction tx2 = new Transaction(fm, lm, bm);
+    tx2.setAsyncCommit(true);
+    tx2.pin(blk);
+    tx2.setInt(blk, 0, 3, true);
+    tx2.commit();
+    lm.startFlusher(10);
+    lm.waitForDurable(tx2.commitLSN());
+    assertTrue(lm.durableLSN() >= tx2.commitLSN());
+    crash();
+    recover();
+    assertEquals(3, readInt(blk, 0));
+  }
+
+  private void open() {
+    fm = new FileMgr(dbDirectory, 400);
+    lm = new LogMgr(fm, "simpledb.log");
+    bm = new BufferMgr(fm, lm, 8);
+  }
+
+  /*
+   * Open the database again without writing the buffers, as after a crash.
+   * The log records that were not flushed are lost.
+   */
+  private void crash() {
+    open();
+  }
+
+  private void recover() {
+    Transaction tx = new Transaction(fm, lm, bm);
+    tx.recover();
+    tx.commit();
+  }
+
+  /*
+   * The values are read in read-only transactions, which take no locks,
+   * as the transactions lost at the crash still hold theirs.
+   */
+  private int readInt(BlockId blk, int offset) {
+    Transaction tx = new Transaction(fm, lm, bm, true);
+    tx.pin(blk);
+    int val = tx.getInt(blk, offset);
+    tx.commit();
+    return val;
+  }
+
+  private String readString(BlockId blk, int offset) {
+    Transaction tx = new Transaction(fm, lm, bm, true);
+    tx.pin(blk);
+    String val = tx.getString(blk, offset);
+    tx.commit();
+    return val;
+  }
+
+  private int diskInt(BlockId blk, int offset) {
+    Page p = new Page(fm.blockSize());
+    fm.read(blk, p);
+    return p.getInt(offset);
+  }
+
+  /*
+   * Count the compensation log records of the transaction.
+   */
+  private int compensations(long txnum) {
+    int count = 0;
+    LogIterator iter = lm.iterator();
+    while (iter.hasNext()) {
+      int pos = iter.advance();
+      if (LogDecoder.op(iter.page(), pos) != LogRecord.DIFF)
+        continue;
+      UpdateRecord rec = (UpdateRecord) LogRecord.createLogRecord(iter.page(), pos);
+      if (rec.txNumber() == txnum && rec.isCompensation())
+        count++;
+    }
+    return count;
+  }
+}